@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.forces.gravity.GravityModel;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import propagator.GravityCoefficientStore;
+
+/**
+ * Cost of one gravity field acceleration evaluation as a function of the degree and order.
+ * <p>
+ * The coefficients are loaded once in the shared {@link GravityCoefficientStore}, each trial only
+ * builds a truncated Droziner model. Degrees above the maximum degree of the file are filled with
+ * zero coefficients (missing coefficients allowed, as in the tutorials) : the cost is representative,
+ * not the accuracy. The evaluation points are spread over LEO to GEO altitudes and latitudes.
+ * </p>
+ * <p>
+ * Run with : mvn -Pbenchmarks package && java -jar target/benchmarks.jar GravityFieldBenchmark
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class GravityFieldBenchmark {
+
+    /** Degree and order of the gravity field. */
+    @Param({ "8", "16", "30", "45", "60", "90", "120" })
+    public int degree;
+
+    /** GRGS coefficients file. */
+    @Param({ "grim4s4_gr" })
+    public String fileName;
+
+    private static final int NB_POINTS = 64;
+
+    private GravityModel model;
+    private Vector3D[] positions;
+    private AbsoluteDate date;
+    private int index = 0;
+
+    @Setup
+    public void setUp() throws PatriusException, IOException, ParseException {
+
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+        date = new AbsoluteDate("2010-01-01T12:00:00.000", TimeScalesFactory.getUTC());
+
+        model = GravityCoefficientStore.getInstance(fileName, 120, 120, null).getDroziner(degree, degree);
+
+        positions = new Vector3D[NB_POINTS];
+        for (int i = 0; i < NB_POINTS; i++) {
+            final double r = 6.7e+6 + i*(42.164e+6 - 6.7e+6)/(NB_POINTS - 1);
+            final double lat = -1.4 + 2.8*i/(NB_POINTS - 1);
+            final double lon = 0.37*i;
+            positions[i] = new Vector3D(r*Math.cos(lat)*Math.cos(lon), r*Math.cos(lat)*Math.sin(lon), r*Math.sin(lat));
+        }
+
+    }
+
+    @Benchmark
+    public Vector3D acceleration() throws PatriusException {
+        index = (index + 1) % NB_POINTS;
+        return model.computeAcceleration(positions[index], date);
+    }
+
+}
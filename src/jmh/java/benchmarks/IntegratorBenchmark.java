@@ -0,0 +1,194 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.DormandPrince853Integrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusStepHandler;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusStepInterpolator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Cost of the integrators used in the NumericalPropagatorRungeKutta and NumericalPropagatorDOP tutorials.
+ * <p>
+ * One benchmark operation is the propagation of the tutorial orbit over one Keplerian period, so the
+ * reported score is directly the cost (ns) of one simulated orbit. Once per trial, the number of steps,
+ * the bytes allocated per step and the final position error against the exact Keplerian solution are
+ * printed.
+ * </p>
+ * <p>
+ * Run with : mvn -Pbenchmarks package && java -jar target/benchmarks.jar IntegratorBenchmark
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class IntegratorBenchmark {
+
+    /**
+     * Integrator settings : "RK4-step" (fixed step in s) or "DOP853-dP" (position tolerance in m,
+     * converted into integrator tolerances by {@link NumericalPropagator#tolerances}).
+     */
+    @Param({ "RK4-1", "RK4-2", "RK4-5", "RK4-10", "RK4-30", "DOP853-1e-1", "DOP853-1e-3", "DOP853-1e-5" })
+    public String integratorSettings;
+
+    /** Orbit type used for the integration. */
+    @Param({ "CARTESIAN", "EQUINOCTIAL" })
+    public String orbitType;
+
+    private SpacecraftState iniState;
+    private AbsoluteDate finalDate;
+    private NumericalPropagator propagator;
+    private Vector3D referencePosition;
+    private StepCounter stepCounter;
+
+    @Setup
+    public void setUp() throws PatriusException {
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Same initial orbit as in the tutorials
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TimeScalesFactory.getUTC());
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+        iniState = new SpacecraftState(iniOrbit);
+
+        // One simulated orbit
+        final double period = iniOrbit.getKeplerianPeriod();
+        finalDate = date.shiftedBy(period);
+
+        // The tutorials only use the central attraction : the Keplerian solution is exact
+        referencePosition = iniOrbit.shiftedBy(period).getPVCoordinates(GCRF).getPosition();
+
+        final OrbitType type = OrbitType.valueOf(orbitType);
+        propagator = new NumericalPropagator(buildIntegrator(iniOrbit, type), GCRF, type, PositionAngle.TRUE);
+        stepCounter = new StepCounter();
+        propagator.setMasterMode(stepCounter);
+
+    }
+
+    @Benchmark
+    public SpacecraftState propagateOneOrbit() throws PatriusException {
+        propagator.resetInitialState(iniState);
+        return propagator.propagate(finalDate);
+    }
+
+    @TearDown
+    public void report() throws PatriusException {
+
+        // Additional run out of the measurement to get steps, allocations and accuracy
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        stepCounter.reset();
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final SpacecraftState finalState = propagateOneOrbit();
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        final long steps = stepCounter.getSteps();
+        final double error = finalState.getPVCoordinates(FramesFactory.getGCRF()).getPosition().distance(referencePosition);
+
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%s / %s : %d steps per orbit, %d bytes per step, position error = %.3e m",
+                integratorSettings, orbitType, steps, steps > 0 ? allocated/steps : 0, error));
+
+    }
+
+    /**
+     * Method to build the integrator from the benchmark parameter.
+     * @param orbit initial orbit (needed for tolerances)
+     * @param type  orbit type used for integration
+     * @return integrator
+     * @throws PatriusException
+     */
+    private FirstOrderIntegrator buildIntegrator(final Orbit orbit, final OrbitType type) throws PatriusException {
+
+        final String[] settings = integratorSettings.split("-", 2);
+        final double value = Double.parseDouble(settings[1]);
+
+        if ("RK4".equals(settings[0])) {
+            return new ClassicalRungeKuttaIntegrator(value);
+        }
+
+        final double minStep = 0.1;
+        final double maxStep = 600.;
+        final double[][] tolerances = NumericalPropagator.tolerances(value, orbit, type);
+        return new DormandPrince853Integrator(minStep, maxStep, tolerances[0], tolerances[1]);
+
+    }
+
+    /**
+     * Step handler only counting the integrator steps.
+     */
+    private static final class StepCounter implements PatriusStepHandler {
+
+        private static final long serialVersionUID = 1L;
+        private long steps = 0;
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+            // Nothing to do ...
+        }
+
+        public void handleStep(final PatriusStepInterpolator interpolator, final boolean isLast) {
+            steps++;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+        public void reset() {
+            steps = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,476 @@
+package ephemeris;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.models.RediffusedRadiativeModel;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeIRProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeSphereProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyEphemeris;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.bodies.MeeusSun;
+import fr.cnes.sirius.patrius.forces.gravity.ThirdBodyAttraction;
+import fr.cnes.sirius.patrius.forces.radiation.KnockeRiesModel;
+import fr.cnes.sirius.patrius.forces.radiation.RediffusedRadiationPressure;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PatriusMessages;
+
+/**
+ * Celestial body ephemeris interpolating another ephemeris with Chebyshev polynomials.
+ * <p>
+ * The time line is cut in buckets of fixed duration. At the first access to a bucket, the position of
+ * the body in the fit frame is sampled at the Chebyshev nodes of the bucket and the polynomials are
+ * checked between the nodes : the degree is doubled until the position error is below the target.
+ * If the maximum degree is not enough, the bucket is split in two halves fitted the same way (down to
+ * {@value #MAX_SPLITS} splits, beyond which the fit fails). The next accesses only evaluate the
+ * polynomials (the velocity is given by their derivatives).
+ * </p>
+ * <p>
+ * Installed with {@link #install} on a body ({@link MeeusSun}, {@link CelestialBodyFactory#getSun()},
+ * a JPL body ...), the cache is used by all the models of the body : third body attraction, radiation
+ * pressure, atmosphere models, Sun pointing attitudes ... The segments are immutable once fitted and
+ * can be read concurrently by several threads.
+ * </p>
+ */
+public class ChebyshevEphemeris implements CelestialBodyEphemeris {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum degree of the polynomials. */
+    private static final int MAX_DEGREE = 64;
+
+    /** Maximum number of successive splits of a bucket. */
+    private static final int MAX_SPLITS = 10;
+
+    private final CelestialBodyEphemeris source;
+    private final Frame fitFrame;
+    private final double bucketDuration;
+    private final int degree;
+    private final double targetError;
+
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<Long, Segment>();
+    private final AtomicLong nbCalls = new AtomicLong();
+    private final AtomicLong nbMisses = new AtomicLong();
+    private volatile double maxError = 0.;
+    private volatile double fitDuration = 0.;
+
+    /**
+     * Constructor
+     * @param source         interpolated ephemeris
+     * @param fitFrame       frame of the polynomials (must not depend on the interpolated body)
+     * @param bucketDuration duration of the segments (s)
+     * @param degree         initial degree of the polynomials (between 1 and {@value #MAX_DEGREE})
+     * @param targetError    target position error (m)
+     */
+    public ChebyshevEphemeris(final CelestialBodyEphemeris source, final Frame fitFrame, final double bucketDuration,
+            final int degree, final double targetError) {
+        if (degree < 1 || degree > MAX_DEGREE) {
+            throw new IllegalArgumentException("Degree " + degree + " not in [1, " + MAX_DEGREE + "]");
+        }
+        this.source = source;
+        this.fitFrame = fitFrame;
+        this.bucketDuration = bucketDuration;
+        this.degree = degree;
+        this.targetError = targetError;
+    }
+
+    /**
+     * Method to replace the ephemeris of a body by its interpolated version.
+     * @param body           celestial body
+     * @param fitFrame       frame of the polynomials (must not depend on the body)
+     * @param bucketDuration duration of the segments (s)
+     * @param degree         initial degree of the polynomials (between 1 and {@value #MAX_DEGREE})
+     * @param targetError    target position error (m)
+     * @return the installed ephemeris
+     */
+    public static ChebyshevEphemeris install(final CelestialBody body, final Frame fitFrame, final double bucketDuration,
+            final int degree, final double targetError) {
+        final ChebyshevEphemeris ephemeris = new ChebyshevEphemeris(body.getEphemeris(), fitFrame, bucketDuration,
+                degree, targetError);
+        body.setEphemeris(ephemeris);
+        return ephemeris;
+    }
+
+    public PVCoordinates getPVCoordinates(final AbsoluteDate date, final Frame frame) throws PatriusException {
+
+        nbCalls.incrementAndGet();
+
+        final double t = date.durationFrom(AbsoluteDate.J2000_EPOCH);
+        final long bucket = (long) FastMath.floor(t/bucketDuration);
+        final PVCoordinates pv = getSegment(bucket).value(2.*(t - bucket*bucketDuration)/bucketDuration - 1.,
+                bucketDuration);
+
+        if (frame == fitFrame) {
+            return pv;
+        }
+        return fitFrame.getTransformTo(frame, date).transformPVCoordinates(pv);
+
+    }
+
+    public Frame getNativeFrame(final AbsoluteDate date, final Frame frame) {
+        return fitFrame;
+    }
+
+    /**
+     * @return ratio of the calls served by already fitted segments
+     */
+    public double getHitRate() {
+        final long n = nbCalls.get();
+        return n == 0 ? 0. : 1. - (double) nbMisses.get()/n;
+    }
+
+    /**
+     * @return number of fitted segments
+     */
+    public int getNbSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return maximum position error measured on the fitted segments (m)
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return cumulated time spent fitting the segments (s)
+     */
+    public double getFitDuration() {
+        return fitDuration;
+    }
+
+    /**
+     * Method to get (fitting it if needed) a segment.
+     * @param bucket index of the bucket
+     * @return the segment
+     * @throws PatriusException
+     */
+    private Segment getSegment(final long bucket) throws PatriusException {
+        Segment segment = segments.get(bucket);
+        if (segment == null) {
+            synchronized (segments) {
+                segment = segments.get(bucket);
+                if (segment == null) {
+                    final long start = System.nanoTime();
+                    segment = fit(AbsoluteDate.J2000_EPOCH.shiftedBy(bucket*bucketDuration), bucketDuration, 0);
+                    segments.put(bucket, segment);
+                    nbMisses.incrementAndGet();
+                    fitDuration += (System.nanoTime() - start)*1.e-9;
+                }
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Method to fit the polynomials of a bucket, increasing the degree until the target error is reached,
+     * and splitting the bucket if the maximum degree is not enough.
+     * @param start    start of the bucket
+     * @param duration duration of the bucket (s)
+     * @param splits   number of splits already done
+     * @return the segment
+     * @throws PatriusException if the target error is not reached after {@value #MAX_SPLITS} splits
+     */
+    private Segment fit(final AbsoluteDate start, final double duration, final int splits) throws PatriusException {
+
+        Segment segment = null;
+        int n = degree;
+        while (true) {
+
+            // Sampling at the Chebyshev nodes
+            final double[][] samples = new double[3][n + 1];
+            for (int k = 0; k <= n; k++) {
+                final double x = FastMath.cos(FastMath.PI*(k + 0.5)/(n + 1));
+                final Vector3D p = position(start, duration, x);
+                samples[0][k] = p.getX();
+                samples[1][k] = p.getY();
+                samples[2][k] = p.getZ();
+            }
+            segment = new Segment(samples);
+
+            // Check between the nodes
+            double error = 0.;
+            for (int k = 0; k <= 2*n; k++) {
+                final double x = -1. + (k + 0.5)/(n + 0.5);
+                error = FastMath.max(error, segment.value(x, duration).getPosition().distance(position(start, duration, x)));
+            }
+            segment.error = error;
+            if (error <= targetError) {
+                maxError = FastMath.max(maxError, error);
+                return segment;
+            }
+            if (n == MAX_DEGREE) {
+                break;
+            }
+            n = FastMath.min(2*n, MAX_DEGREE);
+        }
+
+        // The maximum degree is not enough : the bucket is split in two halves
+        if (splits >= MAX_SPLITS) {
+            throw new PatriusException(PatriusMessages.SIMPLE_MESSAGE, String.format(
+                    "Chebyshev fit error %.3e m above the target %.3e m at %s (bucket of %.3f s)", segment.error,
+                    targetError, start, duration));
+        }
+        return new Segment(fit(start, 0.5*duration, splits + 1),
+                fit(start.shiftedBy(0.5*duration), 0.5*duration, splits + 1));
+
+    }
+
+    /**
+     * Method to compute the position of the body with the interpolated ephemeris.
+     * @param start    start of the bucket
+     * @param duration duration of the bucket (s)
+     * @param x        reduced time in [-1, 1]
+     * @return position in the fit frame
+     * @throws PatriusException
+     */
+    private Vector3D position(final AbsoluteDate start, final double duration, final double x) throws PatriusException {
+        return source.getPVCoordinates(start.shiftedBy(0.5*(x + 1.)*duration), fitFrame).getPosition();
+    }
+
+    /**
+     * Chebyshev polynomials of the three position components over a bucket, or the two halves of a
+     * split bucket.
+     */
+    private final class Segment {
+
+        /** Coefficients (first coefficient halved in the sum), null for a split bucket. */
+        private final double[][] c;
+        /** Coefficients of the derivatives with respect to the reduced time. */
+        private final double[][] d;
+        /** First half of a split bucket. */
+        private final Segment first;
+        /** Second half of a split bucket. */
+        private final Segment second;
+        private double error;
+
+        /**
+         * Constructor
+         * @param samples position components at the Chebyshev nodes
+         */
+        Segment(final double[][] samples) {
+            final int n = samples[0].length - 1;
+            c = new double[3][n + 1];
+            d = new double[3][n + 1];
+            first = null;
+            second = null;
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j <= n; j++) {
+                    double sum = 0.;
+                    for (int k = 0; k <= n; k++) {
+                        sum += samples[i][k]*FastMath.cos(FastMath.PI*j*(k + 0.5)/(n + 1));
+                    }
+                    c[i][j] = 2.*sum/(n + 1);
+                }
+                for (int j = n; j >= 1; j--) {
+                    d[i][j - 1] = (j + 1 <= n ? d[i][j + 1] : 0.) + 2.*j*c[i][j];
+                }
+            }
+        }
+
+        /**
+         * Constructor of a split bucket
+         * @param first  first half
+         * @param second second half
+         */
+        Segment(final Segment first, final Segment second) {
+            this.c = null;
+            this.d = null;
+            this.first = first;
+            this.second = second;
+            this.error = FastMath.max(first.error, second.error);
+        }
+
+        /**
+         * Method to evaluate the polynomials.
+         * @param x        reduced time in [-1, 1]
+         * @param duration duration of the bucket (s)
+         * @return position and velocity in the fit frame
+         */
+        PVCoordinates value(final double x, final double duration) {
+            if (c == null) {
+                return x < 0. ? first.value(2.*x + 1., 0.5*duration) : second.value(2.*x - 1., 0.5*duration);
+            }
+            final double scale = 2./duration;
+            return new PVCoordinates(
+                    new Vector3D(clenshaw(c[0], x), clenshaw(c[1], x), clenshaw(c[2], x)),
+                    new Vector3D(scale*clenshaw(d[0], x), scale*clenshaw(d[1], x), scale*clenshaw(d[2], x)));
+        }
+
+        private double clenshaw(final double[] coefficients, final double x) {
+            double b1 = 0.;
+            double b2 = 0.;
+            for (int j = coefficients.length - 1; j >= 1; j--) {
+                final double b = 2.*x*b1 - b2 + coefficients[j];
+                b2 = b1;
+                b1 = b;
+            }
+            return x*b1 - b2 + 0.5*coefficients[0];
+        }
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+        //SPECIFIC
+        // Accuracy and cost of the Sun ephemeris over one year (MeeusSun and JPL Sun)
+        final CelestialBody[] rawSuns = { new MeeusSun(), CelestialBodyFactory.getSun() };
+        final String[] names = { "MeeusSun", "JPL Sun" };
+        final int nbCalls = 1000000;
+        for (int b = 0; b < rawSuns.length; b++) {
+
+            // Ephemeris compared directly (the bodies are left unchanged)
+            final CelestialBodyEphemeris rawEphemeris = rawSuns[b].getEphemeris();
+            final ChebyshevEphemeris cached = new ChebyshevEphemeris(rawEphemeris, GCRF, Constants.JULIAN_DAY, 8, 1.);
+
+            final Random random = new Random(42);
+            final AbsoluteDate[] dates = new AbsoluteDate[nbCalls];
+            for (int i = 0; i < nbCalls; i++) {
+                dates[i] = date.shiftedBy(random.nextDouble()*365.25*Constants.JULIAN_DAY);
+            }
+
+            long start = System.nanoTime();
+            final PVCoordinates[] rawPv = new PVCoordinates[nbCalls];
+            for (int i = 0; i < nbCalls; i++) {
+                rawPv[i] = rawEphemeris.getPVCoordinates(dates[i], GCRF);
+            }
+            final double rawDuration = (System.nanoTime() - start)*1.e-9;
+
+            start = System.nanoTime();
+            double posError = 0.;
+            double velError = 0.;
+            for (int i = 0; i < nbCalls; i++) {
+                final PVCoordinates pv = cached.getPVCoordinates(dates[i], GCRF);
+                posError = FastMath.max(posError, pv.getPosition().distance(rawPv[i].getPosition()));
+                velError = FastMath.max(velError, pv.getVelocity().distance(rawPv[i].getVelocity()));
+            }
+            final double cachedDuration = (System.nanoTime() - start)*1.e-9;
+
+            System.out.println(names[b]+" :");
+            System.out.println(String.format("  %d calls : raw %.3f s, cached %.3f s (fits %.3f s, %d segments, hit rate %.4f)",
+                    nbCalls, rawDuration, cachedDuration, cached.getFitDuration(), cached.getNbSegments(), cached.getHitRate()));
+            System.out.println(String.format("  Max errors : position %.3e m (fit bound %.3e m), velocity %.3e m/s",
+                    posError, cached.getMaxError(), velError));
+        }
+
+        // SRP propagation (same as NumericalPropagationWithSRP) with the raw and the cached MeeusSun
+        final double sma = 7000.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+        final AbsoluteDate finalDate = date.shiftedBy(5.*iniOrbit.getKeplerianPeriod());
+
+        long start = System.nanoTime();
+        final SpacecraftState rawState = propagate(iniOrbit, rawSuns[0], GCRF, finalDate);
+        final double rawDuration = (System.nanoTime() - start)*1.e-9;
+        final CelestialBody cachedSun = new MeeusSun();
+        final ChebyshevEphemeris installed = install(cachedSun, GCRF, Constants.JULIAN_DAY, 8, 1.);
+        start = System.nanoTime();
+        final SpacecraftState cachedState = propagate(iniOrbit, cachedSun, GCRF, finalDate);
+        final double cachedDuration = (System.nanoTime() - start)*1.e-9;
+        //SPECIFIC
+
+        System.out.println();
+        System.out.println(String.format("SRP propagation : raw %.3f s, cached %.3f s (speedup %.2f)", rawDuration,
+                cachedDuration, rawDuration/cachedDuration));
+        System.out.println(String.format("Final position difference = %.3e m",
+                rawState.getPVCoordinates().getPosition().distance(cachedState.getPVCoordinates().getPosition())));
+        System.out.println(String.format("Installed cache : %d segment(s), hit rate %.6f", installed.getNbSegments(),
+                installed.getHitRate()));
+
+    }
+
+    /**
+     * Method to propagate the scenario of NumericalPropagationWithSRP with a given Sun.
+     * @param iniOrbit  initial orbit
+     * @param sun       Sun
+     * @param GCRF      GCRF frame
+     * @param finalDate final date
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final Orbit iniOrbit, final CelestialBody sun,
+            final CelestialBodyFrame GCRF, final AbsoluteDate finalDate) throws PatriusException {
+
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double ka = 1.0;
+        final double ks = 0.0;
+        final double kd = 0.0;
+        builder.addProperty(new RadiativeProperty(ka, ks, kd), "MAIN");
+        builder.addProperty(new RadiativeIRProperty(ka, ks, kd), "MAIN");
+        final double radius = 10.;
+        builder.addProperty(new RadiativeSphereProperty(radius), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final RediffusedRadiativeModel rdm = new RediffusedRadiativeModel(true, true, 1., 1., assembly);
+
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(2.),
+                GCRF, OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        propagator.addForceModel(new ThirdBodyAttraction(sun.getGravityModel()));
+        propagator.addForceModel(new RediffusedRadiationPressure(sun, GCRF, 1, 10, new KnockeRiesModel(), rdm));
+        return propagator.propagate(finalDate);
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package ephemeris;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PropagationException;
+
+public class MappedEphemerisExport {
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // We create a spacecratftstate
+        final SpacecraftState iniState = new SpacecraftState(iniOrbit);
+
+        // Propagating 7 days, states being exported every 10 s
+        final AbsoluteDate finalDate = date.shiftedBy(7.*Constants.JULIAN_DAY);
+        final double handlerStep = 10.;
+
+        //SPECIFIC
+        // First export : text file, one formatted line per state
+        final File textFile = File.createTempFile("ephemeris", ".txt");
+        textFile.deleteOnExit();
+        final BufferedWriter text = new BufferedWriter(new FileWriter(textFile));
+        final NumericalPropagator propagator1 = buildPropagator(iniState);
+        propagator1.setMasterMode(handlerStep, new PatriusFixedStepHandler() {
+            private static final long serialVersionUID = 1L;
+            public void init(final SpacecraftState s0, final AbsoluteDate t) {
+                // Nothing to do ...
+            }
+            public void handleStep(final SpacecraftState currentState, final boolean isLast)
+                    throws PropagationException {
+                try {
+                    final PVCoordinates pv = currentState.getPVCoordinates();
+                    text.write(currentState.getDate().toString(TUC)+" "+pv.getPosition().getX()+" "+pv.getPosition().getY()
+                            +" "+pv.getPosition().getZ()+" "+pv.getVelocity().getX()+" "+pv.getVelocity().getY()
+                            +" "+pv.getVelocity().getZ());
+                    text.newLine();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        long start = System.nanoTime();
+        propagator1.propagate(finalDate);
+        text.close();
+        final double textDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Second export : memory mapped binary file
+        final File binaryFile = File.createTempFile("ephemeris", ".bin");
+        binaryFile.deleteOnExit();
+        final MappedEphemerisWriter writer = new MappedEphemerisWriter(binaryFile, TUC, null, 65536);
+        final NumericalPropagator propagator2 = buildPropagator(iniState);
+        propagator2.setMasterMode(handlerStep, writer);
+        start = System.nanoTime();
+        propagator2.propagate(finalDate);
+        writer.close();
+        final double binaryDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Reading back the binary file (random access and interpolation)
+        final MappedEphemerisReader reader = new MappedEphemerisReader(binaryFile);
+        final int last = (int) reader.getCount() - 1;
+        final AbsoluteDate interpolationDate = reader.getDate(last/2).shiftedBy(0.5*handlerStep);
+        final SpacecraftState interpolatedState = reader.getSpacecraftState(interpolationDate, GCRF);
+        //SPECIFIC
+
+        System.out.println(String.format("Text export   : %8.3f s, %10d bytes", textDuration, textFile.length()));
+        System.out.println(String.format("Binary export : %8.3f s, %10d bytes (%d records)", binaryDuration,
+                binaryFile.length(), last + 1));
+        System.out.println();
+        System.out.println("Frame of the ephemeris = "+reader.getFrameName());
+        System.out.println("Last record date = "+reader.getDate(last).toString(TUC));
+        System.out.println("Interpolated date = "+interpolatedState.getDate().toString(TUC)
+                +" ; LV = "+FastMath.toDegrees(interpolatedState.getLv())+" deg");
+        reader.close();
+
+    }
+
+    /**
+     * Method to build the propagator used for both exports.
+     * @param iniState initial state
+     * @return the propagator
+     * @throws PatriusException
+     */
+    private static NumericalPropagator buildPropagator(final SpacecraftState iniState) throws PatriusException {
+
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final FirstOrderIntegrator integrator = new ClassicalRungeKuttaIntegrator(pasRk);
+
+        // Initialization of the propagator
+        final NumericalPropagator propagator = new NumericalPropagator(integrator, iniState.getFrame(),
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(iniState);
+        return propagator;
+
+    }
+
+}
@@ -0,0 +1,291 @@
+package ephemeris;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.cnes.sirius.patrius.assembly.models.SimpleMassModel;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.CartesianOrbit;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import miscellaneous.HermiteInterpolation;
+
+/**
+ * Random access reader of the files written by {@link MappedEphemerisWriter}.
+ * <p>
+ * The file may still be written by another process : {@link #refresh()} maps the records added since
+ * the last call. The records are mapped by chunks of less than 2 GB, so that the file size is not
+ * limited by the size of a single mapped buffer.
+ * </p>
+ */
+public class MappedEphemerisReader implements Closeable {
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int nbColumns;
+    private final double mu;
+    private final String frameName;
+    private final AbsoluteDate referenceDate;
+    private final int recordSize;
+    private final long recordsPerChunk;
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    private long count = -1;
+
+    /**
+     * Constructor
+     * @param file ephemeris file
+     * @throws IOException if the file cannot be read or is not an ephemeris file
+     * @throws PatriusException if the time scale cannot be loaded
+     */
+    public MappedEphemerisReader(final File file) throws IOException, PatriusException {
+
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MappedEphemerisWriter.HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt() != MappedEphemerisWriter.MAGIC) {
+            close();
+            throw new IOException(file + " is not an ephemeris file");
+        }
+        final int version = header.getInt();
+        if (version != MappedEphemerisWriter.VERSION) {
+            close();
+            throw new IOException("Unsupported ephemeris file version " + version);
+        }
+        nbColumns = header.getInt();
+        header.getLong();
+        mu = header.getDouble();
+        final double remainder = header.getDouble();
+        final TimeScale timeScale = getTimeScale(getString(header));
+        referenceDate = new AbsoluteDate(getString(header), timeScale).shiftedBy(remainder);
+        frameName = getString(header);
+        recordSize = nbColumns*8;
+        recordsPerChunk = Integer.MAX_VALUE/recordSize;
+
+        refresh();
+
+    }
+
+    /**
+     * Method to take into account the records written since the last call (tail mode).
+     * @return number of available records
+     * @throws IOException
+     */
+    public long refresh() throws IOException {
+        final long newCount = header.getLong(MappedEphemerisWriter.COUNT_POSITION);
+        if (newCount != count) {
+            // The last (partial) chunk is mapped again, the following ones are added
+            if (!chunks.isEmpty()) {
+                chunks.remove(chunks.size() - 1);
+            }
+            for (long first = chunks.size()*recordsPerChunk; first < newCount || chunks.isEmpty();
+                    first += recordsPerChunk) {
+                final long nbRecords = FastMath.min(recordsPerChunk, newCount - first);
+                final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                        MappedEphemerisWriter.HEADER_SIZE + first*recordSize, nbRecords*recordSize);
+                chunk.order(ByteOrder.LITTLE_ENDIAN);
+                chunks.add(chunk);
+            }
+            count = newCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return number of available records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return reference date of the record offsets
+     */
+    public AbsoluteDate getReferenceDate() {
+        return referenceDate;
+    }
+
+    /**
+     * @return name of the frame of the recorded positions and velocities
+     */
+    public String getFrameName() {
+        return frameName;
+    }
+
+    /**
+     * Method to get a recorded value.
+     * @param index  record index
+     * @param column column index (see {@link MappedEphemerisWriter#COLUMNS})
+     * @return recorded value
+     */
+    public double get(final long index, final int column) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of [0, " + count + "[");
+        }
+        final MappedByteBuffer chunk = chunks.get((int) (index/recordsPerChunk));
+        return chunk.getDouble((int) (index%recordsPerChunk)*recordSize + column*8);
+    }
+
+    /**
+     * Method to get the date of a record.
+     * @param index record index
+     * @return date of the record
+     */
+    public AbsoluteDate getDate(final long index) {
+        return referenceDate.shiftedBy(get(index, 0));
+    }
+
+    /**
+     * Method to get the position and velocity of a record.
+     * @param index record index
+     * @return position and velocity
+     */
+    public PVCoordinates getPVCoordinates(final long index) {
+        return new PVCoordinates(new Vector3D(get(index, 1), get(index, 2), get(index, 3)),
+                new Vector3D(get(index, 4), get(index, 5), get(index, 6)));
+    }
+
+    /**
+     * Method to find the record preceding a date (binary search).
+     * @param date date within the recorded interval
+     * @return index of the last record before the date (the next one is after it)
+     */
+    private long findLow(final AbsoluteDate date) {
+
+        final double t = date.durationFrom(referenceDate);
+        final long last = count - 1;
+        if (last < 1 || t < get(0, 0) || t > get(last, 0)) {
+            throw new IllegalArgumentException("Date out of the recorded interval");
+        }
+
+        long low = 0;
+        long high = last;
+        while (high - low > 1) {
+            final long mid = (low + high) >>> 1;
+            if (get(mid, 0) <= t) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+
+    }
+
+    /**
+     * Method to interpolate the position and velocity (cubic Hermite interpolation between the two
+     * records surrounding the date).
+     * @param date interpolation date
+     * @return interpolated position and velocity
+     */
+    public PVCoordinates getPVCoordinates(final AbsoluteDate date) {
+
+        final long low = findLow(date);
+        final long high = low + 1;
+        final double t0 = get(low, 0);
+        final double h = get(high, 0) - t0;
+        final double dt = date.durationFrom(referenceDate) - t0;
+        final double[] p = new double[3];
+        final double[] v = new double[3];
+        for (int j = 0; j < 3; j++) {
+            final double[] pv = HermiteInterpolation.interpolate(dt, h, get(low, 1 + j), get(low, 4 + j),
+                    get(high, 1 + j), get(high, 4 + j));
+            p[j] = pv[0];
+            v[j] = pv[1];
+        }
+        return new PVCoordinates(new Vector3D(p[0], p[1], p[2]), new Vector3D(v[0], v[1], v[2]));
+
+    }
+
+    /**
+     * Method to interpolate the recorded mass (linear interpolation).
+     * @param date interpolation date
+     * @return interpolated mass (NaN if the mass was not recorded)
+     */
+    public double getMass(final AbsoluteDate date) {
+        final int massColumn = MappedEphemerisWriter.COLUMNS.length - 1;
+        final long low = findLow(date);
+        final double t0 = get(low, 0);
+        final double w = (date.durationFrom(referenceDate) - t0)/(get(low + 1, 0) - t0);
+        return (1. - w)*get(low, massColumn) + w*get(low + 1, massColumn);
+    }
+
+    /**
+     * Method to interpolate a spacecraft state (orbit, and mass of the "MAIN" part if recorded).
+     * @param date  interpolation date
+     * @param frame frame of the recorded positions (its name must match the file one)
+     * @return interpolated state
+     */
+    public SpacecraftState getSpacecraftState(final AbsoluteDate date, final Frame frame) {
+        return getSpacecraftState(date, frame, "MAIN");
+    }
+
+    /**
+     * Method to interpolate a spacecraft state (orbit, and mass if recorded).
+     * @param date         interpolation date
+     * @param frame        frame of the recorded positions (its name must match the file one)
+     * @param massPartName name of the part holding the recorded mass in the returned state
+     * @return interpolated state
+     */
+    public SpacecraftState getSpacecraftState(final AbsoluteDate date, final Frame frame, final String massPartName) {
+        if (!frameName.equals(frame.getName())) {
+            throw new IllegalArgumentException("Ephemeris written in " + frameName + ", not in " + frame.getName());
+        }
+        final CartesianOrbit orbit = new CartesianOrbit(getPVCoordinates(date), frame, date, mu);
+        final double mass = getMass(date);
+        if (Double.isNaN(mass)) {
+            return new SpacecraftState(orbit);
+        }
+        return new SpacecraftState(orbit, new SimpleMassModel(mass, massPartName));
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Method to get the time scale from its name.
+     * @param name time scale name
+     * @return time scale
+     * @throws PatriusException
+     */
+    private static TimeScale getTimeScale(final String name) throws PatriusException {
+        if ("UTC".equals(name)) {
+            return TimeScalesFactory.getUTC();
+        } else if ("TAI".equals(name)) {
+            return TimeScalesFactory.getTAI();
+        } else if ("TT".equals(name)) {
+            return TimeScalesFactory.getTT();
+        }
+        throw new IllegalArgumentException("Unsupported time scale " + name);
+    }
+
+    /**
+     * Method to read a string from the header.
+     * @param buffer header buffer
+     * @return read string
+     */
+    private static String getString(final MappedByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
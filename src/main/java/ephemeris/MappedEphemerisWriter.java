@@ -0,0 +1,265 @@
+package ephemeris;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusStepHandler;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusStepInterpolator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PropagationException;
+
+/**
+ * Step handler streaming the propagated states into a binary file through memory mapping.
+ * <p>
+ * File layout (little endian) :
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes : magic number, version, number of columns, number of
+ * records, central attraction coefficient, then the time scale name, the reference date, the frame
+ * name and the column names as UTF-8 strings,</li>
+ * <li>fixed size records of {@link #COLUMNS}.length doubles : offset from the reference date (s),
+ * position (m), velocity (m/s) and mass (kg, NaN if not recorded).</li>
+ * </ul>
+ * The number of records is updated in the header after each record : other processes can tail
+ * the file with {@link MappedEphemerisReader}. The file is not truncated when it is closed (a mapped
+ * file cannot be truncated on every platform) : it may end with the unused part of the last mapped
+ * segment, the records being the ones counted in the header.
+ * </p>
+ * It can be used as a fixed step handler (sampled states) or as a step handler (integrator steps, the
+ * initial state being written at the first step).
+ */
+public class MappedEphemerisWriter implements PatriusFixedStepHandler, PatriusStepHandler, Closeable {
+
+    /** Magic number ("PEPH"). */
+    public static final int MAGIC = 0x50455048;
+
+    /** File format version. */
+    public static final int VERSION = 1;
+
+    /** Header size (bytes). */
+    public static final int HEADER_SIZE = 512;
+
+    /** Recorded columns. */
+    public static final String[] COLUMNS = { "T", "X", "Y", "Z", "VX", "VY", "VZ", "MASS" };
+
+    /** Position of the number of records in the header. */
+    static final int COUNT_POSITION = 12;
+
+    /** Size of one record (bytes). */
+    static final int RECORD_SIZE = COLUMNS.length*8;
+
+    private static final long serialVersionUID = 1L;
+
+    /** Output file. */
+    private final File file;
+
+    /** Time scale used to write the reference date. */
+    private final transient TimeScale timeScale;
+
+    /** Name of the time scale (written in the header). */
+    private final String timeScaleName;
+
+    /** Name of the part whose mass is recorded (may be null). */
+    private final String massPartName;
+
+    /** Number of records mapped at once. */
+    private final int recordsPerSegment;
+
+    private transient RandomAccessFile raf;
+    private transient FileChannel channel;
+    private transient MappedByteBuffer header;
+    private transient MappedByteBuffer segment;
+    private AbsoluteDate referenceDate;
+    private AbsoluteDate lastDate;
+    private boolean firstStep;
+    private long count = 0;
+
+    /**
+     * Constructor
+     * @param file              output file (overwritten)
+     * @param timeScale         time scale used to write the reference date (its name is written in the header)
+     * @param massPartName      name of the part whose mass is recorded (null for no mass)
+     * @param recordsPerSegment number of records mapped at once
+     */
+    public MappedEphemerisWriter(final File file, final TimeScale timeScale, final String massPartName,
+            final int recordsPerSegment) {
+        this.file = file;
+        this.timeScale = timeScale;
+        this.timeScaleName = timeScale.getName();
+        this.massPartName = massPartName;
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    public void init(final SpacecraftState s0, final AbsoluteDate t) {
+
+        firstStep = true;
+
+        // The file is created at the first propagation only
+        if (channel != null) {
+            return;
+        }
+
+        try {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Unable to overwrite " + file);
+            }
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            // The reference date is written with a millisecond resolution : the remainder is kept apart
+            referenceDate = s0.getDate();
+            final String dateString = referenceDate.toString(timeScale);
+            final double remainder = referenceDate.durationFrom(new AbsoluteDate(dateString, timeScale));
+
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(COLUMNS.length);
+            header.putLong(0L);
+            header.putDouble(s0.getMu());
+            header.putDouble(remainder);
+            putString(header, timeScaleName);
+            putString(header, dateString);
+            putString(header, s0.getFrame().getName());
+            final StringBuilder names = new StringBuilder();
+            for (final String column : COLUMNS) {
+                names.append(names.length() == 0 ? "" : ",").append(column);
+            }
+            putString(header, names.toString());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    public void handleStep(final SpacecraftState currentState, final boolean isLast) throws PropagationException {
+        write(currentState);
+        if (isLast) {
+            flush();
+        }
+    }
+
+    public void handleStep(final PatriusStepInterpolator interpolator, final boolean isLast) throws PropagationException {
+        try {
+            if (firstStep) {
+                // Initial state (start of the first step), unless already written by a previous propagation
+                firstStep = false;
+                if (lastDate == null || !interpolator.getPreviousDate().equals(lastDate)) {
+                    interpolator.setInterpolatedDate(interpolator.getPreviousDate());
+                    write(interpolator.getInterpolatedState());
+                }
+            }
+            interpolator.setInterpolatedDate(interpolator.getCurrentDate());
+            write(interpolator.getInterpolatedState());
+        } catch (final PropagationException e) {
+            throw e;
+        } catch (final PatriusException e) {
+            throw new PropagationException(e);
+        }
+        if (isLast) {
+            flush();
+        }
+    }
+
+    /**
+     * Method to append one record.
+     * @param state state to write
+     * @throws PropagationException
+     */
+    private void write(final SpacecraftState state) throws PropagationException {
+
+        // A new segment is mapped when the current one is full
+        if (segment == null || !segment.hasRemaining()) {
+            try {
+                final long position = HEADER_SIZE + count*RECORD_SIZE;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) recordsPerSegment*RECORD_SIZE);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        final PVCoordinates pv = state.getPVCoordinates();
+        final Vector3D pos = pv.getPosition();
+        final Vector3D vel = pv.getVelocity();
+        double mass = Double.NaN;
+        if (massPartName != null) {
+            try {
+                mass = state.getMass(massPartName);
+            } catch (final PatriusException e) {
+                throw new PropagationException(e);
+            }
+        }
+
+        segment.putDouble(state.getDate().durationFrom(referenceDate));
+        segment.putDouble(pos.getX());
+        segment.putDouble(pos.getY());
+        segment.putDouble(pos.getZ());
+        segment.putDouble(vel.getX());
+        segment.putDouble(vel.getY());
+        segment.putDouble(vel.getZ());
+        segment.putDouble(mass);
+
+        // The record is visible to readers only once it is complete
+        lastDate = state.getDate();
+        count++;
+        header.putLong(COUNT_POSITION, count);
+
+    }
+
+    /**
+     * @return number of written records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Method to force the written records to the storage device.
+     */
+    public void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+        if (header != null) {
+            header.force();
+        }
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            flush();
+            segment = null;
+            header = null;
+            // No truncation of the unused part of the last segment, which may still be mapped
+            channel.close();
+            raf.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Method to write a string in the header.
+     * @param buffer header buffer
+     * @param value  string to write
+     */
+    private static void putString(final MappedByteBuffer buffer, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+}
@@ -0,0 +1,390 @@
+package events;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.events.AbstractDetector;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Event detector with an adaptive check of its g function.
+ * <p>
+ * In adaptive mode, the slope and curvature of g are estimated from the last three exact values (divided
+ * differences). From the last exact value g0, the horizon is the first date t such as
+ * |g0| = |g'| t + |g''| t^2 / 2, reduced by a safety factor. Within this horizon, g is predicted
+ * (second order Taylor expansion, keeping the sign of g0) instead of being computed, and the max check
+ * interval is the horizon. Near a root, the horizon shrinks and the exact g function is used (root
+ * refinement included).
+ * </p>
+ * <p>
+ * This is a heuristic: the derivatives are only estimated, so the horizon is not a bound on the
+ * earliest root. Higher order terms, or a discontinuity of g (for instance the wrap of an angle such as
+ * the true longitude argument), can make g reach zero before the horizon, and such a root is skipped.
+ * The safety factor is the only guard against it: it must be lowered for fast varying g functions, and
+ * the adaptive mode must not be used with discontinuous ones.
+ * </p>
+ * <p>
+ * Without adaptive mode, the detector only counts the evaluations of the g function.
+ * </p>
+ */
+public class AdaptiveCheckDetector implements EventDetector {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default safety factor on the horizon. */
+    public static final double DEFAULT_SAFETY = 0.5;
+
+    private final EventDetector detector;
+    private final boolean adaptive;
+    private final double safety;
+
+    // Last exact values of g (the last one first)
+    private final List<AbsoluteDate> dates = new ArrayList<AbsoluteDate>();
+    private final List<Double> values = new ArrayList<Double>();
+    private double slope;
+    private double curvature;
+    private double horizon;
+
+    private long nbCalls;
+    private long nbEvaluations;
+
+    /**
+     * Constructor (adaptive mode, default safety factor).
+     * @param detector event detector
+     */
+    public AdaptiveCheckDetector(final EventDetector detector) {
+        this(detector, true, DEFAULT_SAFETY);
+    }
+
+    /**
+     * Constructor
+     * @param detector event detector
+     * @param adaptive if true, adaptive check of g; if false, g always computed
+     * @param safety   safety factor on the horizon (between 0 and 1)
+     */
+    public AdaptiveCheckDetector(final EventDetector detector, final boolean adaptive, final double safety) {
+        this.detector = detector;
+        this.adaptive = adaptive;
+        this.safety = safety;
+    }
+
+    public double g(final SpacecraftState s) throws PatriusException {
+
+        nbCalls++;
+        final AbsoluteDate date = s.getDate();
+
+        if (adaptive && dates.size() == 3) {
+            final double dt = date.durationFrom(dates.get(0));
+            if (FastMath.abs(dt) < horizon) {
+                // No root possible: prediction with the sign of the last exact value
+                final double g0 = values.get(0);
+                final double predicted = g0 + slope*dt + 0.5*curvature*dt*dt;
+                return predicted*g0 > 0. ? predicted : 0.5*g0;
+            }
+        }
+
+        nbEvaluations++;
+        final double value = detector.g(s);
+        if (adaptive) {
+            addValue(date, value);
+        }
+        return value;
+
+    }
+
+    /**
+     * Method to store an exact value of g and update the derivatives and the horizon.
+     * @param date  date of the value
+     * @param value value of g
+     */
+    private void addValue(final AbsoluteDate date, final double value) {
+
+        // Values too close to the new one are removed (derivatives would be noisy)
+        for (int i = dates.size() - 1; i >= 0; i--) {
+            if (FastMath.abs(dates.get(i).durationFrom(date)) < detector.getThreshold()) {
+                dates.remove(i);
+                values.remove(i);
+            }
+        }
+        dates.add(0, date);
+        values.add(0, value);
+        if (dates.size() > 3) {
+            dates.remove(3);
+            values.remove(3);
+        }
+        if (dates.size() < 3) {
+            horizon = 0.;
+            return;
+        }
+
+        // Divided differences
+        final double t1 = dates.get(1).durationFrom(dates.get(0));
+        final double t2 = dates.get(2).durationFrom(dates.get(0));
+        final double d01 = (values.get(1) - values.get(0))/t1;
+        final double d12 = (values.get(2) - values.get(1))/(t2 - t1);
+        final double d012 = (d12 - d01)/t2;
+        slope = d01 - d012*t1;
+        curvature = 2.*d012;
+
+        // Earliest root of the second order model (estimate, not a bound)
+        final double absG = FastMath.abs(value);
+        final double absSlope = FastMath.abs(slope);
+        final double absCurvature = FastMath.abs(curvature);
+        double tRoot;
+        if (absCurvature > 0.) {
+            tRoot = (FastMath.sqrt(absSlope*absSlope + 2.*absCurvature*absG) - absSlope)/absCurvature;
+        } else if (absSlope > 0.) {
+            tRoot = absG/absSlope;
+        } else {
+            tRoot = Double.POSITIVE_INFINITY;
+        }
+        horizon = safety*tRoot;
+
+    }
+
+    /**
+     * Method to forget the exact values (discontinuity of the state).
+     */
+    private void clear() {
+        dates.clear();
+        values.clear();
+        horizon = 0.;
+    }
+
+    public double getMaxCheckInterval() {
+        final double maxCheck = detector.getMaxCheckInterval();
+        if (!adaptive || dates.size() < 3) {
+            return maxCheck;
+        }
+        return FastMath.max(FastMath.min(maxCheck, horizon), detector.getThreshold());
+    }
+
+    public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward)
+        throws PatriusException {
+        clear();
+        return detector.eventOccurred(s, increasing, forward);
+    }
+
+    public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+        clear();
+        return detector.resetState(oldState);
+    }
+
+    public void init(final SpacecraftState s0, final AbsoluteDate t) {
+        clear();
+        detector.init(s0, t);
+    }
+
+    public boolean shouldBeRemoved() {
+        return detector.shouldBeRemoved();
+    }
+
+    public double getThreshold() {
+        return detector.getThreshold();
+    }
+
+    public int getMaxIterationCount() {
+        return detector.getMaxIterationCount();
+    }
+
+    public int getSlopeSelection() {
+        return detector.getSlopeSelection();
+    }
+
+    public boolean filterEvent(final SpacecraftState state, final boolean increasing, final boolean forward)
+        throws PatriusException {
+        return detector.filterEvent(state, increasing, forward);
+    }
+
+    public EventDetector copy() {
+        return new AdaptiveCheckDetector(detector.copy(), adaptive, safety);
+    }
+
+    /**
+     * @return number of calls to the g function
+     */
+    public long getNbCalls() {
+        return nbCalls;
+    }
+
+    /**
+     * @return number of evaluations of the g function of the detector
+     */
+    public long getNbEvaluations() {
+        return nbEvaluations;
+    }
+
+    /**
+     * Custom event of NumericalPropagationWithCustomEvent (Lv = 45 deg), storing the event dates.
+     * <p>
+     * The g function is the sine of Lv - 45 deg instead of the difference, so that it is continuous
+     * through the wrap of Lv (the root at Lv = 225 deg is decreasing and filtered by the slope selection).
+     * </p>
+     */
+    private static class LvDetector implements EventDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final List<AbsoluteDate> eventDates = new ArrayList<AbsoluteDate>();
+
+        public double g(final SpacecraftState s) throws PatriusException {
+            // We want to raise the event when Lv = 45 deg (continuous g function)
+            return FastMath.sin(s.getLv() - FastMath.toRadians(45.));
+        }
+
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing,
+                final boolean forward) throws PatriusException {
+            eventDates.add(s.getDate());
+            return Action.CONTINUE;
+        }
+
+        public boolean shouldBeRemoved() {
+            return false;
+        }
+
+        public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+            return oldState;
+        }
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+        }
+
+        public double getThreshold() {
+            return AbstractDetector.DEFAULT_THRESHOLD;
+        }
+
+        public int getSlopeSelection() {
+            return 0;
+        }
+
+        public int getMaxIterationCount() {
+            return 20;
+        }
+
+        public double getMaxCheckInterval() {
+            return AbstractDetector.DEFAULT_MAXCHECK;
+        }
+
+        public EventDetector copy() {
+            return new LvDetector();
+        }
+
+        public boolean filterEvent(final SpacecraftState state, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            return false;
+        }
+
+    }
+
+    /**
+     * Method to propagate with one detector.
+     * @param iniOrbit  initial orbit
+     * @param detector  event detector
+     * @param finalDate final date
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final Orbit iniOrbit, final EventDetector detector,
+            final AbsoluteDate finalDate) throws PatriusException {
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                iniOrbit.getFrame(), OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        propagator.addEventDetector(detector);
+        return propagator.propagate(finalDate);
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithCustomEvent)
+        final double sma = 7200.e+3;
+        final double exc = 0.02;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(180.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Propagating on several orbits
+        final AbsoluteDate finalDate = date.shiftedBy(5.*iniOrbit.getKeplerianPeriod());
+
+        //SPECIFIC
+        // Custom event of NumericalPropagationWithCustomEvent
+        final LvDetector lvReference = new LvDetector();
+        final AdaptiveCheckDetector fixedLv = new AdaptiveCheckDetector(lvReference, false, DEFAULT_SAFETY);
+        propagate(iniOrbit, fixedLv, finalDate);
+        final LvDetector lvAdaptive = new LvDetector();
+        final AdaptiveCheckDetector adaptiveLv = new AdaptiveCheckDetector(lvAdaptive);
+        propagate(iniOrbit, adaptiveLv, finalDate);
+
+        System.out.println("Custom event (Lv = 45 deg)");
+        System.out.println(String.format("g evaluations: %d (fixed check), %d (adaptive check, %d calls), reduction %.1f",
+                fixedLv.getNbEvaluations(), adaptiveLv.getNbEvaluations(), adaptiveLv.getNbCalls(),
+                (double) fixedLv.getNbEvaluations()/adaptiveLv.getNbEvaluations()));
+        System.out.println(String.format("Events: %d (fixed check), %d (adaptive check)",
+                lvReference.eventDates.size(), lvAdaptive.eventDates.size()));
+        for (int i = 0; i < FastMath.min(lvReference.eventDates.size(), lvAdaptive.eventDates.size()); i++) {
+            System.out.println(String.format("%s  difference = %.3e s", lvReference.eventDates.get(i).toString(TUC),
+                    lvAdaptive.eventDates.get(i).durationFrom(lvReference.eventDates.get(i))));
+        }
+
+        // Event of EventUsingEventDetector (stop at a given date)
+        final AbsoluteDate stopDate = date.shiftedBy(2.5*iniOrbit.getKeplerianPeriod());
+        final AdaptiveCheckDetector fixedStop = new AdaptiveCheckDetector(new EventUsingEventDetector(stopDate),
+                false, DEFAULT_SAFETY);
+        final SpacecraftState fixedState = propagate(iniOrbit, fixedStop, finalDate);
+        final AdaptiveCheckDetector adaptiveStop = new AdaptiveCheckDetector(new EventUsingEventDetector(stopDate));
+        final SpacecraftState adaptiveState = propagate(iniOrbit, adaptiveStop, finalDate);
+
+        System.out.println();
+        System.out.println("Date event (EventUsingEventDetector)");
+        System.out.println(String.format("g evaluations: %d (fixed check), %d (adaptive check), reduction %.1f",
+                fixedStop.getNbEvaluations(), adaptiveStop.getNbEvaluations(),
+                (double) fixedStop.getNbEvaluations()/adaptiveStop.getNbEvaluations()));
+        System.out.println("Stop date (fixed check)   : " + fixedState.getDate().toString(TUC));
+        System.out.println("Stop date (adaptive check): " + adaptiveState.getDate().toString(TUC));
+        //SPECIFIC
+
+    }
+
+}
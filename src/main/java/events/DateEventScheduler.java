@@ -0,0 +1,375 @@
+package events;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.events.AbstractDetector;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.detectors.DateDetector;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Single detector handling a large number of dated events.
+ * <p>
+ * Instead of adding one {@link DateDetector} per event to the propagator (all their g functions being
+ * evaluated at each step), the dated events are stored in a priority queue and only the next one is
+ * armed: the g function is the time to the head of the queue, so that its cost does not depend on the
+ * number of events. When the head date is reached, all the events at this date (within the threshold)
+ * are dispatched to their own detectors ({@link EventDetector#eventOccurred} then, if requested,
+ * {@link EventDetector#resetState}) and the next date is armed.
+ * </p>
+ * <p>
+ * The sign of the g function is swapped at each dispatch so that it stays continuous through the
+ * change of armed date (no spurious event is seen by the propagator).
+ * </p>
+ * <p>
+ * Only the events strictly after the initial date of the propagation (by more than the threshold) and
+ * up to the final date are queued: as for a {@link DateDetector}, an event at the initial date would
+ * not be seen by the propagator, and as the head of the queue it would block all the later ones. Such
+ * events are ignored (they are neither initialized nor dispatched).
+ * </p>
+ */
+public class DateEventScheduler extends AbstractDetector {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Dated event: date and detector to which the event is dispatched.
+     */
+    private static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final AbsoluteDate date;
+        private final EventDetector detector;
+        private final long rank;
+
+        /**
+         * Constructor
+         * @param date     date of the event
+         * @param detector detector to which the event is dispatched
+         * @param rank     insertion rank (order of the events at the same date)
+         */
+        public Entry(final AbsoluteDate date, final EventDetector detector, final long rank) {
+            this.date = date;
+            this.detector = detector;
+            this.rank = rank;
+        }
+
+    }
+
+    /**
+     * Chronological order of the entries, in the propagation direction.
+     */
+    private static class EntryComparator implements Comparator<Entry>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final boolean forward;
+
+        /**
+         * Constructor
+         * @param forward propagation direction
+         */
+        public EntryComparator(final boolean forward) {
+            this.forward = forward;
+        }
+
+        public int compare(final Entry e1, final Entry e2) {
+            final int byDate = forward ? e1.date.compareTo(e2.date) : e2.date.compareTo(e1.date);
+            return byDate != 0 ? byDate : Long.compare(e1.rank, e2.rank);
+        }
+
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private PriorityQueue<Entry> queue = new PriorityQueue<Entry>(11, new EntryComparator(true));
+    private final List<EventDetector> toReset = new ArrayList<EventDetector>();
+    private boolean forward = true;
+    private double sign = 1.;
+    private long nbEvaluations;
+    private long nbDispatched;
+
+    /**
+     * Constructor (default max check and threshold).
+     */
+    public DateEventScheduler() {
+        this(AbstractDetector.DEFAULT_MAXCHECK, AbstractDetector.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     * @param maxCheck  maximum checking interval (s)
+     * @param threshold convergence threshold (s), also used to group the events at the same date
+     */
+    public DateEventScheduler(final double maxCheck, final double threshold) {
+        super(AbstractDetector.INCREASING_DECREASING, maxCheck, threshold);
+    }
+
+    /**
+     * Method to add a dated event.
+     * @param date     date of the event
+     * @param detector detector to which the event is dispatched (its g function is never evaluated)
+     */
+    public void add(final AbsoluteDate date, final EventDetector detector) {
+        final Entry entry = new Entry(date, detector, entries.size());
+        entries.add(entry);
+        queue.add(entry);
+    }
+
+    /**
+     * Method to add a date detector (the event is dispatched to the detector at its date).
+     * @param detector date detector
+     */
+    public void add(final DateDetector detector) {
+        add(detector.getDate(), detector);
+    }
+
+    @Override
+    public void init(final SpacecraftState s0, final AbsoluteDate t) {
+        // Only the events within the propagation interval are queued, the ones at the initial date
+        // (within the threshold) being ignored
+        final AbsoluteDate t0 = s0.getDate();
+        forward = t.compareTo(t0) >= 0;
+        queue = new PriorityQueue<Entry>(FastMath.max(11, entries.size()), new EntryComparator(forward));
+        for (final Entry entry : entries) {
+            final boolean inInterval = forward ?
+                entry.date.durationFrom(t0) > getThreshold() && entry.date.compareTo(t) <= 0 :
+                t0.durationFrom(entry.date) > getThreshold() && entry.date.compareTo(t) >= 0;
+            if (inInterval) {
+                entry.detector.init(s0, t);
+                queue.add(entry);
+            }
+        }
+        sign = 1.;
+        toReset.clear();
+    }
+
+    public double g(final SpacecraftState s) {
+        nbEvaluations++;
+        final Entry head = queue.peek();
+        if (head == null) {
+            // No more events: constant sign up to the end of the propagation
+            return forward ? -sign : sign;
+        }
+        return sign*s.getDate().durationFrom(head.date);
+    }
+
+    public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward)
+        throws PatriusException {
+
+        Action action = Action.CONTINUE;
+        toReset.clear();
+
+        // Dispatch of all the events at the date of the head of the queue
+        final AbsoluteDate date = queue.peek().date;
+        while (!queue.isEmpty() && FastMath.abs(queue.peek().date.durationFrom(date)) <= getThreshold()) {
+            final EventDetector detector = queue.poll().detector;
+            final Action detectorAction = detector.eventOccurred(s, forward, forward);
+            nbDispatched++;
+            if (detectorAction == Action.RESET_STATE) {
+                toReset.add(detector);
+            }
+            // Most restrictive action kept (STOP, RESET_STATE, RESET_DERIVATIVES, CONTINUE)
+            if (detectorAction.ordinal() < action.ordinal()) {
+                action = detectorAction;
+            }
+        }
+
+        // Next date armed with the opposite sign, g being continuous through the change
+        sign = -sign;
+
+        return action;
+    }
+
+    @Override
+    public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+        SpacecraftState state = oldState;
+        for (final EventDetector detector : toReset) {
+            state = detector.resetState(state);
+        }
+        toReset.clear();
+        return state;
+    }
+
+    public boolean shouldBeRemoved() {
+        return false;
+    }
+
+    public EventDetector copy() {
+        final DateEventScheduler copy = new DateEventScheduler(getMaxCheckInterval(), getThreshold());
+        for (final Entry entry : entries) {
+            copy.add(entry.date, entry.detector.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * @return number of dated events
+     */
+    public int getNbEvents() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of events still to be dispatched
+     */
+    public int getNbPending() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of evaluations of the g function
+     */
+    public long getNbEvaluations() {
+        return nbEvaluations;
+    }
+
+    /**
+     * @return number of dispatched events
+     */
+    public long getNbDispatched() {
+        return nbDispatched;
+    }
+
+    /**
+     * Date detector counting its occurrences (for the benchmark).
+     */
+    private static class CountingDateDetector extends DateDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final long[] counter;
+
+        /**
+         * Constructor
+         * @param date    date of the event
+         * @param counter shared counter of the occurrences
+         */
+        public CountingDateDetector(final AbsoluteDate date, final long[] counter) {
+            super(date, AbstractDetector.DEFAULT_MAXCHECK, AbstractDetector.DEFAULT_THRESHOLD, Action.CONTINUE);
+            this.counter = counter;
+        }
+
+        @Override
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+            counter[0]++;
+            return Action.CONTINUE;
+        }
+
+    }
+
+    /**
+     * Method to build a propagator on the tutorial orbit.
+     * @param iniOrbit initial orbit
+     * @param pasRk    step of the Runge Kutta integrator (s)
+     * @return numerical propagator
+     * @throws PatriusException
+     */
+    private static NumericalPropagator buildPropagator(final Orbit iniOrbit, final double pasRk) throws PatriusException {
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                iniOrbit.getFrame(), OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        return propagator;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7200.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        final double pasRk = 10.;
+        final double duration = Constants.JULIAN_DAY;
+        final AbsoluteDate finalDate = date.shiftedBy(duration);
+
+        //SPECIFIC
+        // Events spread over one day, with one DateDetector per event or a single scheduler
+        // (one DateDetector per event is only run up to 10000 events)
+        final int[] nbEvents = { 10, 100, 1000, 10000, 100000 };
+        System.out.println("  Events   Detectors (s)   Scheduler (s)   Speedup   Occurrences   g evaluations");
+        for (final int n : nbEvents) {
+
+            final AbsoluteDate[] dates = new AbsoluteDate[n];
+            for (int i = 0; i < n; i++) {
+                dates[i] = date.shiftedBy((i + 0.5)*duration/n);
+            }
+
+            double detectorsDuration = Double.NaN;
+            final long[] detectorsCounter = new long[1];
+            if (n <= 10000) {
+                final NumericalPropagator propagator = buildPropagator(iniOrbit, pasRk);
+                for (final AbsoluteDate eventDate : dates) {
+                    propagator.addEventDetector(new CountingDateDetector(eventDate, detectorsCounter));
+                }
+                final long start = System.nanoTime();
+                propagator.propagate(finalDate);
+                detectorsDuration = (System.nanoTime() - start)*1.e-9;
+            }
+
+            final long[] schedulerCounter = new long[1];
+            final DateEventScheduler scheduler = new DateEventScheduler();
+            for (final AbsoluteDate eventDate : dates) {
+                scheduler.add(new CountingDateDetector(eventDate, schedulerCounter));
+            }
+            final NumericalPropagator propagator = buildPropagator(iniOrbit, pasRk);
+            propagator.addEventDetector(scheduler);
+            final long start = System.nanoTime();
+            propagator.propagate(finalDate);
+            final double schedulerDuration = (System.nanoTime() - start)*1.e-9;
+
+            final String detectorsOccurrences = n <= 10000 ? Long.toString(detectorsCounter[0]) : "-";
+            System.out.println(String.format("%8d %15.3f %15.3f %9.1f %6d/%-6s %15d", n, detectorsDuration,
+                    schedulerDuration, detectorsDuration/schedulerDuration,
+                    schedulerCounter[0], detectorsOccurrences, scheduler.getNbEvaluations()));
+
+        }
+        //SPECIFIC
+
+    }
+
+}
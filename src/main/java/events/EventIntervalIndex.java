@@ -0,0 +1,808 @@
+package events;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.bodies.EllipsoidBodyShape;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.EventDetector.Action;
+import fr.cnes.sirius.patrius.events.detectors.AOLDetector;
+import fr.cnes.sirius.patrius.events.detectors.AltitudeDetector;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Store of event occurrences, paired into intervals indexed for campaign queries.
+ * <p>
+ * The occurrences are recorded by the detectors wrapped by {@link #record} (or added with
+ * {@link #addOccurrence}) as date offsets from a reference date. They are paired into intervals:
+ * <ul>
+ * <li>for one detector, from an increasing crossing to the next decreasing one (g positive),
+ * the intervals being open at the start or at the end of the recorded span if needed,</li>
+ * <li>for two detectors, from each occurrence of the first one to the next occurrence of the second one.</li>
+ * </ul>
+ * The intervals are stored in an {@link Intervals} tree (intervals sorted by start, maximum end of each
+ * subtree) answering the overlap queries in O(log n + k), with union, intersection and duration
+ * operations. The index, built intervals included, is serializable and can be saved for reuse.
+ * </p>
+ */
+public class EventIntervalIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Intervals indexed in an implicit interval tree.
+     */
+    public static class Intervals implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final AbsoluteDate reference;
+        private final double[] starts;
+        private final double[] ends;
+        private final double[] maxEnds;
+
+        /**
+         * Constructor
+         * @param reference reference date of the offsets
+         * @param starts    starts of the intervals (s from the reference date)
+         * @param ends      ends of the intervals (s from the reference date)
+         */
+        public Intervals(final AbsoluteDate reference, final double[] starts, final double[] ends) {
+            this.reference = reference;
+            final int n = starts.length;
+            boolean sorted = true;
+            for (int i = 1; i < n && sorted; i++) {
+                sorted = starts[i - 1] <= starts[i];
+            }
+            if (sorted) {
+                this.starts = starts.clone();
+                this.ends = ends.clone();
+            } else {
+                final Integer[] order = new Integer[n];
+                for (int i = 0; i < n; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    public int compare(final Integer i1, final Integer i2) {
+                        return Double.compare(starts[i1], starts[i2]);
+                    }
+                });
+                this.starts = new double[n];
+                this.ends = new double[n];
+                for (int i = 0; i < n; i++) {
+                    this.starts[i] = starts[order[i]];
+                    this.ends[i] = ends[order[i]];
+                }
+            }
+            this.maxEnds = new double[n];
+            build(0, n);
+        }
+
+        /**
+         * Method to compute the maximum end of the subtree of the node (lo + hi) / 2.
+         * @param lo first index of the subtree
+         * @param hi last index (excluded) of the subtree
+         * @return maximum end of the subtree
+         */
+        private double build(final int lo, final int hi) {
+            if (lo >= hi) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            final int mid = (lo + hi) >>> 1;
+            final double max = FastMath.max(ends[mid], FastMath.max(build(lo, mid), build(mid + 1, hi)));
+            maxEnds[mid] = max;
+            return max;
+        }
+
+        /**
+         * Method to find the intervals overlapping [a, b] in the subtree of the node (lo + hi) / 2.
+         * @param lo     first index of the subtree
+         * @param hi     last index (excluded) of the subtree
+         * @param a      start of the query (s)
+         * @param b      end of the query (s)
+         * @param result indices found (null to count only)
+         * @param count  number of indices already found
+         * @return number of indices found
+         */
+        private int query(final int lo, final int hi, final double a, final double b, final int[] result,
+                final int count) {
+            if (lo >= hi) {
+                return count;
+            }
+            final int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] < a) {
+                // All the intervals of the subtree end before a
+                return count;
+            }
+            int n = query(lo, mid, a, b, result, count);
+            if (starts[mid] > b) {
+                // All the intervals of the right subtree start after b
+                return n;
+            }
+            if (ends[mid] >= a) {
+                if (result != null) {
+                    result[n] = mid;
+                }
+                n++;
+            }
+            return query(mid + 1, hi, a, b, result, n);
+        }
+
+        /**
+         * Method to get the intervals overlapping a period.
+         * @param start start of the period
+         * @param end   end of the period
+         * @return indices of the overlapping intervals (sorted by start)
+         */
+        public int[] getOverlapping(final AbsoluteDate start, final AbsoluteDate end) {
+            final double a = start.durationFrom(reference);
+            final double b = end.durationFrom(reference);
+            final int[] result = new int[query(0, starts.length, a, b, null, 0)];
+            query(0, starts.length, a, b, result, 0);
+            return result;
+        }
+
+        /**
+         * Method to count the intervals overlapping a period.
+         * @param start start of the period
+         * @param end   end of the period
+         * @return number of overlapping intervals
+         */
+        public int countOverlapping(final AbsoluteDate start, final AbsoluteDate end) {
+            return query(0, starts.length, start.durationFrom(reference), end.durationFrom(reference), null, 0);
+        }
+
+        /**
+         * Method to check if a date is within an interval.
+         * @param date date
+         * @return true if at least one interval contains the date
+         */
+        public boolean contains(final AbsoluteDate date) {
+            return countOverlapping(date, date) > 0;
+        }
+
+        /**
+         * Method to merge the overlapping intervals.
+         * @return disjoint intervals covering the same periods
+         */
+        public Intervals merge() {
+            final int n = starts.length;
+            final double[] mergedStarts = new double[n];
+            final double[] mergedEnds = new double[n];
+            int size = 0;
+            for (int i = 0; i < n; i++) {
+                if (size > 0 && starts[i] <= mergedEnds[size - 1]) {
+                    mergedEnds[size - 1] = FastMath.max(mergedEnds[size - 1], ends[i]);
+                } else {
+                    mergedStarts[size] = starts[i];
+                    mergedEnds[size] = ends[i];
+                    size++;
+                }
+            }
+            return new Intervals(reference, Arrays.copyOf(mergedStarts, size), Arrays.copyOf(mergedEnds, size));
+        }
+
+        /**
+         * Method to express the intervals from another reference date.
+         * @param newReference reference date of the offsets
+         * @return the intervals (this if the reference date is the same)
+         */
+        private Intervals rebase(final AbsoluteDate newReference) {
+            if (reference.equals(newReference)) {
+                return this;
+            }
+            final double shift = reference.durationFrom(newReference);
+            final double[] newStarts = new double[starts.length];
+            final double[] newEnds = new double[ends.length];
+            for (int i = 0; i < starts.length; i++) {
+                newStarts[i] = starts[i] + shift;
+                newEnds[i] = ends[i] + shift;
+            }
+            return new Intervals(newReference, newStarts, newEnds);
+        }
+
+        /**
+         * Method to compute the union with other intervals.
+         * @param other other intervals (converted to the reference date of these ones if needed)
+         * @return disjoint intervals covered by at least one of the sets
+         */
+        public Intervals union(final Intervals other) {
+            final Intervals set = other.rebase(reference);
+            final double[] allStarts = new double[starts.length + set.starts.length];
+            final double[] allEnds = new double[allStarts.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < starts.length || j < set.starts.length) {
+                if (j == set.starts.length || (i < starts.length && starts[i] <= set.starts[j])) {
+                    allStarts[k] = starts[i];
+                    allEnds[k++] = ends[i++];
+                } else {
+                    allStarts[k] = set.starts[j];
+                    allEnds[k++] = set.ends[j++];
+                }
+            }
+            return new Intervals(reference, allStarts, allEnds).merge();
+        }
+
+        /**
+         * Method to compute the intersection with other intervals.
+         * @param other other intervals (converted to the reference date of these ones if needed)
+         * @return disjoint intervals covered by both sets
+         */
+        public Intervals intersection(final Intervals other) {
+            final Intervals set1 = merge();
+            final Intervals set2 = other.rebase(reference).merge();
+            final double[] interStarts = new double[set1.starts.length + set2.starts.length];
+            final double[] interEnds = new double[interStarts.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < set1.starts.length && j < set2.starts.length) {
+                final double start = FastMath.max(set1.starts[i], set2.starts[j]);
+                final double end = FastMath.min(set1.ends[i], set2.ends[j]);
+                if (start <= end) {
+                    interStarts[k] = start;
+                    interEnds[k++] = end;
+                }
+                if (set1.ends[i] < set2.ends[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return new Intervals(reference, Arrays.copyOf(interStarts, k), Arrays.copyOf(interEnds, k));
+        }
+
+        /**
+         * @return total duration covered by the intervals, overlaps counted once (s)
+         */
+        public double getTotalDuration() {
+            final Intervals merged = merge();
+            double duration = 0.;
+            for (int i = 0; i < merged.starts.length; i++) {
+                duration += merged.ends[i] - merged.starts[i];
+            }
+            return duration;
+        }
+
+        /**
+         * @return number of intervals
+         */
+        public int size() {
+            return starts.length;
+        }
+
+        /**
+         * @param i index of the interval
+         * @return start of the interval
+         */
+        public AbsoluteDate getStart(final int i) {
+            return reference.shiftedBy(starts[i]);
+        }
+
+        /**
+         * @param i index of the interval
+         * @return end of the interval
+         */
+        public AbsoluteDate getEnd(final int i) {
+            return reference.shiftedBy(ends[i]);
+        }
+
+        /**
+         * @param i index of the interval
+         * @return duration of the interval (s)
+         */
+        public double getDuration(final int i) {
+            return ends[i] - starts[i];
+        }
+
+    }
+
+    /**
+     * Occurrences of one detector (chronological order).
+     */
+    private static class Occurrences implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Tolerance under which two occurrences in the same direction are the same one (s). */
+        private static final double DUPLICATE_TOLERANCE = 1.e-3;
+
+        private double[] dates = new double[16];
+        private boolean[] increasings = new boolean[16];
+        private int size;
+
+        /**
+         * Method to add an occurrence (inserted at its chronological place, ignored if already found
+         * by a previous propagation).
+         * @param date       date of the occurrence (s from the reference date)
+         * @param increasing if true, increasing g function
+         */
+        public void add(final double date, final boolean increasing) {
+
+            // Index of the first occurrence after the date (backward propagations, propagations over
+            // dates already recorded)
+            int index = size;
+            while (index > 0 && dates[index - 1] > date) {
+                index--;
+            }
+            if (isDuplicate(index - 1, date, increasing) || isDuplicate(index, date, increasing)) {
+                return;
+            }
+
+            if (size == dates.length) {
+                dates = Arrays.copyOf(dates, 2*size);
+                increasings = Arrays.copyOf(increasings, 2*size);
+            }
+            System.arraycopy(dates, index, dates, index + 1, size - index);
+            System.arraycopy(increasings, index, increasings, index + 1, size - index);
+            dates[index] = date;
+            increasings[index] = increasing;
+            size++;
+
+        }
+
+        /**
+         * @param i          index of a stored occurrence (may be out of the stored ones)
+         * @param date       date of the new occurrence (s from the reference date)
+         * @param increasing direction of the new occurrence
+         * @return true if the stored occurrence is the new one
+         */
+        private boolean isDuplicate(final int i, final double date, final boolean increasing) {
+            return i >= 0 && i < size && increasings[i] == increasing
+                    && FastMath.abs(dates[i] - date) <= DUPLICATE_TOLERANCE;
+        }
+
+    }
+
+    /**
+     * Detector recording its occurrences in the index.
+     */
+    private class RecordingDetector implements EventDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final EventDetector detector;
+        private final String name;
+
+        /**
+         * Constructor
+         * @param detector event detector
+         * @param name     name of the occurrences in the index
+         */
+        public RecordingDetector(final EventDetector detector, final String name) {
+            this.detector = detector;
+            this.name = name;
+        }
+
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            addOccurrence(name, s.getDate(), increasing);
+            return detector.eventOccurred(s, increasing, forward);
+        }
+
+        public double g(final SpacecraftState s) throws PatriusException {
+            return detector.g(s);
+        }
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+            extendSpan(s0.getDate());
+            extendSpan(t);
+            detector.init(s0, t);
+        }
+
+        public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+            return detector.resetState(oldState);
+        }
+
+        public boolean shouldBeRemoved() {
+            return detector.shouldBeRemoved();
+        }
+
+        public double getThreshold() {
+            return detector.getThreshold();
+        }
+
+        public double getMaxCheckInterval() {
+            return detector.getMaxCheckInterval();
+        }
+
+        public int getMaxIterationCount() {
+            return detector.getMaxIterationCount();
+        }
+
+        public int getSlopeSelection() {
+            return detector.getSlopeSelection();
+        }
+
+        public boolean filterEvent(final SpacecraftState state, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            return detector.filterEvent(state, increasing, forward);
+        }
+
+        public EventDetector copy() {
+            return new RecordingDetector(detector.copy(), name);
+        }
+
+    }
+
+    private final AbsoluteDate reference;
+    private final Map<String, Occurrences> occurrences = new LinkedHashMap<String, Occurrences>();
+    private final Map<String, Intervals> intervals = new HashMap<String, Intervals>();
+    private double spanStart = Double.NaN;
+    private double spanEnd = Double.NaN;
+
+    /**
+     * Constructor
+     * @param reference reference date of the stored offsets
+     */
+    public EventIntervalIndex(final AbsoluteDate reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * Method to wrap a detector so that its occurrences are recorded (the propagation interval extends
+     * the recorded span).
+     * @param detector event detector
+     * @param name     name of the occurrences
+     * @return the recording detector (to be added to the propagator)
+     */
+    public EventDetector record(final EventDetector detector, final String name) {
+        return new RecordingDetector(detector, name);
+    }
+
+    /**
+     * Method to add an occurrence (any order, an occurrence already recorded being ignored).
+     * @param name       name of the occurrences
+     * @param date       date of the occurrence
+     * @param increasing if true, increasing g function (start of a g positive interval)
+     */
+    public void addOccurrence(final String name, final AbsoluteDate date, final boolean increasing) {
+        Occurrences list = occurrences.get(name);
+        if (list == null) {
+            list = new Occurrences();
+            occurrences.put(name, list);
+        }
+        list.add(date.durationFrom(reference), increasing);
+        extendSpan(date);
+        // Built intervals are not valid anymore
+        intervals.clear();
+    }
+
+    /**
+     * Method to extend the recorded span (used to open or close the intervals at its bounds).
+     * @param date date within the span
+     */
+    public void extendSpan(final AbsoluteDate date) {
+        final double offset = date.durationFrom(reference);
+        if (Double.isNaN(spanStart) || offset < spanStart || offset > spanEnd) {
+            spanStart = Double.isNaN(spanStart) ? offset : FastMath.min(spanStart, offset);
+            spanEnd = Double.isNaN(spanEnd) ? offset : FastMath.max(spanEnd, offset);
+            // Built intervals (open at the bounds of the span) are not valid anymore
+            intervals.clear();
+        }
+    }
+
+    /**
+     * Method to get the intervals of g positive of a detector.
+     * @param name name of the occurrences
+     * @return intervals from the increasing occurrences to the next decreasing ones
+     */
+    public Intervals getIntervals(final String name) {
+        Intervals result = intervals.get(name);
+        if (result == null) {
+            final Occurrences list = getOccurrences(name);
+            final double[] starts = new double[list.size + 1];
+            final double[] ends = new double[list.size + 1];
+            int n = 0;
+            double open = Double.NaN;
+            for (int i = 0; i < list.size; i++) {
+                if (list.increasings[i]) {
+                    if (Double.isNaN(open)) {
+                        open = list.dates[i];
+                    }
+                } else if (!Double.isNaN(open)) {
+                    starts[n] = open;
+                    ends[n++] = list.dates[i];
+                    open = Double.NaN;
+                } else if (i == 0) {
+                    // g positive at the start of the span
+                    starts[n] = spanStart;
+                    ends[n++] = list.dates[i];
+                }
+            }
+            if (!Double.isNaN(open)) {
+                starts[n] = open;
+                ends[n++] = spanEnd;
+            }
+            result = new Intervals(reference, Arrays.copyOf(starts, n), Arrays.copyOf(ends, n));
+            intervals.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Method to get the intervals between the occurrences of two detectors.
+     * @param fromName name of the occurrences starting the intervals
+     * @param toName   name of the occurrences ending the intervals
+     * @return intervals from each occurrence of the first detector to the next occurrence of the second one
+     */
+    public Intervals getIntervals(final String fromName, final String toName) {
+        final String key = fromName + " -> " + toName;
+        Intervals result = intervals.get(key);
+        if (result == null) {
+            final Occurrences from = getOccurrences(fromName);
+            final Occurrences to = getOccurrences(toName);
+            final double[] starts = new double[from.size];
+            final double[] ends = new double[from.size];
+            int n = 0;
+            int j = 0;
+            for (int i = 0; i < from.size; i++) {
+                while (j < to.size && to.dates[j] <= from.dates[i]) {
+                    j++;
+                }
+                if (j == to.size) {
+                    break;
+                }
+                starts[n] = from.dates[i];
+                ends[n++] = to.dates[j];
+            }
+            result = new Intervals(reference, Arrays.copyOf(starts, n), Arrays.copyOf(ends, n));
+            intervals.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Method to get the occurrences of a detector.
+     * @param name name of the occurrences
+     * @return occurrences (empty if none)
+     */
+    private Occurrences getOccurrences(final String name) {
+        final Occurrences list = occurrences.get(name);
+        return list == null ? new Occurrences() : list;
+    }
+
+    /**
+     * @param name name of the occurrences
+     * @return number of occurrences
+     */
+    public int getNbOccurrences(final String name) {
+        return getOccurrences(name).size;
+    }
+
+    /**
+     * Method to save the index (occurrences and built intervals).
+     * @param file output file (written through a temporary file)
+     * @throws IOException
+     */
+    public void save(final File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeObject(this);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // Left only if the writing or the move failed
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Method to load a saved index.
+     * @param file file written by {@link #save}
+     * @return the index
+     * @throws IOException
+     */
+    public static EventIntervalIndex load(final File file) throws IOException {
+        final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return (EventIntervalIndex) in.readObject();
+        } catch (final ClassNotFoundException e) {
+            throw new IOException(file + " is not an event interval index", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Definition of the Earth ellipsoid
+        final EllipsoidBodyShape earthBodyShape =
+                new OneAxisEllipsoid(6378137.0, 1.0 / 298.257222101, FramesFactory.getITRF());
+
+        final double pasRk = 10.;
+        final double duration = 10.*Constants.JULIAN_DAY;
+        final AbsoluteDate finalDate = date.shiftedBy(duration);
+
+        //SPECIFIC
+        // Recording of the ascending nodes and of the 850 km altitude crossings
+        final EventIntervalIndex index = new EventIntervalIndex(date);
+        final double maxCheck = 60.;
+        final double threshold = 1.e-3;
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk), GCRF,
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        propagator.addEventDetector(index.record(new AOLDetector(0., PositionAngle.TRUE, GCRF, maxCheck, threshold,
+                Action.CONTINUE), "NODE"));
+        propagator.addEventDetector(index.record(new AltitudeDetector(850.e3, earthBodyShape, maxCheck, threshold,
+                Action.CONTINUE, Action.CONTINUE), "ALTITUDE"));
+        propagator.propagate(finalDate);
+
+        // Maneuver plan: 20 min every 6 hours
+        for (double t = 3600.; t < duration; t += 6.*3600.) {
+            index.addOccurrence("MANEUVER", date.shiftedBy(t), true);
+            index.addOccurrence("MANEUVER", date.shiftedBy(t + 1200.), false);
+        }
+
+        final Intervals above = index.getIntervals("ALTITUDE");
+        final Intervals nodeToAltitude = index.getIntervals("NODE", "ALTITUDE");
+        final Intervals maneuvers = index.getIntervals("MANEUVER");
+        final Intervals maneuversAbove = above.intersection(maneuvers);
+        final Intervals aboveOrManeuvering = above.union(maneuvers);
+        System.out.println(String.format("Occurrences: %d nodes, %d altitude crossings", index.getNbOccurrences("NODE"),
+                index.getNbOccurrences("ALTITUDE")));
+        System.out.println(String.format("Above 850 km               : %5d intervals, %10.1f s", above.size(),
+                above.getTotalDuration()));
+        System.out.println(String.format("Node to altitude crossing  : %5d intervals, %10.1f s", nodeToAltitude.size(),
+                nodeToAltitude.getTotalDuration()));
+        System.out.println(String.format("Maneuvers above 850 km     : %5d intervals, %10.1f s", maneuversAbove.size(),
+                maneuversAbove.getTotalDuration()));
+        System.out.println(String.format("Above 850 km or maneuvering: %5d intervals, %10.1f s",
+                aboveOrManeuvering.size(), aboveOrManeuvering.getTotalDuration()));
+        final int[] overlapping = above.getOverlapping(maneuvers.getStart(0), maneuvers.getEnd(0));
+        System.out.println("Altitude intervals overlapping the first maneuver: " + overlapping.length);
+        for (final int i : overlapping) {
+            System.out.println("  " + above.getStart(i).toString(TUC) + " - " + above.getEnd(i).toString(TUC));
+        }
+
+        // Benchmark on one million intervals over one year
+        final int nbIntervals = 1000000;
+        final double year = 365.25*Constants.JULIAN_DAY;
+        final Random random = new Random(42);
+        final double[] starts = new double[nbIntervals];
+        final double[] ends = new double[nbIntervals];
+        for (int i = 0; i < nbIntervals; i++) {
+            starts[i] = random.nextDouble()*year;
+            ends[i] = starts[i] + random.nextDouble()*20.;
+        }
+        long start = System.nanoTime();
+        final Intervals large = new Intervals(date, starts, ends);
+        final double buildDuration = (System.nanoTime() - start)*1.e-9;
+
+        final int nbQueries = 10000;
+        final AbsoluteDate[] queryDates = new AbsoluteDate[nbQueries];
+        for (int q = 0; q < nbQueries; q++) {
+            queryDates[q] = date.shiftedBy(random.nextDouble()*year);
+        }
+        start = System.nanoTime();
+        long found = 0;
+        for (final AbsoluteDate queryDate : queryDates) {
+            found += large.countOverlapping(queryDate, queryDate.shiftedBy(600.));
+        }
+        final double treeDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Linear scan on the first 100 queries (check of the results)
+        start = System.nanoTime();
+        long foundTree = 0;
+        long foundScan = 0;
+        for (int q = 0; q < 100; q++) {
+            final double a = queryDates[q].durationFrom(date);
+            final double b = a + 600.;
+            foundTree += large.countOverlapping(queryDates[q], queryDates[q].shiftedBy(600.));
+            for (int i = 0; i < nbIntervals; i++) {
+                if (starts[i] <= b && ends[i] >= a) {
+                    foundScan++;
+                }
+            }
+        }
+        final double scanDuration = (System.nanoTime() - start)*1.e-9/100.*nbQueries;
+
+        // Set operations with the same intervals shifted by 10 s
+        final double[] shiftedStarts = new double[nbIntervals];
+        final double[] shiftedEnds = new double[nbIntervals];
+        for (int i = 0; i < nbIntervals; i++) {
+            shiftedStarts[i] = starts[i] + 10.;
+            shiftedEnds[i] = ends[i] + 10.;
+        }
+        final Intervals shifted = new Intervals(date, shiftedStarts, shiftedEnds);
+        start = System.nanoTime();
+        final double totalDuration = large.getTotalDuration();
+        final Intervals union = large.union(shifted);
+        final Intervals inter = large.intersection(shifted);
+        final double setDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Save and reload of an index holding the merged intervals
+        final Intervals merged = large.merge();
+        final EventIntervalIndex largeIndex = new EventIntervalIndex(date);
+        for (int i = 0; i < merged.size(); i++) {
+            largeIndex.addOccurrence("LARGE", merged.getStart(i), true);
+            largeIndex.addOccurrence("LARGE", merged.getEnd(i), false);
+        }
+        largeIndex.getIntervals("LARGE");
+        final File file = new File(System.getProperty("java.io.tmpdir"), "event-intervals.ser");
+        start = System.nanoTime();
+        largeIndex.save(file);
+        final EventIntervalIndex loaded = load(file);
+        final double ioDuration = (System.nanoTime() - start)*1.e-9;
+
+        System.out.println();
+        System.out.println(String.format("%d intervals built in %.3f s", nbIntervals, buildDuration));
+        System.out.println(String.format("%d overlap queries: %.3f s (tree), %.3f s (linear scan, extrapolated), "
+                + "%d found, check %d/%d", nbQueries, treeDuration, scanDuration, found, foundTree, foundScan));
+        System.out.println(String.format("Duration, union and intersection: %.3f s (covered %.1f days, "
+                + "union %d intervals, intersection %d intervals)", setDuration, totalDuration/Constants.JULIAN_DAY,
+                union.size(), inter.size()));
+        System.out.println(String.format("Save and load: %.3f s, %d bytes, %d merged intervals reloaded", ioDuration,
+                file.length(), loaded.getIntervals("LARGE").size()));
+        //SPECIFIC
+
+    }
+
+}
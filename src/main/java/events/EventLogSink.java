@@ -0,0 +1,584 @@
+package events;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.events.AbstractDetector;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.EventDetector.Action;
+import fr.cnes.sirius.patrius.events.detectors.DateDetector;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Asynchronous log of the events, the formatting and the writing being done off the propagation thread.
+ * <p>
+ * The detectors wrapped by {@link #wrap} publish a primitive record (detector id, date offset from a
+ * reference date, increasing flag and selected state values) in a lock-free ring buffer when their
+ * event occurs. A background thread formats the records and writes them to a CSV (";" separated, dates
+ * in the given time scale) or binary file. When the buffer is full, the publisher either waits for the
+ * consumer ({@link Backpressure#BLOCK}) or drops the record ({@link Backpressure#DROP}, dropped records
+ * being counted). {@link #close()} returns once all the published records are written.
+ * </p>
+ * <p>
+ * If the consumer fails (I/O or any other error), the following records are dropped and the error is
+ * thrown by {@link #close()}. No record can be published once the sink is closed.
+ * </p>
+ * <p>
+ * The ring buffer has a single producer: the wrapped detectors of a sink must be used by one
+ * propagation thread.
+ * </p>
+ */
+public class EventLogSink implements Closeable {
+
+    /**
+     * Output format.
+     */
+    public enum Format {
+        /** ";" separated values with a header line. */
+        CSV,
+        /** Binary records (detector names and value names in the header). */
+        BINARY
+    }
+
+    /**
+     * Behavior when the ring buffer is full.
+     */
+    public enum Backpressure {
+        /** Propagation thread waits for the consumer. */
+        BLOCK,
+        /** Record dropped. */
+        DROP
+    }
+
+    /**
+     * Selection of the state values of the records.
+     */
+    public interface StateValues extends Serializable {
+
+        /**
+         * @return names of the values
+         */
+        String[] getNames();
+
+        /**
+         * Method to get the values from the state (no allocation expected).
+         * @param s      spacecraft state
+         * @param values values to fill
+         * @throws PatriusException
+         */
+        void getValues(SpacecraftState s, double[] values) throws PatriusException;
+
+    }
+
+    /** Default state values: semi major axis (m), eccentricity, inclination and Lv (deg). */
+    public static final StateValues ORBIT_VALUES = new StateValues() {
+
+        private static final long serialVersionUID = 1L;
+
+        public String[] getNames() {
+            return new String[] { "a", "e", "i", "Lv" };
+        }
+
+        public void getValues(final SpacecraftState s, final double[] values) {
+            values[0] = s.getA();
+            values[1] = s.getE();
+            values[2] = FastMath.toDegrees(s.getI());
+            values[3] = FastMath.toDegrees(s.getLv());
+        }
+
+    };
+
+    /**
+     * Detector publishing its events to the sink.
+     */
+    private class LoggedDetector implements EventDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final EventDetector detector;
+        private final int id;
+
+        /**
+         * Constructor
+         * @param detector event detector
+         * @param id       id of the detector in the log
+         */
+        public LoggedDetector(final EventDetector detector, final int id) {
+            this.detector = detector;
+            this.id = id;
+        }
+
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            publish(id, s, increasing);
+            return detector.eventOccurred(s, increasing, forward);
+        }
+
+        public double g(final SpacecraftState s) throws PatriusException {
+            return detector.g(s);
+        }
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+            detector.init(s0, t);
+        }
+
+        public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+            return detector.resetState(oldState);
+        }
+
+        public boolean shouldBeRemoved() {
+            return detector.shouldBeRemoved();
+        }
+
+        public double getThreshold() {
+            return detector.getThreshold();
+        }
+
+        public double getMaxCheckInterval() {
+            return detector.getMaxCheckInterval();
+        }
+
+        public int getMaxIterationCount() {
+            return detector.getMaxIterationCount();
+        }
+
+        public int getSlopeSelection() {
+            return detector.getSlopeSelection();
+        }
+
+        public boolean filterEvent(final SpacecraftState state, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            return detector.filterEvent(state, increasing, forward);
+        }
+
+        public EventDetector copy() {
+            return new LoggedDetector(detector.copy(), id);
+        }
+
+    }
+
+    private final File file;
+    private final Format format;
+    private final AbsoluteDate reference;
+    private final TimeScale scale;
+    private final Backpressure backpressure;
+    private final StateValues stateValues;
+    private final int nbValues;
+    private final List<String> names = new ArrayList<String>();
+
+    // Ring buffer (capacity power of 2)
+    private final int mask;
+    private final int[] ids;
+    private final double[] offsets;
+    private final boolean[] increasings;
+    private final double[] values;
+    private final double[] stateBuffer;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean started;
+    private volatile boolean closed;
+    private volatile Throwable error;
+    private long nbDropped;
+    private long nbBlocked;
+
+    /**
+     * Constructor
+     * @param file         output file
+     * @param format       output format
+     * @param reference    reference date of the date offsets
+     * @param scale        time scale of the dates in the CSV file
+     * @param capacity     capacity of the ring buffer (rounded up to a power of 2)
+     * @param backpressure behavior when the ring buffer is full
+     * @param stateValues  selection of the state values
+     */
+    public EventLogSink(final File file, final Format format, final AbsoluteDate reference, final TimeScale scale,
+            final int capacity, final Backpressure backpressure, final StateValues stateValues) {
+        this.file = file;
+        this.format = format;
+        this.reference = reference;
+        this.scale = scale;
+        this.backpressure = backpressure;
+        this.stateValues = stateValues;
+        this.nbValues = stateValues.getNames().length;
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.ids = new int[size];
+        this.offsets = new double[size];
+        this.increasings = new boolean[size];
+        this.values = new double[size*nbValues];
+        this.stateBuffer = new double[nbValues];
+
+        this.consumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, "event-log-" + file.getName());
+        this.consumer.setDaemon(true);
+    }
+
+    /**
+     * Method to wrap a detector so that its events are logged (the detectors must be wrapped before the
+     * first event).
+     * @param detector event detector
+     * @param name     name of the detector in the log
+     * @return the logged detector (to be added to the propagator)
+     */
+    public EventDetector wrap(final EventDetector detector, final String name) {
+        if (started) {
+            throw new IllegalStateException("Detectors must be wrapped before the first event");
+        }
+        names.add(name);
+        return new LoggedDetector(detector, names.size() - 1);
+    }
+
+    /**
+     * Method to publish a record (propagation thread).
+     * @param id         id of the detector
+     * @param s          spacecraft state at the event
+     * @param increasing if true, increasing g function
+     * @throws PatriusException
+     */
+    private void publish(final int id, final SpacecraftState s, final boolean increasing) throws PatriusException {
+
+        if (closed) {
+            throw new IllegalStateException("Event log sink closed");
+        }
+        if (!started) {
+            started = true;
+            consumer.start();
+        }
+
+        final long h = head.get();
+        while (h - tail.get() > mask) {
+            if (backpressure == Backpressure.DROP || error != null) {
+                nbDropped++;
+                return;
+            }
+            nbBlocked++;
+            LockSupport.parkNanos(10000);
+        }
+
+        final int index = (int) (h & mask);
+        ids[index] = id;
+        offsets[index] = s.getDate().durationFrom(reference);
+        increasings[index] = increasing;
+        stateValues.getValues(s, stateBuffer);
+        System.arraycopy(stateBuffer, 0, values, index*nbValues, nbValues);
+
+        // Record visible to the consumer once fully written
+        head.lazySet(h + 1);
+
+    }
+
+    /**
+     * Method run by the consumer thread: formatting and writing of the records up to the closure.
+     */
+    private void consume() {
+        try {
+            if (format == Format.CSV) {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                        StandardCharsets.UTF_8));
+                try {
+                    writer.write("detector;date;increasing");
+                    for (final String name : stateValues.getNames()) {
+                        writer.write(";" + name);
+                    }
+                    writer.write(System.lineSeparator());
+                    long t = tail.get();
+                    while (true) {
+                        final long h = head.get();
+                        if (t == h) {
+                            if (closed && head.get() == t) {
+                                break;
+                            }
+                            writer.flush();
+                            LockSupport.parkNanos(100000);
+                            continue;
+                        }
+                        for (; t < h; t++) {
+                            final int index = (int) (t & mask);
+                            final StringBuilder line = new StringBuilder();
+                            line.append(names.get(ids[index])).append(';');
+                            line.append(reference.shiftedBy(offsets[index]).toString(scale)).append(';');
+                            line.append(increasings[index]);
+                            for (int j = 0; j < nbValues; j++) {
+                                line.append(';').append(values[index*nbValues + j]);
+                            }
+                            line.append(System.lineSeparator());
+                            writer.write(line.toString());
+                        }
+                        tail.lazySet(t);
+                    }
+                } finally {
+                    writer.close();
+                }
+            } else {
+                final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file)));
+                try {
+                    output.writeInt(names.size());
+                    for (final String name : names) {
+                        output.writeUTF(name);
+                    }
+                    output.writeInt(nbValues);
+                    for (final String name : stateValues.getNames()) {
+                        output.writeUTF(name);
+                    }
+                    long t = tail.get();
+                    while (true) {
+                        final long h = head.get();
+                        if (t == h) {
+                            if (closed && head.get() == t) {
+                                break;
+                            }
+                            output.flush();
+                            LockSupport.parkNanos(100000);
+                            continue;
+                        }
+                        for (; t < h; t++) {
+                            final int index = (int) (t & mask);
+                            output.writeInt(ids[index]);
+                            output.writeDouble(offsets[index]);
+                            output.writeBoolean(increasings[index]);
+                            for (int j = 0; j < nbValues; j++) {
+                                output.writeDouble(values[index*nbValues + j]);
+                            }
+                        }
+                        tail.lazySet(t);
+                    }
+                } finally {
+                    output.close();
+                }
+            }
+        } catch (final Throwable e) {
+            // Any failure stops the consumer: stored for close(), the publisher dropping the next records
+            error = e;
+        }
+    }
+
+    /**
+     * Method to wait for the writing of all the published records and close the file.
+     * @throws IOException if the file could not be written (or the consumer failed, the error being the cause)
+     */
+    public void close() throws IOException {
+        closed = true;
+        if (!started) {
+            // No event: header only
+            started = true;
+            consumer.start();
+        }
+        try {
+            consumer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+    }
+
+    /**
+     * @return number of published records
+     */
+    public long getNbPublished() {
+        return head.get();
+    }
+
+    /**
+     * @return number of written records
+     */
+    public long getNbWritten() {
+        return tail.get();
+    }
+
+    /**
+     * @return number of dropped records (buffer full with DROP backpressure)
+     */
+    public long getNbDropped() {
+        return nbDropped;
+    }
+
+    /**
+     * @return number of waits of the propagation thread (buffer full with BLOCK backpressure)
+     */
+    public long getNbBlocked() {
+        return nbBlocked;
+    }
+
+    /**
+     * Date detector writing its events itself (formatting and I/O on the propagation thread).
+     */
+    private static class WritingDateDetector extends DateDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final Writer writer;
+        private final TimeScale scale;
+
+        /**
+         * Constructor
+         * @param date   date of the event
+         * @param name   name of the detector in the log
+         * @param writer output
+         * @param scale  time scale of the dates
+         */
+        public WritingDateDetector(final AbsoluteDate date, final String name, final Writer writer,
+                final TimeScale scale) {
+            super(date, AbstractDetector.DEFAULT_MAXCHECK, AbstractDetector.DEFAULT_THRESHOLD, Action.CONTINUE);
+            this.name = name;
+            this.writer = writer;
+            this.scale = scale;
+        }
+
+        @Override
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+            try {
+                writer.write(String.format("%s;%s;%b;%s;%s;%s;%s%n", name, s.getDate().toString(scale), increasing,
+                        s.getA(), s.getE(), FastMath.toDegrees(s.getI()), FastMath.toDegrees(s.getLv())));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Action.CONTINUE;
+        }
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        final double pasRk = 2.;
+        final double duration = Constants.JULIAN_DAY;
+        final AbsoluteDate finalDate = date.shiftedBy(duration);
+
+        //SPECIFIC
+        // 100000 dated events handled by a DateEventScheduler
+        final int nbEvents = 100000;
+        final File directory = new File(System.getProperty("java.io.tmpdir"));
+
+        // Events written by the detectors themselves
+        final File syncFile = new File(directory, "events-sync.csv");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(syncFile),
+                StandardCharsets.UTF_8));
+        DateEventScheduler scheduler = new DateEventScheduler();
+        for (int i = 0; i < nbEvents; i++) {
+            scheduler.add(new WritingDateDetector(date.shiftedBy((i + 0.5)*duration/nbEvents), "EVT" + i % 10,
+                    writer, TUC));
+        }
+        NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk), GCRF,
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        propagator.addEventDetector(scheduler);
+        long start = System.nanoTime();
+        propagator.propagate(finalDate);
+        final double syncPropagation = (System.nanoTime() - start)*1.e-9;
+        writer.close();
+        final double syncTotal = (System.nanoTime() - start)*1.e-9;
+
+        System.out.println("Events: " + nbEvents);
+        System.out.println(String.format("Synchronous writing : propagation %7.3f s, total %7.3f s", syncPropagation,
+                syncTotal));
+
+        // Events published to asynchronous sinks
+        for (final Format format : Format.values()) {
+            final File asyncFile = new File(directory, "events-async." + (format == Format.CSV ? "csv" : "bin"));
+            final EventLogSink sink = new EventLogSink(asyncFile, format, date, TUC, 4096, Backpressure.BLOCK,
+                    ORBIT_VALUES);
+            final List<EventDetector> wrapped = new ArrayList<EventDetector>();
+            for (int i = 0; i < 10; i++) {
+                wrapped.add(sink.wrap(new DateDetector(date, AbstractDetector.DEFAULT_MAXCHECK,
+                        AbstractDetector.DEFAULT_THRESHOLD, Action.CONTINUE), "EVT" + i));
+            }
+            scheduler = new DateEventScheduler();
+            for (int i = 0; i < nbEvents; i++) {
+                scheduler.add(date.shiftedBy((i + 0.5)*duration/nbEvents), wrapped.get(i % 10));
+            }
+            propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk), GCRF,
+                    OrbitType.CARTESIAN, PositionAngle.TRUE);
+            propagator.resetInitialState(new SpacecraftState(iniOrbit));
+            propagator.addEventDetector(scheduler);
+            start = System.nanoTime();
+            propagator.propagate(finalDate);
+            final double asyncPropagation = (System.nanoTime() - start)*1.e-9;
+            sink.close();
+            final double asyncTotal = (System.nanoTime() - start)*1.e-9;
+
+            System.out.println(String.format("Asynchronous %-6s : propagation %7.3f s, total %7.3f s, %d/%d written, "
+                    + "%d waits, %d dropped (%s)", format, asyncPropagation, asyncTotal, sink.getNbWritten(),
+                    sink.getNbPublished(), sink.getNbBlocked(), sink.getNbDropped(), asyncFile));
+        }
+        //SPECIFIC
+
+    }
+
+}
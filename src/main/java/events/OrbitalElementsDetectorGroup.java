@@ -0,0 +1,366 @@
+package events;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.events.AbstractDetector;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.EventDetector.Action;
+import fr.cnes.sirius.patrius.events.detectors.AOLDetector;
+import fr.cnes.sirius.patrius.events.detectors.AnomalyDetector;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.CartesianOrbit;
+import fr.cnes.sirius.patrius.orbits.CircularOrbit;
+import fr.cnes.sirius.patrius.orbits.KeplerianOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Group of anomaly and argument of latitude detectors sharing the orbital elements computation.
+ * <p>
+ * Each {@link AnomalyDetector} or {@link AOLDetector} converts the orbit into Keplerian or circular
+ * parameters in its own g function. The detectors created by this group (same g function
+ * sin(angle - target), increasing slope) get the anomalies and arguments of latitude from the group,
+ * which keeps the conversions of the last {@value #CACHE_SIZE} dates (checked on the position and
+ * velocity): the orbit is converted only once for all the detectors evaluated at the same date. The
+ * propagator evaluates all the detectors at the end of each step and at the event dates; during the
+ * root refinement, each detector evaluates its own dates, so only the evaluations at dates already
+ * converted (bounds of the search interval, dates shared by several detectors) are served by the cache.
+ * </p>
+ */
+public class OrbitalElementsDetectorGroup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of converted dates kept. */
+    private static final int CACHE_SIZE = 16;
+
+    /**
+     * Orbital elements converted at a date.
+     */
+    private static class Conversion implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final PVCoordinates pv;
+        private final KeplerianOrbit keplerian;
+        private final CircularOrbit circular;
+
+        /**
+         * Constructor
+         * @param pv        position and velocity of the converted orbit
+         * @param keplerian Keplerian parameters (null if not needed)
+         * @param circular  circular parameters in the AOL frame (null if not needed)
+         */
+        public Conversion(final PVCoordinates pv, final KeplerianOrbit keplerian, final CircularOrbit circular) {
+            this.pv = pv;
+            this.keplerian = keplerian;
+            this.circular = circular;
+        }
+
+    }
+
+    /**
+     * Detector of the group (anomaly or argument of latitude).
+     */
+    private class GroupDetector extends AbstractDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final boolean isAOL;
+        private final PositionAngle type;
+        private final double angle;
+        private final Action action;
+
+        /**
+         * Constructor
+         * @param isAOL     true for an argument of latitude, false for an anomaly
+         * @param type      type of angle (true, mean or eccentric)
+         * @param angle     angle triggering the event (rad)
+         * @param maxCheck  maximum checking interval (s)
+         * @param threshold convergence threshold (s)
+         * @param action    action when the event occurs
+         */
+        public GroupDetector(final boolean isAOL, final PositionAngle type, final double angle, final double maxCheck,
+                final double threshold, final Action action) {
+            super(AbstractDetector.INCREASING, maxCheck, threshold);
+            this.isAOL = isAOL;
+            this.type = type;
+            this.angle = angle;
+            this.action = action;
+        }
+
+        public double g(final SpacecraftState s) throws PatriusException {
+            nbEvaluations++;
+            final Conversion conversion = convert(s);
+            final double current = isAOL ? conversion.circular.getAlpha(type) : conversion.keplerian.getAnomaly(type);
+            return FastMath.sin(current - angle);
+        }
+
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+            nbOccurrences++;
+            return action;
+        }
+
+        public boolean shouldBeRemoved() {
+            return false;
+        }
+
+        public EventDetector copy() {
+            return new GroupDetector(isAOL, type, angle, getMaxCheckInterval(), getThreshold(), action);
+        }
+
+    }
+
+    private final Frame aolFrame;
+    private final List<EventDetector> detectors = new ArrayList<EventDetector>();
+    private boolean needsKeplerian;
+    private boolean needsCircular;
+
+    // Last converted dates (access order, the eldest being removed)
+    private final Map<AbsoluteDate, Conversion> conversions =
+        new LinkedHashMap<AbsoluteDate, Conversion>(2*CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<AbsoluteDate, Conversion> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    private long nbEvaluations;
+    private long nbConversions;
+    private long nbOccurrences;
+
+    /**
+     * Constructor
+     * @param aolFrame frame of the arguments of latitude (as for AOLDetector)
+     */
+    public OrbitalElementsDetectorGroup(final Frame aolFrame) {
+        this.aolFrame = aolFrame;
+    }
+
+    /**
+     * Method to add an anomaly detector to the group (as AnomalyDetector).
+     * @param type      type of anomaly (true, mean or eccentric)
+     * @param anomaly   anomaly triggering the event (rad)
+     * @param maxCheck  maximum checking interval (s)
+     * @param threshold convergence threshold (s)
+     * @param action    action when the event occurs
+     * @return the detector (to be added to the propagator)
+     */
+    public EventDetector addAnomalyDetector(final PositionAngle type, final double anomaly, final double maxCheck,
+            final double threshold, final Action action) {
+        needsKeplerian = true;
+        final EventDetector detector = new GroupDetector(false, type, anomaly, maxCheck, threshold, action);
+        detectors.add(detector);
+        return detector;
+    }
+
+    /**
+     * Method to add an argument of latitude detector to the group (as AOLDetector).
+     * @param aol       argument of latitude triggering the event (rad)
+     * @param type      type of argument of latitude (true, mean or eccentric)
+     * @param maxCheck  maximum checking interval (s)
+     * @param threshold convergence threshold (s)
+     * @param action    action when the event occurs
+     * @return the detector (to be added to the propagator)
+     */
+    public EventDetector addAOLDetector(final double aol, final PositionAngle type, final double maxCheck,
+            final double threshold, final Action action) {
+        needsCircular = true;
+        final EventDetector detector = new GroupDetector(true, type, aol, maxCheck, threshold, action);
+        detectors.add(detector);
+        return detector;
+    }
+
+    /**
+     * Method to add all the detectors of the group to a propagator.
+     * @param propagator numerical propagator
+     */
+    public void addTo(final NumericalPropagator propagator) {
+        for (final EventDetector detector : detectors) {
+            propagator.addEventDetector(detector);
+        }
+    }
+
+    /**
+     * Method to get the orbital elements of a state, converting the orbit only if its date has not been
+     * converted yet (or with another position and velocity, after a reset of the state for example).
+     * @param s spacecraft state
+     * @return orbital elements
+     * @throws PatriusException
+     */
+    private Conversion convert(final SpacecraftState s) throws PatriusException {
+
+        final Orbit orbit = s.getOrbit();
+        final PVCoordinates pv = orbit.getPVCoordinates();
+        final Conversion cached = conversions.get(orbit.getDate());
+        if (cached != null && pv.getPosition().equals(cached.pv.getPosition())
+                && pv.getVelocity().equals(cached.pv.getVelocity())) {
+            // Date already converted (by another detector, or bound of a root search)
+            return cached;
+        }
+
+        nbConversions++;
+        final KeplerianOrbit keplerian = needsKeplerian ? new KeplerianOrbit(orbit) : null;
+        CircularOrbit circular = null;
+        if (needsCircular) {
+            if (orbit.getFrame() == aolFrame) {
+                circular = new CircularOrbit(orbit);
+            } else {
+                circular = new CircularOrbit(new CartesianOrbit(orbit.getPVCoordinates(aolFrame), aolFrame,
+                        orbit.getDate(), orbit.getMu()));
+            }
+        }
+
+        final Conversion conversion = new Conversion(pv, keplerian, circular);
+        conversions.put(orbit.getDate(), conversion);
+        return conversion;
+
+    }
+
+    /**
+     * @return detectors of the group
+     */
+    public List<EventDetector> getDetectors() {
+        return detectors;
+    }
+
+    /**
+     * @return number of evaluations of the g functions
+     */
+    public long getNbEvaluations() {
+        return nbEvaluations;
+    }
+
+    /**
+     * @return number of orbit conversions
+     */
+    public long getNbConversions() {
+        return nbConversions;
+    }
+
+    /**
+     * @return number of occurred events
+     */
+    public long getNbOccurrences() {
+        return nbOccurrences;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithAttitudeSequence)
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        final double pasRk = 2.;
+        final AbsoluteDate finalDate = date.shiftedBy(Constants.JULIAN_DAY);
+
+        //SPECIFIC
+        // Triggers every 10 deg of true anomaly and of mean argument of latitude
+        final double maxCheck = 10.;
+        final double threshold = 1.e-3;
+        final int nbAngles = 36;
+
+        // Individual detectors
+        final long[] counter = new long[1];
+        NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk), GCRF,
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        for (int i = 0; i < nbAngles; i++) {
+            final double angle = FastMath.toRadians(i*360./nbAngles);
+            propagator.addEventDetector(new AnomalyDetector(PositionAngle.TRUE, angle, maxCheck, threshold) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+                    counter[0]++;
+                    return Action.CONTINUE;
+                }
+            });
+            propagator.addEventDetector(new AOLDetector(angle, PositionAngle.MEAN, GCRF, maxCheck, threshold,
+                    Action.CONTINUE) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+                    counter[0]++;
+                    return Action.CONTINUE;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        propagator.propagate(finalDate);
+        final double individualDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Grouped detectors
+        final OrbitalElementsDetectorGroup group = new OrbitalElementsDetectorGroup(GCRF);
+        for (int i = 0; i < nbAngles; i++) {
+            final double angle = FastMath.toRadians(i*360./nbAngles);
+            group.addAnomalyDetector(PositionAngle.TRUE, angle, maxCheck, threshold, Action.CONTINUE);
+            group.addAOLDetector(angle, PositionAngle.MEAN, maxCheck, threshold, Action.CONTINUE);
+        }
+        propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk), GCRF,
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit));
+        group.addTo(propagator);
+        start = System.nanoTime();
+        propagator.propagate(finalDate);
+        final double groupDuration = (System.nanoTime() - start)*1.e-9;
+
+        System.out.println("Detectors: " + 2*nbAngles);
+        System.out.println(String.format("Individual detectors: %8.3f s, %d events", individualDuration, counter[0]));
+        System.out.println(String.format("Grouped detectors   : %8.3f s, %d events", groupDuration,
+                group.getNbOccurrences()));
+        System.out.println(String.format("Speedup: %.2f", individualDuration/groupDuration));
+        System.out.println(String.format("g evaluations: %d, orbit conversions: %d (%.1f evaluations per conversion)",
+                group.getNbEvaluations(), group.getNbConversions(),
+                (double) group.getNbEvaluations()/group.getNbConversions()));
+        //SPECIFIC
+
+    }
+
+}
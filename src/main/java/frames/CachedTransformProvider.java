@@ -0,0 +1,352 @@
+package frames;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.frames.configuration.FramesConfiguration;
+import fr.cnes.sirius.patrius.frames.transformations.Transform;
+import fr.cnes.sirius.patrius.frames.transformations.TransformProvider;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Rotation;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Transform provider interpolating the rotation between two frames (GCRF to ITRF for instance).
+ * <p>
+ * The exact transforms are computed on a regular time grid (at the first access to each node). Between
+ * two nodes, the rotation is interpolated along the axis of the relative rotation of the nodes (the
+ * Earth rotation is almost uniform over a few minutes) and the rotation rate linearly. At the first use
+ * of an interval, the interpolation is checked at its middle against the exact transform : if the
+ * angular error is above the threshold, the exact transform is used on this interval.
+ * </p>
+ * <p>
+ * {@link #buildFrame} creates the frame defined by the cached transform, to be used in place of the
+ * destination frame (Earth shape of the drag models ...). The cache is thread safe : two threads may
+ * compute the same node at the same time, both results being identical.
+ * </p>
+ * <p>
+ * The cache is bounded : when it holds the maximum number of nodes, it is emptied (a propagation
+ * accesses the nodes in date order, so only the current ones are computed again). The nodes are
+ * computed with the frames configuration in use at construction : the transforms requested with
+ * another configuration are computed exactly.
+ * </p>
+ */
+public class CachedTransformProvider implements TransformProvider {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default maximum number of nodes (about one week with a 60 s grid). */
+    public static final int DEFAULT_MAX_NODES = 10000;
+
+    private final Frame from;
+    private final Frame to;
+    private final double step;
+    private final double threshold;
+    private final int maxNodes;
+    private final FramesConfiguration configuration;
+
+    private final Map<Long, Transform> nodes = new ConcurrentHashMap<Long, Transform>();
+    private final Map<Long, Boolean> checkedIntervals = new ConcurrentHashMap<Long, Boolean>();
+    private final AtomicLong nbCalls = new AtomicLong();
+    private final AtomicLong nbExactCalls = new AtomicLong();
+    private volatile double maxError = 0.;
+
+    /**
+     * Constructor
+     * @param from      origin frame
+     * @param to        destination frame
+     * @param step      step of the time grid (s)
+     * @param threshold angular accuracy threshold (rad)
+     */
+    public CachedTransformProvider(final Frame from, final Frame to, final double step, final double threshold) {
+        this(from, to, step, threshold, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Constructor
+     * @param from      origin frame
+     * @param to        destination frame
+     * @param step      step of the time grid (s)
+     * @param threshold angular accuracy threshold (rad)
+     * @param maxNodes  maximum number of nodes kept in the cache
+     */
+    public CachedTransformProvider(final Frame from, final Frame to, final double step, final double threshold,
+            final int maxNodes) {
+        if (step <= 0.) {
+            throw new IllegalArgumentException("Step must be positive : " + step);
+        }
+        if (maxNodes < 2) {
+            throw new IllegalArgumentException("At least two nodes must be kept : " + maxNodes);
+        }
+        this.from = from;
+        this.to = to;
+        this.step = step;
+        this.threshold = threshold;
+        this.maxNodes = maxNodes;
+        this.configuration = FramesFactory.getConfiguration();
+    }
+
+    /**
+     * Method to build the frame defined by a cached transform (child of the origin frame).
+     * @param from      origin frame
+     * @param to        destination frame (an Earth frame)
+     * @param step      step of the time grid (s)
+     * @param threshold angular accuracy threshold (rad)
+     * @return the cached frame
+     */
+    public static CelestialBodyFrame buildFrame(final Frame from, final CelestialBodyFrame to, final double step,
+            final double threshold) {
+        return new CelestialBodyFrame(from, new CachedTransformProvider(from, to, step, threshold),
+                to.getName() + "_CACHED", to.getCelestialPoint());
+    }
+
+    public Transform getTransform(final AbsoluteDate date) throws PatriusException {
+
+        nbCalls.incrementAndGet();
+
+        final double t = date.durationFrom(AbsoluteDate.J2000_EPOCH)/step;
+        final long k = (long) FastMath.floor(t);
+
+        Boolean valid = checkedIntervals.get(k);
+        if (valid == null) {
+            final AbsoluteDate middle = AbsoluteDate.J2000_EPOCH.shiftedBy((k + 0.5)*step);
+            final double error = Rotation.distance(interpolate(k, 0.5, middle).getRotation(),
+                    from.getTransformTo(to, middle, configuration).getRotation());
+            maxError = FastMath.max(maxError, error);
+            valid = error <= threshold;
+            if (checkedIntervals.size() >= maxNodes) {
+                checkedIntervals.clear();
+            }
+            checkedIntervals.put(k, valid);
+        }
+
+        if (!valid) {
+            nbExactCalls.incrementAndGet();
+            return from.getTransformTo(to, date, configuration);
+        }
+        return interpolate(k, t - k, date);
+
+    }
+
+    public Transform getTransform(final AbsoluteDate date, final FramesConfiguration config) throws PatriusException {
+        return getTransform(date, config, false);
+    }
+
+    public Transform getTransform(final AbsoluteDate date, final boolean computeSpinDerivatives)
+            throws PatriusException {
+        return getTransform(date);
+    }
+
+    public Transform getTransform(final AbsoluteDate date, final FramesConfiguration config,
+            final boolean computeSpinDerivatives) throws PatriusException {
+        if (config != null && config != configuration) {
+            // The nodes are only valid for the configuration of the cache
+            nbCalls.incrementAndGet();
+            nbExactCalls.incrementAndGet();
+            return from.getTransformTo(to, date, config, computeSpinDerivatives);
+        }
+        return getTransform(date);
+    }
+
+    /**
+     * Method to interpolate the transform between two nodes.
+     * @param k    index of the first node
+     * @param w    interpolation weight (0 at the first node, 1 at the second)
+     * @param date date
+     * @return interpolated transform
+     * @throws PatriusException
+     */
+    private Transform interpolate(final long k, final double w, final AbsoluteDate date) throws PatriusException {
+
+        final Transform t0 = getNode(k);
+        final Transform t1 = getNode(k + 1);
+
+        // Relative rotation between the nodes, applied partially
+        final Rotation delta = new Transform(date, t0.getInverse(), t1).getRotation();
+        final Transform partial = new Transform(date, new Rotation(delta.getAxis(), w*delta.getAngle()), Vector3D.ZERO);
+        final Rotation rotation = new Transform(date, t0, partial).getRotation();
+
+        final Vector3D rate = new Vector3D(1. - w, t0.getRotationRate(), w, t1.getRotationRate());
+        return new Transform(date, rotation, rate);
+
+    }
+
+    private Transform getNode(final long k) throws PatriusException {
+        Transform node = nodes.get(k);
+        if (node == null) {
+            node = from.getTransformTo(to, AbsoluteDate.J2000_EPOCH.shiftedBy(k*step), configuration);
+            if (nodes.size() >= maxNodes) {
+                nodes.clear();
+            }
+            nodes.put(k, node);
+        }
+        return node;
+    }
+
+    /**
+     * @return number of transforms provided
+     */
+    public long getNbCalls() {
+        return nbCalls.get();
+    }
+
+    /**
+     * @return ratio of the transforms computed exactly (intervals above the threshold)
+     */
+    public double getExactRatio() {
+        final long n = nbCalls.get();
+        return n == 0 ? 0. : (double) nbExactCalls.get()/n;
+    }
+
+    /**
+     * @return maximum interpolation error checked at the middle of the intervals (rad)
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+        final CelestialBodyFrame ITRF = FramesFactory.getITRF();
+
+        //SPECIFIC
+        // Cached ITRF : 60 s grid, 1e-9 rad (about 6 mm at the Earth surface)
+        final CachedTransformProvider provider = new CachedTransformProvider(GCRF, ITRF, 60., 1.e-9);
+        final CelestialBodyFrame cachedITRF = new CelestialBodyFrame(GCRF, provider, "ITRF_CACHED",
+                ITRF.getCelestialPoint());
+
+        // Transform cost and accuracy over one day
+        final int nbTransforms = 100000;
+        long start = System.nanoTime();
+        for (int i = 0; i < nbTransforms; i++) {
+            GCRF.getTransformTo(ITRF, date.shiftedBy(i*Constants.JULIAN_DAY/nbTransforms));
+        }
+        final double exactDuration = (System.nanoTime() - start)*1.e-9;
+        start = System.nanoTime();
+        for (int i = 0; i < nbTransforms; i++) {
+            provider.getTransform(date.shiftedBy(i*Constants.JULIAN_DAY/nbTransforms));
+        }
+        final double cachedDuration = (System.nanoTime() - start)*1.e-9;
+        double maxError = 0.;
+        for (int i = 0; i < 1000; i++) {
+            final AbsoluteDate d = date.shiftedBy(i*Constants.JULIAN_DAY/1000. + 0.37);
+            maxError = FastMath.max(maxError, Rotation.distance(provider.getTransform(d).getRotation(),
+                    GCRF.getTransformTo(ITRF, d).getRotation()));
+        }
+
+        // Propagation profile : drag tutorial with the exact and the cached ITRF
+        final double[] durations = new double[2];
+        final SpacecraftState[] finalStates = new SpacecraftState[2];
+        final CelestialBodyFrame[] earthFrames = { ITRF, cachedITRF };
+        for (int k = 0; k < 2; k++) {
+            start = System.nanoTime();
+            finalStates[k] = propagate(date, GCRF, earthFrames[k]);
+            durations[k] = (System.nanoTime() - start)*1.e-9;
+        }
+        //SPECIFIC
+
+        System.out.println(String.format("%d GCRF/ITRF transforms : exact %.3f s, cached %.3f s", nbTransforms,
+                exactDuration, cachedDuration));
+        System.out.println(String.format("Max angular error : %.3e rad (between nodes), %.3e rad (checked at the middles)",
+                maxError, provider.getMaxError()));
+        System.out.println(String.format("Exact transforms ratio : %.3e", provider.getExactRatio()));
+        System.out.println();
+        System.out.println(String.format("Drag propagation over 5 periods : exact ITRF %.3f s, cached ITRF %.3f s (%.1f %% saved)",
+                durations[0], durations[1], 100.*(durations[0] - durations[1])/durations[0]));
+        System.out.println(String.format("Final position difference = %.3e m",
+                finalStates[0].getPVCoordinates().getPosition().distance(finalStates[1].getPVCoordinates().getPosition())));
+
+    }
+
+    /**
+     * Method to propagate 5 periods of the scenario of NumericalPropagationWithDrag (the spacecraft
+     * re-enters within a day from this orbit).
+     * @param date       initial date
+     * @param GCRF       GCRF frame
+     * @param earthFrame Earth frame of the atmosphere model
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final AbsoluteDate date, final Frame GCRF,
+            final CelestialBodyFrame earthFrame) throws PatriusException {
+
+        final double sma = 6600.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(100.), "MAIN");
+        builder.addProperty(new AeroSphereProperty(new Parameter("", 10.), 2.0), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final OneAxisEllipsoid EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, earthFrame, "EARTH");
+
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(2.),
+                GCRF, OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        propagator.addForceModel(new DragForce(new US76(EARTH), new AeroModel(assembly)));
+
+        return propagator.propagate(date.shiftedBy(5.*iniOrbit.getKeplerianPeriod()));
+
+    }
+
+}
@@ -0,0 +1,298 @@
+package frames;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.frames.configuration.DiurnalRotation;
+import fr.cnes.sirius.patrius.frames.configuration.FramesConfiguration;
+import fr.cnes.sirius.patrius.frames.configuration.FramesConfigurationBuilder;
+import fr.cnes.sirius.patrius.frames.configuration.PolarMotion;
+import fr.cnes.sirius.patrius.frames.configuration.eop.EOPHistory;
+import fr.cnes.sirius.patrius.frames.configuration.eop.NoEOP2000History;
+import fr.cnes.sirius.patrius.frames.configuration.libration.LibrationCorrectionModel;
+import fr.cnes.sirius.patrius.frames.configuration.libration.LibrationCorrectionModelFactory;
+import fr.cnes.sirius.patrius.frames.configuration.precessionnutation.PrecessionNutation;
+import fr.cnes.sirius.patrius.frames.configuration.precessionnutation.PrecessionNutationModel;
+import fr.cnes.sirius.patrius.frames.configuration.precessionnutation.PrecessionNutationModelFactory;
+import fr.cnes.sirius.patrius.frames.configuration.sp.SPrimeModelFactory;
+import fr.cnes.sirius.patrius.frames.configuration.tides.TidalCorrectionModel;
+import fr.cnes.sirius.patrius.frames.configuration.tides.TidalCorrectionModelFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Rotation;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Selection of the cheapest frames configuration meeting an angular accuracy.
+ * <p>
+ * The candidate configurations (built as in {@link ConfigureFrames} : precession-nutation model,
+ * tides and librations on or off, and either the EOP history and polar motion of the reference
+ * configuration or no EOP) are compared with the reference configuration (the one set when the
+ * selector is created) on the GCRF to ITRF rotation, at dates spread over the time span. {@link #select()}
+ * sets the cheapest compliant configuration with {@link FramesFactory#setConfiguration} (the reference
+ * one if none is compliant).
+ * </p>
+ * <p>
+ * The cost is the mean time of one GCRF to ITRF transform. All the candidates are first evaluated on
+ * the accuracy (which warms up the code and the interpolated models over the time span), then each one
+ * is timed several times, the best duration being kept. The timing dates are shifted by a fraction of
+ * the comparison step, different for each candidate and repetition : they are not computed yet, stay
+ * within the time span (EOP data) and are equivalent for all the candidates.
+ * </p>
+ */
+public class FramesConfigurationSelector {
+
+    /** Number of timings of each candidate. */
+    private static final int NB_TIMINGS = 5;
+
+    /**
+     * Candidate configuration and its evaluation.
+     */
+    public static class Candidate {
+
+        private final String name;
+        private final FramesConfiguration configuration;
+        private double maxError;
+        private double cost;
+
+        /**
+         * Constructor
+         * @param name          name of the candidate in the report
+         * @param configuration frames configuration
+         */
+        public Candidate(final String name, final FramesConfiguration configuration) {
+            this.name = name;
+            this.configuration = configuration;
+        }
+
+        /**
+         * @return name of the candidate
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return frames configuration
+         */
+        public FramesConfiguration getConfiguration() {
+            return configuration;
+        }
+
+        /**
+         * @return maximum angular error with respect to the reference configuration (rad)
+         */
+        public double getMaxError() {
+            return maxError;
+        }
+
+        /**
+         * @return mean duration of one GCRF to ITRF transform (s)
+         */
+        public double getCost() {
+            return cost;
+        }
+
+    }
+
+    private final AbsoluteDate start;
+    private final double span;
+    private final int nbDates;
+    private final double accuracy;
+    private final FramesConfiguration reference;
+    private final List<Candidate> candidates = new ArrayList<Candidate>();
+    private Candidate selected;
+
+    /**
+     * Constructor (the current configuration is the reference).
+     * @param start    start of the time span
+     * @param span     duration of the time span (s)
+     * @param nbDates  number of dates of the comparison
+     * @param accuracy required angular accuracy (rad)
+     */
+    public FramesConfigurationSelector(final AbsoluteDate start, final double span, final int nbDates,
+            final double accuracy) {
+        this.start = start;
+        this.span = span;
+        this.nbDates = nbDates;
+        this.accuracy = accuracy;
+        this.reference = FramesFactory.getConfiguration();
+
+        final PrecessionNutationModel[] pnModels = { PrecessionNutationModelFactory.NO_PN,
+                PrecessionNutationModelFactory.PN_IERS2010_INTERPOLATED_NON_CONSTANT_OLD };
+        final String[] pnNames = { "NO_PN", "PN_IERS2010_INTERPOLATED_NON_CONSTANT_OLD" };
+        for (final boolean eop : new boolean[] { false, true }) {
+            for (int i = 0; i < pnModels.length; i++) {
+                for (final boolean tides : new boolean[] { false, true }) {
+                    for (final boolean librations : new boolean[] { false, true }) {
+                        candidates.add(new Candidate(pnNames[i] + (tides ? " + tides" : "")
+                                + (librations ? " + librations" : "") + (eop ? " (reference EOP)" : " (NoEOP2000History)"),
+                                buildConfiguration(pnModels[i], tides, librations, eop ? reference.getEOPHistory() : null)));
+                    }
+                }
+            }
+        }
+        candidates.add(new Candidate("Reference", reference));
+    }
+
+    /**
+     * Method to build a candidate configuration (same as ConfigureFrames.getSimplifiedConfiguration).
+     * @param pnModel    precession nutation model
+     * @param tides      if true, IERS 2010 tidal corrections
+     * @param librations if true, IERS 2010 libration corrections
+     * @param eopHistory EOP history used with polar motion and pole corrections (null for no EOP)
+     * @return frames configuration
+     */
+    private static FramesConfiguration buildConfiguration(final PrecessionNutationModel pnModel, final boolean tides,
+            final boolean librations, final EOPHistory eopHistory) {
+
+        final FramesConfigurationBuilder builder = new FramesConfigurationBuilder();
+
+        final TidalCorrectionModel tidesModel = tides ? TidalCorrectionModelFactory.TIDE_IERS2010_INTERPOLATED :
+            TidalCorrectionModelFactory.NO_TIDE;
+        final LibrationCorrectionModel lib = librations ? LibrationCorrectionModelFactory.LIBRATION_IERS2010 :
+            LibrationCorrectionModelFactory.NO_LIBRATION;
+
+        builder.setDiurnalRotation(new DiurnalRotation(tidesModel, lib));
+        if (eopHistory == null) {
+            builder.setPolarMotion(new PolarMotion(false, tidesModel, lib, SPrimeModelFactory.NO_SP));
+            builder.setCIRFPrecessionNutation(new PrecessionNutation(false, pnModel));
+            builder.setEOPHistory(new NoEOP2000History());
+        } else {
+            builder.setPolarMotion(new PolarMotion(true, tidesModel, lib, SPrimeModelFactory.SP_IERS2010));
+            builder.setCIRFPrecessionNutation(new PrecessionNutation(true, pnModel));
+            builder.setEOPHistory(eopHistory);
+        }
+
+        return builder.getConfiguration();
+
+    }
+
+    /**
+     * Method to evaluate the candidates and set the cheapest compliant one.
+     * @return the selected configuration
+     * @throws PatriusException
+     */
+    public FramesConfiguration select() throws PatriusException {
+
+        final AbsoluteDate[] dates = dates(start);
+
+        FramesFactory.setConfiguration(reference);
+        final Rotation[] references = rotations(dates);
+
+        // First pass : accuracy of all the candidates (and warm up)
+        for (final Candidate candidate : candidates) {
+            FramesFactory.setConfiguration(candidate.configuration);
+            final Rotation[] rotations = rotations(dates);
+            candidate.maxError = 0.;
+            for (int i = 0; i < nbDates; i++) {
+                candidate.maxError = FastMath.max(candidate.maxError, Rotation.distance(rotations[i], references[i]));
+            }
+            candidate.cost = Double.POSITIVE_INFINITY;
+        }
+
+        // Next passes : cost on equivalent dates not computed yet, within the time span
+        final double dateStep = span/FastMath.max(1, nbDates - 1);
+        final int nbShifts = NB_TIMINGS*candidates.size() + 1;
+        for (int r = 0; r < NB_TIMINGS; r++) {
+            for (int k = 0; k < candidates.size(); k++) {
+                final Candidate candidate = candidates.get(k);
+                FramesFactory.setConfiguration(candidate.configuration);
+                final AbsoluteDate[] timingDates = dates(start.shiftedBy(dateStep*(r*candidates.size() + k + 1)/nbShifts));
+                final long startTime = System.nanoTime();
+                rotations(timingDates);
+                candidate.cost = FastMath.min(candidate.cost, (System.nanoTime() - startTime)*1.e-9/nbDates);
+            }
+        }
+
+        selected = null;
+        for (final Candidate candidate : candidates) {
+            if (candidate.maxError <= accuracy && (selected == null || candidate.cost < selected.cost)) {
+                selected = candidate;
+            }
+        }
+
+        FramesFactory.setConfiguration(selected.configuration);
+        return selected.configuration;
+
+    }
+
+    private AbsoluteDate[] dates(final AbsoluteDate first) {
+        final AbsoluteDate[] dates = new AbsoluteDate[nbDates];
+        for (int i = 0; i < nbDates; i++) {
+            dates[i] = first.shiftedBy(i*span/FastMath.max(1, nbDates - 1));
+        }
+        return dates;
+    }
+
+    private static Rotation[] rotations(final AbsoluteDate[] dates) throws PatriusException {
+        final Rotation[] rotations = new Rotation[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            rotations[i] = FramesFactory.getGCRF().getTransformTo(FramesFactory.getITRF(), dates[i]).getRotation();
+        }
+        return rotations;
+    }
+
+    /**
+     * @return the candidates
+     */
+    public List<Candidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return a report of the accuracy and cost of the candidates
+     */
+    public String getReport() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("Required accuracy : %.3e rad over %.1f days%n", accuracy, span/Constants.JULIAN_DAY));
+        report.append(String.format("%-72s %14s %14s%n", "Configuration", "Error (rad)", "Cost (us)"));
+        for (final Candidate candidate : candidates) {
+            report.append(String.format("%-72s %14.3e %14.2f%s%n", candidate.name, candidate.maxError,
+                    candidate.cost*1.e6, candidate == selected ? "  <= selected" :
+                        candidate.maxError <= accuracy ? "" : "  (not compliant)"));
+        }
+        return report.toString();
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset();
+
+        // Date of the orbit (given in UTC time scale)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Storing by default configuration
+        final FramesConfiguration configDefault = FramesFactory.getConfiguration();
+
+        //SPECIFIC
+        // Required accuracies : 1 arcsec, 1 mas (1e-3 arcsec) over 30 days
+        final double[] accuracies = { FastMath.toRadians(1./3600.), FastMath.toRadians(1.e-3/3600.) };
+        for (final double accuracy : accuracies) {
+            FramesFactory.setConfiguration(configDefault);
+            final FramesConfigurationSelector selector = new FramesConfigurationSelector(date,
+                    30.*Constants.JULIAN_DAY, 500, accuracy);
+            selector.select();
+            System.out.println();
+            System.out.println(selector.getReport());
+        }
+        //SPECIFIC
+
+        //Setting by default configuration
+        FramesFactory.setConfiguration(configDefault);
+
+    }
+
+}
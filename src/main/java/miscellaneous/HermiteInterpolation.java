@@ -0,0 +1,40 @@
+package miscellaneous;
+
+/**
+ * Cubic Hermite interpolation between two points with their derivatives, shared by the step recorders
+ * and the ephemeris readers (positions interpolated with the velocities).
+ */
+public final class HermiteInterpolation {
+
+    /**
+     * Private constructor (utility class).
+     */
+    private HermiteInterpolation() {
+    }
+
+    /**
+     * Method to compute a cubic Hermite interpolation and its derivative.
+     * @param dt elapsed time from the first point
+     * @param h  time between both points (not zero)
+     * @param p0 value at first point
+     * @param v0 derivative at first point
+     * @param p1 value at second point
+     * @param v1 derivative at second point
+     * @return interpolated value and derivative
+     */
+    public static double[] interpolate(final double dt, final double h, final double p0, final double v0,
+            final double p1, final double v1) {
+        final double s = dt/h;
+        final double s2 = s*s;
+        final double s3 = s2*s;
+        final double h00 = 2.*s3 - 3.*s2 + 1.;
+        final double h10 = s3 - 2.*s2 + s;
+        final double h01 = -2.*s3 + 3.*s2;
+        final double h11 = s3 - s2;
+        final double value = h00*p0 + h10*h*v0 + h01*p1 + h11*h*v1;
+        final double derivative = ((6.*s2 - 6.*s)*p0 + (3.*s2 - 4.*s + 1.)*h*v0
+                + (-6.*s2 + 6.*s)*p1 + (3.*s2 - 2.*s)*h*v1)/h;
+        return new double[] { value, derivative };
+    }
+
+}
@@ -0,0 +1,424 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import miscellaneous.HermiteInterpolation;
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PropagationException;
+
+public class ColumnarStepRecorder implements PatriusFixedStepHandler {
+
+    /** Recorded columns. */
+    public enum Column {
+        /** Offset from the reference date (s). */
+        T,
+        /** Position (m) and velocity (m/s) in the propagation frame. */
+        X, Y, Z, VX, VY, VZ,
+        /** Mass of the recorded part (kg), NaN if no part name is given. */
+        MASS,
+        /** Semi major axis (m), eccentricity, inclination (rad) and true latitude argument (rad). */
+        A, E, I, LV
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of steps stored in each chunk. */
+    private final int chunkSize;
+
+    /** Recorded columns (T first). */
+    private final Column[] columns;
+
+    /** Position of each column in the chunks (by ordinal), -1 if not recorded. */
+    private final int[] slots = new int[Column.values().length];
+
+    /** Name of the part whose mass is recorded (may be null). */
+    private final String massPartName;
+
+    /** Chunks of data : in each chunk, values are stored column after column. */
+    private final ArrayList<double[]> chunks = new ArrayList<double[]>();
+
+    /** Number of recorded steps. */
+    private int size = 0;
+
+    /** Reference date (date of the first initial state). */
+    private AbsoluteDate referenceDate;
+
+    /** Frame of the recorded position and velocity. */
+    private Frame frame;
+
+    /**
+     * Constructor (all the columns recorded)
+     * @param chunkSize    number of steps stored in each chunk
+     * @param massPartName name of the part whose mass is recorded (null for no mass)
+     */
+    public ColumnarStepRecorder(final int chunkSize, final String massPartName) {
+        this(chunkSize, massPartName, EnumSet.allOf(Column.class));
+    }
+
+    /**
+     * Constructor
+     * @param chunkSize    number of steps stored in each chunk
+     * @param massPartName name of the part whose mass is recorded (null for no mass)
+     * @param columns      recorded columns (T is always recorded)
+     */
+    public ColumnarStepRecorder(final int chunkSize, final String massPartName, final Set<Column> columns) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive : " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.massPartName = massPartName;
+        final EnumSet<Column> recorded = EnumSet.of(Column.T);
+        recorded.addAll(columns);
+        this.columns = recorded.toArray(new Column[recorded.size()]);
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < this.columns.length; i++) {
+            slots[this.columns[i].ordinal()] = i;
+        }
+    }
+
+    public void init(final SpacecraftState s0, final AbsoluteDate t) {
+        // The reference date is kept when propagate is called several times
+        if (referenceDate == null) {
+            referenceDate = s0.getDate();
+            frame = s0.getFrame();
+        }
+    }
+
+    public void handleStep(final SpacecraftState currentState, final boolean isLast) throws PropagationException {
+
+        // Steps not after the last recorded one are skipped (first step of a new propagation from the
+        // last recorded state, or propagation over dates already recorded) : the dates stay increasing
+        final double t = currentState.getDate().durationFrom(referenceDate);
+        if (size > 0 && t <= get(Column.T, size - 1)) {
+            return;
+        }
+
+        // A new chunk is allocated when needed : already stored data are never copied
+        final int offset = size % chunkSize;
+        if (offset == 0) {
+            chunks.add(new double[chunkSize*columns.length]);
+        }
+        final double[] chunk = chunks.get(chunks.size() - 1);
+
+        final PVCoordinates pv = currentState.getPVCoordinates();
+        for (int i = 0; i < columns.length; i++) {
+            chunk[i*chunkSize + offset] = value(columns[i], t, currentState, pv);
+        }
+
+        size++;
+
+    }
+
+    /**
+     * Method to compute the value of a column.
+     * @param column recorded column
+     * @param t      offset from the reference date (s)
+     * @param state  current state
+     * @param pv     position and velocity of the current state
+     * @return the value
+     * @throws PropagationException
+     */
+    private double value(final Column column, final double t, final SpacecraftState state, final PVCoordinates pv)
+        throws PropagationException {
+        final Vector3D pos = pv.getPosition();
+        final Vector3D vel = pv.getVelocity();
+        switch (column) {
+            case T:
+                return t;
+            case X:
+                return pos.getX();
+            case Y:
+                return pos.getY();
+            case Z:
+                return pos.getZ();
+            case VX:
+                return vel.getX();
+            case VY:
+                return vel.getY();
+            case VZ:
+                return vel.getZ();
+            case MASS:
+                return getMass(state);
+            case A:
+                return state.getA();
+            case E:
+                return state.getE();
+            case I:
+                return state.getI();
+            case LV:
+                return state.getLv();
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    /**
+     * Method to get the mass of the recorded part.
+     * @param state current state
+     * @return mass (kg), NaN if no part name has been given
+     * @throws PropagationException
+     */
+    private double getMass(final SpacecraftState state) throws PropagationException {
+        if (massPartName == null) {
+            return Double.NaN;
+        }
+        try {
+            return state.getMass(massPartName);
+        } catch (final PatriusException e) {
+            throw new PropagationException(e);
+        }
+    }
+
+    /**
+     * @return number of recorded steps
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return reference date (recorded offsets are given from this date)
+     */
+    public AbsoluteDate getReferenceDate() {
+        return referenceDate;
+    }
+
+    /**
+     * @return frame of the recorded positions and velocities
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Method to get a recorded value.
+     * @param column recorded column
+     * @param index  step index (0 for the first recorded step)
+     * @return the recorded value
+     * @throws IllegalArgumentException if the column is not recorded
+     */
+    public double get(final Column column, final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of [0, " + size + "[");
+        }
+        final int slot = slots[column.ordinal()];
+        if (slot < 0) {
+            throw new IllegalArgumentException("Column " + column + " not recorded");
+        }
+        return chunks.get(index/chunkSize)[slot*chunkSize + index%chunkSize];
+    }
+
+    /**
+     * @param column column
+     * @return true if the column is recorded
+     */
+    public boolean isRecorded(final Column column) {
+        return slots[column.ordinal()] >= 0;
+    }
+
+    /**
+     * Method to get the date of a recorded step.
+     * @param index step index
+     * @return date of the step
+     */
+    public AbsoluteDate getDate(final int index) {
+        return referenceDate.shiftedBy(get(Column.T, index));
+    }
+
+    /**
+     * Method to get the position and velocity of a recorded step.
+     * @param index step index
+     * @return position and velocity in the recording frame
+     */
+    public PVCoordinates getPVCoordinates(final int index) {
+        return new PVCoordinates(
+                new Vector3D(get(Column.X, index), get(Column.Y, index), get(Column.Z, index)),
+                new Vector3D(get(Column.VX, index), get(Column.VY, index), get(Column.VZ, index)));
+    }
+
+    /**
+     * Method to interpolate the position and velocity between two recorded steps
+     * (cubic Hermite interpolation using positions and velocities).
+     * @param date interpolation date
+     * @return interpolated position and velocity in the recording frame
+     */
+    public PVCoordinates getPVCoordinates(final AbsoluteDate date) {
+
+        final double t = date.durationFrom(referenceDate);
+        if (size < 2 || t < get(Column.T, 0) || t > get(Column.T, size - 1)) {
+            throw new IllegalArgumentException("Date out of the recorded interval");
+        }
+
+        // Binary search of the interval [k, k+1] containing t
+        int low = 0;
+        int high = size - 1;
+        while (high - low > 1) {
+            final int mid = (low + high) >>> 1;
+            if (get(Column.T, mid) <= t) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+
+        final double t0 = get(Column.T, low);
+        final double h = get(Column.T, high) - t0;
+        final double[] p = new double[3];
+        final double[] v = new double[3];
+        final Column[] posColumns = { Column.X, Column.Y, Column.Z };
+        final Column[] velColumns = { Column.VX, Column.VY, Column.VZ };
+        for (int j = 0; j < 3; j++) {
+            final double[] pv = HermiteInterpolation.interpolate(t - t0, h,
+                    get(posColumns[j], low), get(velColumns[j], low),
+                    get(posColumns[j], high), get(velColumns[j], high));
+            p[j] = pv[0];
+            v[j] = pv[1];
+        }
+        return new PVCoordinates(new Vector3D(p[0], p[1], p[2]), new Vector3D(v[0], v[1], v[2]));
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // We create a spacecratftstate
+        final SpacecraftState iniState = new SpacecraftState(iniOrbit);
+
+        // Propagating 2 weeks with a 10 s handler
+        final double dt = 14.*Constants.JULIAN_DAY;
+        final double handlerStep = 10.;
+        final AbsoluteDate finalDate = date.shiftedBy(dt);
+
+        //SPECIFIC
+        // First run : every SpacecraftState is kept in a list (as in NumericalPropagationWithFixedStepHandler)
+        final long memBeforeList = usedMemory();
+        final ArrayList<SpacecraftState> listOfStates = new ArrayList<SpacecraftState>();
+        final NumericalPropagator propagator1 = buildPropagator(iniState);
+        propagator1.setMasterMode(handlerStep, new PatriusFixedStepHandler() {
+            private static final long serialVersionUID = 1L;
+            public void init(final SpacecraftState s0, final AbsoluteDate t) {
+                // Nothing to do ...
+            }
+            public void handleStep(final SpacecraftState currentState, final boolean isLast) {
+                listOfStates.add(currentState);
+            }
+        });
+        propagator1.propagate(finalDate);
+        final long memList = usedMemory() - memBeforeList;
+        final int nbStates = listOfStates.size();
+        listOfStates.clear();
+        listOfStates.trimToSize();
+
+        // Second run : only the selected primitive columns are kept (no mass, no orbital elements but LV)
+        final long memBeforeRecorder = usedMemory();
+        final ColumnarStepRecorder recorder = new ColumnarStepRecorder(4096, null,
+                EnumSet.of(Column.X, Column.Y, Column.Z, Column.VX, Column.VY, Column.VZ, Column.LV));
+        final NumericalPropagator propagator2 = buildPropagator(iniState);
+        propagator2.setMasterMode(handlerStep, recorder);
+        propagator2.propagate(finalDate);
+        final long memRecorder = usedMemory() - memBeforeRecorder;
+        //SPECIFIC
+
+        // Memory comparison
+        System.out.println(String.format("ArrayList<SpacecraftState> : %d states, %8.3f MB (%d bytes per state)",
+                nbStates, memList/1.e6, memList/FastMath.max(1, nbStates)));
+        System.out.println(String.format("ColumnarStepRecorder       : %d states, %8.3f MB (%d bytes per state)",
+                recorder.size(), memRecorder/1.e6, memRecorder/FastMath.max(1, recorder.size())));
+
+        // Indexed and interpolated access
+        final int last = recorder.size() - 1;
+        System.out.println();
+        System.out.println(recorder.getDate(last).toString(TUC)+" ; LV = "+FastMath.toDegrees(recorder.get(Column.LV, last))+" deg");
+        final AbsoluteDate interpolationDate = recorder.getDate(last - 1).shiftedBy(0.5*handlerStep);
+        System.out.println(interpolationDate.toString(TUC)+" ; interpolated position = "
+                +recorder.getPVCoordinates(interpolationDate).getPosition());
+
+    }
+
+    /**
+     * Method to build the propagator used for the memory comparison.
+     * @param iniState initial state
+     * @return the propagator
+     * @throws PatriusException
+     */
+    private static NumericalPropagator buildPropagator(final SpacecraftState iniState) throws PatriusException {
+
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final FirstOrderIntegrator integrator = new ClassicalRungeKuttaIntegrator(pasRk);
+
+        // Initialization of the propagator
+        final NumericalPropagator propagator = new NumericalPropagator(integrator, iniState.getFrame(),
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(iniState);
+        return propagator;
+
+    }
+
+    /**
+     * Method to estimate the used heap memory after a garbage collection.
+     * @return used memory (bytes)
+     */
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
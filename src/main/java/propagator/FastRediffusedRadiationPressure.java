@@ -0,0 +1,387 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.models.RediffusedRadiativeModel;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeIRProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeSphereProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.MeeusSun;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.radiation.IEmissivityModel;
+import fr.cnes.sirius.patrius.forces.radiation.KnockeRiesModel;
+import fr.cnes.sirius.patrius.forces.radiation.RediffusedRadiationPressure;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.numerical.TimeDerivativesEquations;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Fast mode of {@link RediffusedRadiationPressure} (Earth albedo and infrared pressure).
+ * <p>
+ * Two levels of caching are used :
+ * <ul>
+ * <li>the emissivities of the Earth elements are read in a table built, for each date bucket, from the
+ * emissivity model (albedo and infrared of {@link KnockeRiesModel} only depend on the latitude and the
+ * date) ;</li>
+ * <li>the acceleration computed at the first evaluation of a hold interval is kept in the local orbital
+ * frame (radial, along track, cross track) and reused for the other evaluations of the interval : with a
+ * hold duration equal to the integration step, the Earth discretisation is computed once per step
+ * instead of once per Runge-Kutta stage.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The hold intervals are aligned with the start of the propagation : the hold is reset by
+ * {@link #checkData}, called by the propagator before each propagation (or explicitly with
+ * {@link #reset()}). A held acceleration is also never reused for a state more than one hold duration
+ * away from the state it was computed for.
+ * </p>
+ * <p>
+ * The hold is a zero order hold : all the Runge-Kutta stages of a step see the acceleration of the first
+ * one (rotated with the local orbital frame). The contribution of this force is then integrated at the
+ * first order only, whatever the order of the integrator : its error grows with the hold duration and
+ * with the variation rate of the acceleration (albedo and infrared change over a fraction of the orbital
+ * period). With a hold duration equal to the step of the tutorial, the resulting position difference is
+ * small compared to the effect of the force itself (see the final position differences printed by the
+ * tutorial). A smaller hold duration reduces this error, a null one evaluating the force at each stage
+ * (only the emissivity tables are then used).
+ * </p>
+ * <p>
+ * Like the propagator, an instance must not be shared between threads.
+ * </p>
+ */
+public class FastRediffusedRadiationPressure implements ForceModel {
+
+    /**
+     * Emissivity model reading albedo and infrared emissivities in latitude tables (one per date bucket,
+     * the least recently used tables being dropped beyond {@value #MAX_TABLES} buckets).
+     */
+    public static class CachedEmissivityModel implements IEmissivityModel {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Maximum number of kept tables. */
+        private static final int MAX_TABLES = 64;
+
+        private final IEmissivityModel model;
+        private final double bucketDuration;
+        private final double latitudeStep;
+        private final int nbLatitudes;
+        private final Map<Long, double[][]> tables = Collections.synchronizedMap(
+                new LinkedHashMap<Long, double[][]>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(final Map.Entry<Long, double[][]> eldest) {
+                        return size() > MAX_TABLES;
+                    }
+                });
+
+        /**
+         * Constructor
+         * @param model          emissivity model depending only on the date and the latitude
+         * @param bucketDuration duration of the date buckets (s)
+         * @param latitudeStep   latitude step of the tables (rad)
+         */
+        public CachedEmissivityModel(final IEmissivityModel model, final double bucketDuration,
+                final double latitudeStep) {
+            this.model = model;
+            this.bucketDuration = bucketDuration;
+            this.latitudeStep = latitudeStep;
+            this.nbLatitudes = (int) FastMath.ceil(FastMath.PI/latitudeStep) + 1;
+        }
+
+        public double[] getEmissivity(final AbsoluteDate date, final double latitude, final double longitude) {
+
+            final long bucket = (long) FastMath.floor(date.durationFrom(AbsoluteDate.J2000_EPOCH)/bucketDuration);
+            double[][] table = tables.get(bucket);
+            if (table == null) {
+                final AbsoluteDate tableDate = AbsoluteDate.J2000_EPOCH.shiftedBy((bucket + 0.5)*bucketDuration);
+                table = new double[nbLatitudes][];
+                for (int i = 0; i < nbLatitudes; i++) {
+                    table[i] = model.getEmissivity(tableDate, -0.5*FastMath.PI + i*latitudeStep, 0.);
+                }
+                tables.put(bucket, table);
+            }
+
+            final double x = (latitude + 0.5*FastMath.PI)/latitudeStep;
+            final int i = FastMath.min(nbLatitudes - 2, FastMath.max(0, (int) FastMath.floor(x)));
+            final double w = x - i;
+            return new double[] { (1. - w)*table[i][0] + w*table[i + 1][0], (1. - w)*table[i][1] + w*table[i + 1][1] };
+
+        }
+
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final RediffusedRadiationPressure force;
+    private final double holdDuration;
+
+    private AbsoluteDate origin = null;
+    private AbsoluteDate heldDate = null;
+    private long heldInterval = Long.MIN_VALUE;
+    private double heldRadial;
+    private double heldAlongTrack;
+    private double heldCrossTrack;
+    private long nbCalls = 0;
+    private long nbEvaluations = 0;
+
+    /**
+     * Constructor
+     * @param sun              Sun
+     * @param bodyFrame        Earth frame
+     * @param inCorona         number of crowns of the Earth discretisation
+     * @param inMeridian       number of meridians of the Earth discretisation
+     * @param emissivityModel  emissivity model (depending only on the date and the latitude)
+     * @param rdm              radiative model of the spacecraft
+     * @param holdDuration     duration of the hold intervals (s), typically the integration step (0 for no hold)
+     * @param bucketDuration   duration of the emissivity date buckets (s)
+     * @param latitudeStep     latitude step of the emissivity tables (rad)
+     */
+    public FastRediffusedRadiationPressure(final CelestialBody sun, final CelestialBodyFrame bodyFrame,
+            final int inCorona, final int inMeridian, final IEmissivityModel emissivityModel,
+            final RediffusedRadiativeModel rdm, final double holdDuration, final double bucketDuration,
+            final double latitudeStep) {
+        if (holdDuration < 0.) {
+            throw new IllegalArgumentException("Hold duration must not be negative : " + holdDuration);
+        }
+        this.force = new RediffusedRadiationPressure(sun, bodyFrame, inCorona, inMeridian,
+                new CachedEmissivityModel(emissivityModel, bucketDuration, latitudeStep), rdm);
+        this.holdDuration = holdDuration;
+    }
+
+    public void addContribution(final SpacecraftState s, final TimeDerivativesEquations adder) throws PatriusException {
+        adder.addAcceleration(computeAcceleration(s), s.getFrame());
+    }
+
+    public Vector3D computeAcceleration(final SpacecraftState s) throws PatriusException {
+
+        nbCalls++;
+
+        // Local orbital frame of the state
+        final PVCoordinates pv = s.getPVCoordinates();
+        final Vector3D radial = pv.getPosition().normalize();
+        final Vector3D crossTrack = Vector3D.crossProduct(pv.getPosition(), pv.getVelocity()).normalize();
+        final Vector3D alongTrack = Vector3D.crossProduct(crossTrack, radial);
+
+        if (origin == null) {
+            origin = s.getDate();
+        }
+        final long interval = (long) FastMath.floor(s.getDate().durationFrom(origin)/holdDuration);
+        if (interval != heldInterval || FastMath.abs(s.getDate().durationFrom(heldDate)) >= holdDuration) {
+            final Vector3D acc = force.computeAcceleration(s);
+            heldRadial = acc.dotProduct(radial);
+            heldAlongTrack = acc.dotProduct(alongTrack);
+            heldCrossTrack = acc.dotProduct(crossTrack);
+            heldInterval = interval;
+            heldDate = s.getDate();
+            nbEvaluations++;
+        }
+
+        return new Vector3D(heldRadial, radial, heldAlongTrack, alongTrack, heldCrossTrack, crossTrack);
+
+    }
+
+    public EventDetector[] getEventsDetectors() {
+        return force.getEventsDetectors();
+    }
+
+    public void checkData(final AbsoluteDate start, final AbsoluteDate end) throws PatriusException {
+        force.checkData(start, end);
+        reset();
+        origin = start;
+    }
+
+    /**
+     * Method to drop the held acceleration : the hold intervals are aligned with the next evaluated state.
+     */
+    public void reset() {
+        origin = null;
+        heldDate = null;
+        heldInterval = Long.MIN_VALUE;
+    }
+
+    public ArrayList<Parameter> getParameters() {
+        return force.getParameters();
+    }
+
+    public boolean supportsParameter(final Parameter param) {
+        return force.supportsParameter(param);
+    }
+
+    /**
+     * @return number of calls to the force model
+     */
+    public long getNbCalls() {
+        return nbCalls;
+    }
+
+    /**
+     * @return number of calls that computed the Earth discretisation
+     */
+    public long getNbEvaluations() {
+        return nbEvaluations;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithSRP)
+        final double sma = 7000.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass and radiative model using an Assembly (same as NumericalPropagationWithSRP)
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double ka = 1.0;
+        final double ks = 0.0;
+        final double kd = 0.0;
+        builder.addProperty(new RadiativeProperty(ka, ks, kd), "MAIN");
+        builder.addProperty(new RadiativeIRProperty(ka, ks, kd), "MAIN");
+        final double radius = 10.;
+        builder.addProperty(new RadiativeSphereProperty(radius), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+        final RediffusedRadiativeModel rdm = new RediffusedRadiativeModel(true, true, 1., 1., assembly);
+
+        final CelestialBody sun = new MeeusSun();
+        final double pasRk = 2.;
+        final AbsoluteDate finalDate = date.shiftedBy(5.*iniOrbit.getKeplerianPeriod());
+
+        //SPECIFIC
+        final int[][] discretisations = { { 1, 10 }, { 2, 20 }, { 3, 36 }, { 5, 72 } };
+        final int nbSamples = 500;
+        System.out.println("inCorona inMeridian   raw/eval   fast/eval  max acc. error  raw prop.  fast prop.  final pos. diff.");
+        for (final int[] disc : discretisations) {
+
+            final RediffusedRadiationPressure raw = new RediffusedRadiationPressure(sun, GCRF, disc[0], disc[1],
+                    new KnockeRiesModel(), rdm);
+            final FastRediffusedRadiationPressure fast = new FastRediffusedRadiationPressure(sun, GCRF, disc[0], disc[1],
+                    new KnockeRiesModel(), rdm, pasRk, Constants.JULIAN_DAY, FastMath.toRadians(1.));
+
+            // Acceleration error : fast model held at t and evaluated at the Runge-Kutta stages t + h/2 and t + h
+            final SpacecraftState[] states = new SpacecraftState[nbSamples];
+            for (int i = 0; i < nbSamples; i++) {
+                states[i] = new SpacecraftState(iniOrbit.shiftedBy(i*iniOrbit.getKeplerianPeriod()/nbSamples), mm);
+            }
+            double maxError = 0.;
+            double maxNorm = 0.;
+            long start = System.nanoTime();
+            for (int i = 0; i < nbSamples; i++) {
+                raw.computeAcceleration(states[i]);
+            }
+            final double rawCost = (System.nanoTime() - start)*1.e-9/nbSamples;
+            start = System.nanoTime();
+            for (int i = 0; i < nbSamples; i++) {
+                fast.computeAcceleration(states[i]);
+            }
+            final double fastCost = (System.nanoTime() - start)*1.e-9/nbSamples;
+            for (int i = 0; i < nbSamples; i++) {
+                // Hold started at the sample (as at the start of an integration step)
+                fast.reset();
+                fast.computeAcceleration(states[i]);
+                final SpacecraftState stage = states[i].shiftedBy(0.999*pasRk);
+                final Vector3D exact = raw.computeAcceleration(stage);
+                maxError = FastMath.max(maxError, fast.computeAcceleration(stage).distance(exact));
+                maxNorm = FastMath.max(maxNorm, exact.getNorm());
+            }
+
+            // Propagations
+            start = System.nanoTime();
+            final SpacecraftState rawState = propagate(iniOrbit, mm, raw, pasRk, finalDate);
+            final double rawDuration = (System.nanoTime() - start)*1.e-9;
+            final FastRediffusedRadiationPressure fastProp = new FastRediffusedRadiationPressure(sun, GCRF, disc[0],
+                    disc[1], new KnockeRiesModel(), rdm, pasRk, Constants.JULIAN_DAY, FastMath.toRadians(1.));
+            start = System.nanoTime();
+            final SpacecraftState fastState = propagate(iniOrbit, mm, fastProp, pasRk, finalDate);
+            final double fastDuration = (System.nanoTime() - start)*1.e-9;
+
+            System.out.println(String.format("%8d %10d %8.1f us %8.1f us  %.2e m/s2 %8.3f s %9.3f s %14.3e m", disc[0],
+                    disc[1], rawCost*1.e6, fastCost*1.e6, maxError, rawDuration, fastDuration,
+                    rawState.getPVCoordinates().getPosition().distance(fastState.getPVCoordinates().getPosition())));
+            System.out.println(String.format("%19s(acceleration norm %.2e m/s2, %d evaluations for %d calls)", "", maxNorm,
+                    fastProp.getNbEvaluations(), fastProp.getNbCalls()));
+        }
+        //SPECIFIC
+
+    }
+
+    /**
+     * Method to propagate the scenario of NumericalPropagationWithSRP with a given rediffused pressure model.
+     * @param iniOrbit  initial orbit
+     * @param mm        mass model
+     * @param force     rediffused radiation pressure model
+     * @param pasRk     integration step (s)
+     * @param finalDate final date
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final Orbit iniOrbit, final MassProvider mm, final ForceModel force,
+            final double pasRk, final AbsoluteDate finalDate) throws PatriusException {
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                iniOrbit.getFrame(), OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        propagator.addForceModel(force);
+        return propagator.propagate(finalDate);
+    }
+
+}
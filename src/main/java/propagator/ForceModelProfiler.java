@@ -0,0 +1,432 @@
+package propagator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.models.RediffusedRadiativeModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeIRProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeSphereProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.MeeusSun;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.forces.gravity.DirectBodyAttraction;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory.GravityFieldNames;
+import fr.cnes.sirius.patrius.forces.gravity.ThirdBodyAttraction;
+import fr.cnes.sirius.patrius.forces.radiation.KnockeRiesModel;
+import fr.cnes.sirius.patrius.forces.radiation.RediffusedRadiationPressure;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.numerical.TimeDerivativesEquations;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Profiler of the force models of a numerical propagation.
+ * <p>
+ * Each force model added with {@link #addForceModel} is wrapped in a {@link ProfiledForceModel} timing
+ * its addContribution and computeAcceleration calls. The report gives, for each model, the number of
+ * calls, the cumulated time, the percentiles of the call durations and the share of the propagation
+ * time (measured by {@link #propagate}). When the profiler is disabled, the wrappers only test a flag
+ * before calling the wrapped model; the samples of a wrapper are only allocated at its first timed call.
+ * </p>
+ * <p>
+ * Like the propagator, the profiler must not be shared between threads.
+ * </p>
+ */
+public class ForceModelProfiler {
+
+    /** Maximum number of call durations kept (reservoir sampling) for the percentiles. */
+    private static final int MAX_SAMPLES = 100000;
+
+    /**
+     * Force model decorator recording the duration of the calls.
+     */
+    public static class ProfiledForceModel implements ForceModel {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final ForceModel model;
+        private final ForceModelProfiler profiler;
+        private final Random random = new Random(0);
+        private long[] samples = null;
+        private long nbCalls = 0;
+        private long totalDuration = 0;
+        private long maxDuration = 0;
+
+        /**
+         * Constructor
+         * @param name     name of the model in the report
+         * @param model    profiled force model
+         * @param profiler profiler (enabling flag)
+         */
+        ProfiledForceModel(final String name, final ForceModel model, final ForceModelProfiler profiler) {
+            this.name = name;
+            this.model = model;
+            this.profiler = profiler;
+        }
+
+        public void addContribution(final SpacecraftState s, final TimeDerivativesEquations adder)
+                throws PatriusException {
+            if (!profiler.enabled) {
+                model.addContribution(s, adder);
+                return;
+            }
+            final long start = System.nanoTime();
+            model.addContribution(s, adder);
+            record(System.nanoTime() - start);
+        }
+
+        public Vector3D computeAcceleration(final SpacecraftState s) throws PatriusException {
+            if (!profiler.enabled) {
+                return model.computeAcceleration(s);
+            }
+            final long start = System.nanoTime();
+            final Vector3D acc = model.computeAcceleration(s);
+            record(System.nanoTime() - start);
+            return acc;
+        }
+
+        public EventDetector[] getEventsDetectors() {
+            return model.getEventsDetectors();
+        }
+
+        public void checkData(final AbsoluteDate start, final AbsoluteDate end) throws PatriusException {
+            model.checkData(start, end);
+        }
+
+        public ArrayList<Parameter> getParameters() {
+            return model.getParameters();
+        }
+
+        public boolean supportsParameter(final Parameter param) {
+            return model.supportsParameter(param);
+        }
+
+        private void record(final long duration) {
+            if (samples == null) {
+                samples = new long[MAX_SAMPLES];
+            }
+            if (nbCalls < MAX_SAMPLES) {
+                samples[(int) nbCalls] = duration;
+            } else {
+                final long index = (long) (random.nextDouble()*(nbCalls + 1));
+                if (index < MAX_SAMPLES) {
+                    samples[(int) index] = duration;
+                }
+            }
+            nbCalls++;
+            totalDuration += duration;
+            maxDuration = FastMath.max(maxDuration, duration);
+        }
+
+        private void reset() {
+            nbCalls = 0;
+            totalDuration = 0;
+            maxDuration = 0;
+        }
+
+        /**
+         * Method to compute a percentile of the call durations (estimated from the samples once there are
+         * more than {@value ForceModelProfiler#MAX_SAMPLES} calls).
+         * @param percentile percentile (between 0 and 100)
+         * @return duration (ns)
+         */
+        public long getPercentile(final double percentile) {
+            final int n = (int) FastMath.min(nbCalls, MAX_SAMPLES);
+            if (n == 0) {
+                return 0;
+            }
+            final long[] sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            return sorted[(int) FastMath.min(n - 1, FastMath.round(percentile/100.*(n - 1)))];
+        }
+
+        /**
+         * @return name of the model in the report
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return profiled force model
+         */
+        public ForceModel getModel() {
+            return model;
+        }
+
+        /**
+         * @return number of calls
+         */
+        public long getNbCalls() {
+            return nbCalls;
+        }
+
+        /**
+         * @return cumulated duration of the calls (ns)
+         */
+        public long getTotalDuration() {
+            return totalDuration;
+        }
+
+        /**
+         * @return duration of the longest call (ns), over all the calls
+         */
+        public long getMaxDuration() {
+            return maxDuration;
+        }
+
+    }
+
+    private final List<ProfiledForceModel> models = new ArrayList<ProfiledForceModel>();
+    private volatile boolean enabled = true;
+    private long propagationDuration = 0;
+
+    /**
+     * Method to wrap a force model.
+     * @param name  name of the model in the report
+     * @param model force model
+     * @return the profiled force model
+     */
+    public ProfiledForceModel wrap(final String name, final ForceModel model) {
+        final ProfiledForceModel profiled = new ProfiledForceModel(name, model, this);
+        models.add(profiled);
+        return profiled;
+    }
+
+    /**
+     * Method to add a profiled force model to a propagator (replaces propagator.addForceModel).
+     * @param propagator numerical propagator
+     * @param name       name of the model in the report
+     * @param model      force model
+     */
+    public void addForceModel(final NumericalPropagator propagator, final String name, final ForceModel model) {
+        propagator.addForceModel(wrap(name, model));
+    }
+
+    /**
+     * Method to add profiled force models to a propagator (named by their class).
+     * @param propagator numerical propagator
+     * @param forces     force models
+     */
+    public void addForceModels(final NumericalPropagator propagator, final ForceModel... forces) {
+        for (final ForceModel force : forces) {
+            addForceModel(propagator, force.getClass().getSimpleName(), force);
+        }
+    }
+
+    /**
+     * Method to propagate, resetting the statistics and measuring the propagation time.
+     * @param propagator numerical propagator (with the profiled force models)
+     * @param finalDate  final date
+     * @return final state
+     * @throws PatriusException
+     */
+    public SpacecraftState propagate(final NumericalPropagator propagator, final AbsoluteDate finalDate)
+            throws PatriusException {
+        for (final ProfiledForceModel model : models) {
+            model.reset();
+        }
+        final long start = System.nanoTime();
+        final SpacecraftState finalState = propagator.propagate(finalDate);
+        propagationDuration = System.nanoTime() - start;
+        return finalState;
+    }
+
+    /**
+     * @param enabled true to time the calls, false to only delegate them
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the profiled force models
+     */
+    public List<ProfiledForceModel> getModels() {
+        return models;
+    }
+
+    /**
+     * @return duration of the last propagation (ns)
+     */
+    public long getPropagationDuration() {
+        return propagationDuration;
+    }
+
+    /**
+     * @return a text report of the last propagation
+     */
+    public String getReport() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("Propagation : %.3f s%n", propagationDuration*1.e-9));
+        report.append(String.format("%-28s %10s %10s %9s %9s %9s %9s %7s%n", "Force model", "Calls", "Total (s)",
+                "Mean (ns)", "p50 (ns)", "p95 (ns)", "p99 (ns)", "Share"));
+        long total = 0;
+        for (final ProfiledForceModel model : models) {
+            total += model.getTotalDuration();
+            report.append(String.format("%-28s %10d %10.3f %9.0f %9d %9d %9d %6.1f%%%n", model.getName(),
+                    model.getNbCalls(), model.getTotalDuration()*1.e-9, mean(model), model.getPercentile(50.),
+                    model.getPercentile(95.), model.getPercentile(99.), share(model.getTotalDuration())));
+        }
+        report.append(String.format("%-28s %10s %10.3f %9s %9s %9s %9s %6.1f%%", "Other (integrator, frames ...)", "",
+                (propagationDuration - total)*1.e-9, "", "", "", "", share(propagationDuration - total)));
+        return report.toString();
+    }
+
+    /**
+     * Method to write the report of the last propagation in a CSV file.
+     * @param file CSV file
+     * @throws IOException
+     */
+    public void writeCsv(final File file) throws IOException {
+        final BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        try {
+            out.write("model;calls;total_ns;mean_ns;p50_ns;p95_ns;p99_ns;max_ns;share");
+            out.newLine();
+            for (final ProfiledForceModel model : models) {
+                out.write(String.format("%s;%d;%d;%.1f;%d;%d;%d;%d;%.4f", model.getName(), model.getNbCalls(),
+                        model.getTotalDuration(), mean(model), model.getPercentile(50.), model.getPercentile(95.),
+                        model.getPercentile(99.), model.getMaxDuration(), share(model.getTotalDuration())/100.));
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double mean(final ProfiledForceModel model) {
+        return model.getNbCalls() == 0 ? 0. : (double) model.getTotalDuration()/model.getNbCalls();
+    }
+
+    private double share(final long duration) {
+        return propagationDuration == 0 ? 0. : 100.*duration/propagationDuration;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 7000.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass, aero and radiative models using an Assembly
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        builder.addProperty(new AeroSphereProperty(new Parameter("", 10.), 2.0), "MAIN");
+        builder.addProperty(new RadiativeProperty(1., 0., 0.), "MAIN");
+        builder.addProperty(new RadiativeIRProperty(1., 0., 0.), "MAIN");
+        builder.addProperty(new RadiativeSphereProperty(10.), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final OneAxisEllipsoid EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final CelestialBody sun = new MeeusSun();
+
+        //SPECIFIC
+        final ForceModelProfiler profiler = new ForceModelProfiler();
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(2.), GCRF,
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        profiler.addForceModel(propagator, "DirectBodyAttraction 8x8", new DirectBodyAttraction(
+                EarthGravitationalModelFactory.getDroziner(GravityFieldNames.GRGS, "grim4s4_gr", 8, 8, true)));
+        profiler.addForceModel(propagator, "DragForce US76", new DragForce(new US76(EARTH), new AeroModel(assembly)));
+        profiler.addForceModel(propagator, "ThirdBodyAttraction Sun", new ThirdBodyAttraction(sun.getGravityModel()));
+        profiler.addForceModel(propagator, "RediffusedRadiationPressure", new RediffusedRadiationPressure(sun, GCRF, 1, 10,
+                new KnockeRiesModel(), new RediffusedRadiativeModel(true, true, 1., 1., assembly)));
+
+        // Propagating one period : a first run to warm up the JIT, then runs alternately without and
+        // with profiling (the fastest run of each mode is kept, the report is the one of the last run)
+        final AbsoluteDate finalDate = date.shiftedBy(iniOrbit.getKeplerianPeriod());
+        profiler.propagate(propagator, finalDate);
+        long profiled = Long.MAX_VALUE;
+        long unprofiled = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            profiler.setEnabled(false);
+            propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+            profiler.propagate(propagator, finalDate);
+            unprofiled = FastMath.min(unprofiled, profiler.getPropagationDuration());
+            profiler.setEnabled(true);
+            propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+            profiler.propagate(propagator, finalDate);
+            profiled = FastMath.min(profiled, profiler.getPropagationDuration());
+        }
+        System.out.println(profiler.getReport());
+        final File csv = File.createTempFile("forces", ".csv");
+        profiler.writeCsv(csv);
+        System.out.println("CSV report : "+csv);
+        //SPECIFIC
+
+        System.out.println();
+        System.out.println(String.format("Propagation with profiling %.3f s, without %.3f s (best of 3 after warm-up)",
+                profiled*1.e-9, unprofiled*1.e-9));
+
+    }
+
+}
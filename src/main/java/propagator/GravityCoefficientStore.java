@@ -0,0 +1,358 @@
+package propagator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.data.DataProvidersManager;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.gravity.DirectBodyAttraction;
+import fr.cnes.sirius.patrius.forces.gravity.DrozinerGravityModel;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory.GravityFieldNames;
+import fr.cnes.sirius.patrius.forces.gravity.GravityModel;
+import fr.cnes.sirius.patrius.forces.gravity.potential.GRGSFormatReader;
+import fr.cnes.sirius.patrius.forces.gravity.potential.GravityFieldFactory;
+import fr.cnes.sirius.patrius.forces.gravity.potential.PotentialCoefficientsProvider;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Immutable store of the (unnormalized) coefficients of a GRGS gravity field, loaded once per JVM and
+ * shared by all the threads.
+ * <p>
+ * {@link EarthGravitationalModelFactory#getDroziner} parses the coefficients file at each call : with
+ * the store the file is parsed once, or even not at all when a binary cache of the parsed
+ * coefficients is available. The gravity models built by {@link #getDroziner(int, int)} get their own
+ * truncated copy of the coefficients and can then be used by {@link DirectBodyAttraction} instances
+ * in any thread.
+ * </p>
+ */
+public final class GravityCoefficientStore {
+
+    /** Magic number of the binary cache ("GRVC"). */
+    private static final int MAGIC = 0x47525643;
+
+    /** Loaded stores, by file name. */
+    private static final ConcurrentMap<String, GravityCoefficientStore> STORES =
+            new ConcurrentHashMap<String, GravityCoefficientStore>();
+
+    /** Loading locks, by file name : different files are loaded concurrently. */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final String fileName;
+    private final int degree;
+    private final int order;
+    private final double mu;
+    private final double ae;
+    private final double[][] c;
+    private final double[][] s;
+
+    /**
+     * Constructor
+     * @param fileName name of the coefficients file
+     * @param mu       central attraction coefficient (m3/s2)
+     * @param ae       equatorial radius (m)
+     * @param c        unnormalized C coefficients
+     * @param s        unnormalized S coefficients
+     */
+    private GravityCoefficientStore(final String fileName, final double mu, final double ae, final double[][] c,
+            final double[][] s) {
+        this.fileName = fileName;
+        this.degree = c.length - 1;
+        this.order = c[c.length - 1].length - 1;
+        this.mu = mu;
+        this.ae = ae;
+        this.c = c;
+        this.s = s;
+    }
+
+    /**
+     * Method to get the store of a GRGS file, loading it at the first call only.
+     * <p>
+     * Once loaded, a store is returned without any lock; the loading of a given file is done by one
+     * thread at a time, the other files being loaded concurrently.
+     * </p>
+     * @param fileName  name of the GRGS coefficients file (as given to getDroziner)
+     * @param degree    maximum degree to load
+     * @param order     maximum order to load
+     * @param cacheFile binary cache of the parsed coefficients (read if it exists, written otherwise), may be null
+     * @return the store
+     * @throws PatriusException
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static GravityCoefficientStore getInstance(final String fileName, final int degree,
+            final int order, final File cacheFile) throws PatriusException, IOException, ParseException {
+
+        GravityCoefficientStore store = STORES.get(fileName);
+        if (store != null && store.degree >= degree && store.order >= order) {
+            return store;
+        }
+
+        LOCKS.putIfAbsent(fileName, new Object());
+        synchronized (LOCKS.get(fileName)) {
+
+            // The store may have been loaded by another thread in the meantime
+            store = STORES.get(fileName);
+            if (store != null && store.degree >= degree && store.order >= order) {
+                return store;
+            }
+
+            if (cacheFile != null && cacheFile.exists()) {
+                store = read(cacheFile);
+            }
+            if (store == null || !store.fileName.equals(fileName) || store.degree < degree || store.order < order) {
+                store = parse(fileName, degree, order);
+                if (cacheFile != null) {
+                    store.write(cacheFile);
+                }
+            }
+
+            STORES.put(fileName, store);
+            return store;
+
+        }
+
+    }
+
+    /**
+     * Method to parse a GRGS coefficients file.
+     * <p>
+     * The reader is fed directly by the data providers : it is not registered in
+     * {@link GravityFieldFactory}, whose readers list would otherwise grow at each parsing.
+     * </p>
+     * @param fileName name of the file
+     * @param degree   maximum degree
+     * @param order    maximum order
+     * @return the store
+     * @throws PatriusException
+     * @throws IOException
+     * @throws ParseException
+     */
+    private static GravityCoefficientStore parse(final String fileName, final int degree, final int order)
+            throws PatriusException, IOException, ParseException {
+        final GRGSFormatReader reader = new GRGSFormatReader(fileName, true);
+        if (!DataProvidersManager.getInstance().feed(reader.getSupportedNames(), reader) || reader.stillAcceptsData()) {
+            throw new IOException("No GRGS coefficients loaded from " + fileName);
+        }
+        final PotentialCoefficientsProvider provider = reader;
+        return new GravityCoefficientStore(fileName, provider.getMu(), provider.getAe(),
+                provider.getC(degree, order, false), provider.getS(degree, order, false));
+    }
+
+    /**
+     * Method to read a binary cache.
+     * @param cacheFile binary cache
+     * @return the store, or null if the file is not a valid cache
+     * @throws IOException
+     */
+    private static GravityCoefficientStore read(final File cacheFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            final String name = in.readUTF();
+            final int n = in.readInt();
+            final int m = in.readInt();
+            final double mu = in.readDouble();
+            final double ae = in.readDouble();
+            final double[][] c = new double[n + 1][];
+            final double[][] s = new double[n + 1][];
+            for (int i = 0; i <= n; i++) {
+                c[i] = new double[FastMath.min(i, m) + 1];
+                s[i] = new double[c[i].length];
+                for (int j = 0; j < c[i].length; j++) {
+                    c[i][j] = in.readDouble();
+                    s[i][j] = in.readDouble();
+                }
+            }
+            return new GravityCoefficientStore(name, mu, ae, c, s);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method to write the binary cache (temporary file then atomic replacement).
+     * @param cacheFile binary cache
+     * @throws IOException
+     */
+    private void write(final File cacheFile) throws IOException {
+        final File tmp = new File(cacheFile.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(fileName);
+            out.writeInt(degree);
+            out.writeInt(order);
+            out.writeDouble(mu);
+            out.writeDouble(ae);
+            for (int i = 0; i <= degree; i++) {
+                for (int j = 0; j <= FastMath.min(i, order); j++) {
+                    out.writeDouble(c[i][j]);
+                    out.writeDouble(s[i][j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method to get truncated copies of the C coefficients.
+     * @param n degree
+     * @param m order
+     * @return unnormalized C coefficients up to degree n and order m
+     */
+    public double[][] getC(final int n, final int m) {
+        return truncate(c, n, m);
+    }
+
+    /**
+     * Method to get truncated copies of the S coefficients.
+     * @param n degree
+     * @param m order
+     * @return unnormalized S coefficients up to degree n and order m
+     */
+    public double[][] getS(final int n, final int m) {
+        return truncate(s, n, m);
+    }
+
+    private double[][] truncate(final double[][] coefficients, final int n, final int m) {
+        if (n > degree || m > order) {
+            throw new IllegalArgumentException("Degree/order " + n + "x" + m + " not loaded (" + degree + "x" + order + ")");
+        }
+        final double[][] truncated = new double[n + 1][];
+        for (int i = 0; i <= n; i++) {
+            truncated[i] = new double[FastMath.min(i, m) + 1];
+            System.arraycopy(coefficients[i], 0, truncated[i], 0, truncated[i].length);
+        }
+        return truncated;
+    }
+
+    /**
+     * Method to build a Droziner gravity model (same as EarthGravitationalModelFactory.getDroziner).
+     * @param n degree
+     * @param m order
+     * @return gravity model expressed in ITRF
+     * @throws PatriusException
+     */
+    public GravityModel getDroziner(final int n, final int m) throws PatriusException {
+        return new DrozinerGravityModel(FramesFactory.getITRF(), ae, mu, getC(n, m), getS(n, m));
+    }
+
+    /**
+     * @return maximum loaded degree
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+    /**
+     * @return maximum loaded order
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return central attraction coefficient (m3/s2)
+     */
+    public double getMu() {
+        return mu;
+    }
+
+    /**
+     * @return equatorial radius (m)
+     */
+    public double getAe() {
+        return ae;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException,
+            URISyntaxException, InterruptedException, ExecutionException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        final int nbThreads = Runtime.getRuntime().availableProcessors();
+        final int nbModels = 64;
+        final File cacheFile = File.createTempFile("grim4s4_gr", ".bin");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+
+        //SPECIFIC
+        // Gravity field (60x60) built for each model as in NumericalPropagationWithPotential
+        // (sequentially : the factory readers are not meant to be used concurrently)
+        long start = System.nanoTime();
+        for (int i = 0; i < nbModels; i++) {
+            new DirectBodyAttraction(EarthGravitationalModelFactory.getDroziner(GravityFieldNames.GRGS, "grim4s4_gr",
+                    60, 60, true));
+        }
+        final double parsedDuration = (System.nanoTime() - start)*1.e-9;
+
+        // First load of the store (parsing, cache written)
+        start = System.nanoTime();
+        GravityCoefficientStore.getInstance("grim4s4_gr", 60, 60, cacheFile);
+        final double firstLoadDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Load from the binary cache (as in a new JVM)
+        start = System.nanoTime();
+        final GravityCoefficientStore cached = read(cacheFile);
+        final double cacheLoadDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Gravity field built by each worker thread from the shared store
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        start = System.nanoTime();
+        final List<Future<ForceModel>> shared = new ArrayList<Future<ForceModel>>();
+        for (int i = 0; i < nbModels; i++) {
+            shared.add(executor.submit(new Callable<ForceModel>() {
+                public ForceModel call() throws Exception {
+                    return new DirectBodyAttraction(GravityCoefficientStore.getInstance("grim4s4_gr", 60, 60, cacheFile)
+                            .getDroziner(60, 60));
+                }
+            }));
+        }
+        for (final Future<ForceModel> future : shared) {
+            future.get();
+        }
+        final double sharedDuration = (System.nanoTime() - start)*1.e-9;
+        executor.shutdown();
+        //SPECIFIC
+
+        System.out.println(String.format("%d models parsed from the file : %.3f s", nbModels, parsedDuration));
+        System.out.println(String.format("First load of the store : %.3f s (binary cache : %d bytes)", firstLoadDuration,
+                cacheFile.length()));
+        System.out.println(String.format("Load from the binary cache : %.3f s (%dx%d, mu = %.6e m3/s2)", cacheLoadDuration,
+                cached.getDegree(), cached.getOrder(), cached.getMu()));
+        System.out.println(String.format("%d models built from the shared store : %.3f s", nbModels, sharedDuration));
+
+    }
+
+}
@@ -0,0 +1,392 @@
+package propagator;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.bodies.EllipsoidBodyShape;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.DormandPrince853Integrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Calibration of the integrator for a given scenario and a target position error.
+ * <p>
+ * A reference propagation is computed with a very tight Dormand-Prince 8(5,3) integrator, then every
+ * candidate (Runge-Kutta 4 fixed steps, Dormand-Prince 8(5,3) position tolerances, for each orbit
+ * type) propagates the same scenario. The cheapest candidate, in number of force model evaluations,
+ * whose maximum position error is below the target is selected.
+ * </p>
+ * <p>
+ * The integration error grows with the propagation duration : the calibration duration must be
+ * representative of the real propagations (or the target reduced accordingly).
+ * </p>
+ */
+public class IntegratorAutoTuner {
+
+    /** Default Runge-Kutta 4 candidate steps (s). */
+    public static final double[] DEFAULT_STEPS = { 1., 2., 5., 10., 15., 20., 30., 60., 120. };
+
+    /** Default Dormand-Prince 8(5,3) candidate position tolerances (m). */
+    public static final double[] DEFAULT_TOLERANCES = { 10., 1., 1.e-1, 1.e-2, 1.e-3, 1.e-4 };
+
+    /** Default candidate orbit types. */
+    public static final OrbitType[] DEFAULT_ORBIT_TYPES = { OrbitType.CARTESIAN, OrbitType.EQUINOCTIAL };
+
+    /** Reference position tolerance (m). */
+    private static final double REFERENCE_TOLERANCE = 1.e-6;
+
+    /** Minimum step of the variable step integrators (s). */
+    private static final double MIN_STEP = 0.01;
+
+    /** Maximum step of the variable step integrators (s). */
+    private static final double MAX_STEP = 600.;
+
+    /**
+     * Integrator configuration : kind of integrator, step or tolerance and orbit type. It can be kept
+     * and reused to build the propagators of the real runs.
+     */
+    public static final class IntegratorConfiguration implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean fixedStep;
+        private final double value;
+        private final OrbitType orbitType;
+        private long evaluations = -1;
+        private double error = Double.NaN;
+
+        /**
+         * Constructor
+         * @param fixedStep true for Runge-Kutta 4, false for Dormand-Prince 8(5,3)
+         * @param value     step (s) for Runge-Kutta 4, position tolerance (m) for Dormand-Prince 8(5,3)
+         * @param orbitType orbit type used for integration
+         */
+        public IntegratorConfiguration(final boolean fixedStep, final double value, final OrbitType orbitType) {
+            this.fixedStep = fixedStep;
+            this.value = value;
+            this.orbitType = orbitType;
+        }
+
+        /**
+         * Method to build the integrator.
+         * @param orbit initial orbit (needed for the tolerances)
+         * @return integrator
+         * @throws PatriusException
+         */
+        public FirstOrderIntegrator buildIntegrator(final Orbit orbit) throws PatriusException {
+            if (fixedStep) {
+                return new ClassicalRungeKuttaIntegrator(value);
+            }
+            final double[][] tolerances = NumericalPropagator.tolerances(value, orbit, orbitType);
+            return new DormandPrince853Integrator(MIN_STEP, MAX_STEP, tolerances[0], tolerances[1]);
+        }
+
+        /**
+         * Method to build a propagator using this configuration.
+         * @param frame propagation frame
+         * @param orbit initial orbit (needed for the tolerances)
+         * @return propagator (without initial state, nor force models)
+         * @throws PatriusException
+         */
+        public NumericalPropagator buildPropagator(final Frame frame, final Orbit orbit) throws PatriusException {
+            return new NumericalPropagator(buildIntegrator(orbit), frame, orbitType, PositionAngle.TRUE);
+        }
+
+        /**
+         * @return true for Runge-Kutta 4, false for Dormand-Prince 8(5,3)
+         */
+        public boolean isFixedStep() {
+            return fixedStep;
+        }
+
+        /**
+         * @return step (s) or position tolerance (m)
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return orbit type used for integration
+         */
+        public OrbitType getOrbitType() {
+            return orbitType;
+        }
+
+        /**
+         * @return number of force model evaluations during the calibration (-1 if not calibrated)
+         */
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        /**
+         * @return maximum position error during the calibration (m)
+         */
+        public double getError() {
+            return error;
+        }
+
+        public String toString() {
+            return String.format("%-6s %-8s %-12s", fixedStep ? "RK4" : "DOP853",
+                    fixedStep ? value + " s" : value + " m", orbitType);
+        }
+
+    }
+
+    private final SpacecraftState iniState;
+    private final MassProvider massProvider;
+    private final List<ForceModel> forces;
+    private final double duration;
+    private final double sampleStep;
+    private final List<IntegratorConfiguration> candidates = new ArrayList<IntegratorConfiguration>();
+
+    /**
+     * Constructor
+     * @param iniState     initial state of the scenario
+     * @param massProvider mass model of the scenario (null if there is no mass equation)
+     * @param forces       force models of the scenario
+     * @param duration     calibration duration (s)
+     * @param sampleStep   step of the position comparisons (s)
+     */
+    public IntegratorAutoTuner(final SpacecraftState iniState, final MassProvider massProvider,
+            final List<ForceModel> forces, final double duration, final double sampleStep) {
+        this.iniState = iniState;
+        this.massProvider = massProvider;
+        this.forces = forces;
+        this.duration = duration;
+        this.sampleStep = sampleStep;
+    }
+
+    /**
+     * Method to get the cheapest configuration meeting the target.
+     * @param targetError maximum position error (m)
+     * @return the selected configuration
+     * @throws PatriusException
+     */
+    public IntegratorConfiguration tune(final double targetError) throws PatriusException {
+        return tune(targetError, DEFAULT_STEPS, DEFAULT_TOLERANCES, DEFAULT_ORBIT_TYPES);
+    }
+
+    /**
+     * Method to get the cheapest configuration meeting the target.
+     * @param targetError maximum position error (m)
+     * @param steps       Runge-Kutta 4 candidate steps (s)
+     * @param tolerances  Dormand-Prince 8(5,3) candidate position tolerances (m)
+     * @param orbitTypes  candidate orbit types
+     * @return the selected configuration
+     * @throws PatriusException
+     */
+    public IntegratorConfiguration tune(final double targetError, final double[] steps, final double[] tolerances,
+            final OrbitType[] orbitTypes) throws PatriusException {
+
+        final List<Vector3D> reference = run(new IntegratorConfiguration(false, REFERENCE_TOLERANCE, OrbitType.CARTESIAN));
+
+        candidates.clear();
+        IntegratorConfiguration best = null;
+        for (final OrbitType orbitType : orbitTypes) {
+            for (final double step : steps) {
+                best = evaluate(new IntegratorConfiguration(true, step, orbitType), reference, targetError, best);
+            }
+            for (final double tolerance : tolerances) {
+                best = evaluate(new IntegratorConfiguration(false, tolerance, orbitType), reference, targetError, best);
+            }
+        }
+
+        if (best == null) {
+            throw new IllegalStateException("No candidate integrator meets the target error of " + targetError + " m");
+        }
+        return best;
+
+    }
+
+    /**
+     * @return all the configurations evaluated by the last call to tune
+     */
+    public List<IntegratorConfiguration> getCandidates() {
+        return Collections.unmodifiableList(candidates);
+    }
+
+    /**
+     * Method to evaluate one candidate.
+     * @param candidate   candidate configuration
+     * @param reference   reference positions
+     * @param targetError maximum position error (m)
+     * @param best        current best configuration (may be null)
+     * @return the new best configuration
+     * @throws PatriusException
+     */
+    private IntegratorConfiguration evaluate(final IntegratorConfiguration candidate, final List<Vector3D> reference,
+            final double targetError, final IntegratorConfiguration best) throws PatriusException {
+
+        final List<Vector3D> positions = run(candidate);
+        double error = 0.;
+        for (int i = 0; i < FastMath.min(positions.size(), reference.size()); i++) {
+            error = FastMath.max(error, positions.get(i).distance(reference.get(i)));
+        }
+        candidate.error = error;
+        candidates.add(candidate);
+
+        if (error <= targetError && (best == null || candidate.evaluations < best.evaluations)) {
+            return candidate;
+        }
+        return best;
+
+    }
+
+    /**
+     * Method to propagate the scenario with a configuration.
+     * @param configuration integrator configuration
+     * @return positions sampled every sample step
+     * @throws PatriusException
+     */
+    private List<Vector3D> run(final IntegratorConfiguration configuration) throws PatriusException {
+
+        final FirstOrderIntegrator integrator = configuration.buildIntegrator(iniState.getOrbit());
+        final NumericalPropagator propagator = new NumericalPropagator(integrator, iniState.getFrame(),
+                configuration.getOrbitType(), PositionAngle.TRUE);
+        propagator.resetInitialState(iniState);
+        if (massProvider != null) {
+            propagator.setMassProviderEquation(massProvider);
+        }
+        for (final ForceModel force : forces) {
+            propagator.addForceModel(force);
+        }
+
+        final List<Vector3D> positions = new ArrayList<Vector3D>();
+        propagator.setMasterMode(sampleStep, new PatriusFixedStepHandler() {
+            private static final long serialVersionUID = 1L;
+            public void init(final SpacecraftState s0, final AbsoluteDate t) {
+                // Nothing to do ...
+            }
+            public void handleStep(final SpacecraftState currentState, final boolean isLast) {
+                positions.add(currentState.getPVCoordinates().getPosition());
+            }
+        });
+        propagator.propagate(iniState.getDate().shiftedBy(duration));
+
+        configuration.evaluations = integrator.getEvaluations();
+        return positions;
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithDrag)
+        final double sma = 6600.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass model using an Assembly
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double cd = 2.0;
+        final double sref = 10.;
+        builder.addProperty(new AeroSphereProperty(new Parameter("", sref), cd), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        // We create a spacecratftstate
+        final SpacecraftState iniState = new SpacecraftState(iniOrbit, mm);
+
+        // Atmospheric forces using US76 model
+        final EllipsoidBodyShape EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final List<ForceModel> forces = new ArrayList<ForceModel>();
+        forces.add(new DragForce(new US76(EARTH), new AeroModel(assembly)));
+
+        //SPECIFIC
+        // Calibration over 3 periods, for a 1 m target
+        final double targetError = 1.;
+        final IntegratorAutoTuner tuner = new IntegratorAutoTuner(iniState, mm, forces,
+                3.*iniOrbit.getKeplerianPeriod(), 60.);
+        final IntegratorConfiguration selected = tuner.tune(targetError);
+        //SPECIFIC
+
+        long rk2Evaluations = 0;
+        System.out.println("Candidate                      evaluations    max error (m)");
+        for (final IntegratorConfiguration candidate : tuner.getCandidates()) {
+            System.out.println(String.format("%s %12d %16.3e", candidate, candidate.getEvaluations(), candidate.getError()));
+            if (candidate.isFixedStep() && candidate.getValue() == 2. && candidate.getOrbitType() == OrbitType.CARTESIAN) {
+                rk2Evaluations = candidate.getEvaluations();
+            }
+        }
+        System.out.println();
+        System.out.println("Selected configuration for "+targetError+" m : "+selected);
+        System.out.println(String.format("Work compared to RK4 2 s (CARTESIAN) : %.2f times less",
+                (double) rk2Evaluations/selected.getEvaluations()));
+
+        // The configuration is then used for the real propagation
+        final NumericalPropagator propagator = selected.buildPropagator(GCRF, iniOrbit);
+        propagator.resetInitialState(iniState);
+        propagator.setMassProviderEquation(mm);
+        for (final ForceModel force : forces) {
+            propagator.addForceModel(force);
+        }
+        final SpacecraftState finalState = propagator.propagate(date.shiftedBy(Constants.JULIAN_DAY));
+        System.out.println("Final semi major axis after 1 day = "+finalState.getA()/1000.+" km");
+
+    }
+
+}
@@ -0,0 +1,437 @@
+package propagator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.forces.atmospheres.Atmosphere;
+import fr.cnes.sirius.patrius.forces.atmospheres.MSISE2000;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.SolarActivityDataFactory;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.SolarActivityDataProvider;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.specialized.ClassicalMSISE2000SolarData;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PatriusMessages;
+
+/**
+ * Solar activity data read from a binary, memory mapped and time indexed file.
+ * <p>
+ * {@link #convert} samples a solar activity provider (typically the one read from the standard files
+ * by {@link SolarActivityDataFactory}) on regular grids and writes the file once. File layout (little
+ * endian) :
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes : magic number, version, then for the F10.7 flux and for
+ * the Ap/Kp indices the first date (s from J2000), the step (s) and the number of values,</li>
+ * <li>the F10.7 values, then the (Ap, Kp) pairs, as doubles.</li>
+ * </ul>
+ * A lookup is a direct index computation in the mapped file : no parsing, no lock. The file is read only
+ * and can be mapped by several threads and several JVMs (the pages are shared by the system).
+ * </p>
+ * <p>
+ * The flux is linearly interpolated between two values, the Ap and Kp indices are constant on each
+ * interval (as in the standard files). Dates outside of [{@link #getMinDate()}, {@link #getMaxDate()}]
+ * are rejected with a {@link PatriusException}.
+ * </p>
+ */
+public class MappedSolarActivityProvider implements SolarActivityDataProvider {
+
+    /** Magic number ("SOLA"). */
+    public static final int MAGIC = 0x534f4c41;
+
+    /** File format version. */
+    public static final int VERSION = 1;
+
+    /** Header size (bytes). */
+    public static final int HEADER_SIZE = 64;
+
+    private static final long serialVersionUID = 1L;
+
+    /** Binary file. */
+    private final File file;
+
+    private transient MappedByteBuffer buffer;
+    private double fluxStart;
+    private double fluxStep;
+    private int nbFlux;
+    private double apKpStart;
+    private double apKpStep;
+    private int nbApKp;
+
+    /**
+     * Constructor
+     * @param file binary file written by {@link #convert}
+     * @throws IOException if the file cannot be read or is not a solar activity file
+     */
+    public MappedSolarActivityProvider(final File file) throws IOException {
+        this.file = file;
+        map();
+    }
+
+    /**
+     * Method to map the file and read its header.
+     * @throws IOException
+     */
+    private void map() throws IOException {
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a solar activity file");
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported solar activity file version " + version);
+        }
+        fluxStart = buffer.getDouble(8);
+        fluxStep = buffer.getDouble(16);
+        nbFlux = buffer.getInt(24);
+        apKpStart = buffer.getDouble(28);
+        apKpStep = buffer.getDouble(36);
+        nbApKp = buffer.getInt(44);
+
+    }
+
+    /**
+     * Method to map the file again after deserialization.
+     * @return this provider, mapped
+     */
+    private Object readResolve() {
+        try {
+            map();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Method to convert solar activity data into a binary file.
+     * @param provider solar activity data (read from the standard files)
+     * @param file     binary file (written in a temporary file, then atomically renamed ; the temporary
+     *                 file is removed if the conversion fails)
+     * @throws PatriusException
+     * @throws IOException
+     */
+    public static void convert(final SolarActivityDataProvider provider, final File file)
+            throws PatriusException, IOException {
+
+        final double fluxStart = provider.getFluxMinDate().durationFrom(AbsoluteDate.J2000_EPOCH);
+        final double fluxStep = provider.getStepF107();
+        final int nbFlux = (int) FastMath.floor(provider.getFluxMaxDate().durationFrom(provider.getFluxMinDate())/fluxStep) + 1;
+        final double apKpStart = provider.getApKpMinDate().durationFrom(AbsoluteDate.J2000_EPOCH);
+        final double apKpStep = provider.getStepApKp();
+        final int nbApKp = (int) FastMath.floor(provider.getApKpMaxDate().durationFrom(provider.getApKpMinDate())/apKpStep) + 1;
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            write(provider, tmp, fluxStart, fluxStep, nbFlux, apKpStart, apKpStep, nbApKp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // Only left if the conversion failed
+            Files.deleteIfExists(tmp.toPath());
+        }
+
+    }
+
+    /**
+     * Method to write the binary file.
+     * @param provider  solar activity data
+     * @param tmp       written file
+     * @param fluxStart first date of the flux values (s from J2000)
+     * @param fluxStep  step of the flux values (s)
+     * @param nbFlux    number of flux values
+     * @param apKpStart first date of the Ap/Kp values (s from J2000)
+     * @param apKpStep  step of the Ap/Kp values (s)
+     * @param nbApKp    number of Ap/Kp values
+     * @throws PatriusException
+     * @throws IOException
+     */
+    private static void write(final SolarActivityDataProvider provider, final File tmp, final double fluxStart,
+            final double fluxStep, final int nbFlux, final double apKpStart, final double apKpStep, final int nbApKp)
+            throws PatriusException, IOException {
+
+        final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            final long size = HEADER_SIZE + 8L*nbFlux + 16L*nbApKp;
+            raf.setLength(size);
+            final MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putDouble(fluxStart);
+            out.putDouble(fluxStep);
+            out.putInt(nbFlux);
+            out.putDouble(apKpStart);
+            out.putDouble(apKpStep);
+            out.putInt(nbApKp);
+
+            out.position(HEADER_SIZE);
+            for (int i = 0; i < nbFlux; i++) {
+                out.putDouble(provider.getInstantFluxValue(AbsoluteDate.J2000_EPOCH.shiftedBy(fluxStart + i*fluxStep)));
+            }
+            for (int i = 0; i < nbApKp; i++) {
+                final AbsoluteDate date = AbsoluteDate.J2000_EPOCH.shiftedBy(apKpStart + i*apKpStep);
+                out.putDouble(provider.getAp(date));
+                out.putDouble(provider.getKp(date));
+            }
+            out.force();
+        } finally {
+            raf.close();
+        }
+
+    }
+
+    public double getInstantFluxValue(final AbsoluteDate date) throws PatriusException {
+        checkDate(date);
+        final double x = (date.durationFrom(AbsoluteDate.J2000_EPOCH) - fluxStart)/fluxStep;
+        final int i = (int) FastMath.max(0, FastMath.min(nbFlux - 2, FastMath.floor(x)));
+        final double w = FastMath.max(0., FastMath.min(1., x - i));
+        return (1. - w)*flux(i) + w*flux(i + 1);
+    }
+
+    public SortedMap<AbsoluteDate, Double> getInstantFluxValues(final AbsoluteDate date1, final AbsoluteDate date2)
+            throws PatriusException {
+        checkDate(date1);
+        checkDate(date2);
+        final SortedMap<AbsoluteDate, Double> values = new TreeMap<AbsoluteDate, Double>();
+        final int first = fluxIndex(date1);
+        final int last = fluxIndex(date2);
+        for (int i = first; i <= last; i++) {
+            values.put(AbsoluteDate.J2000_EPOCH.shiftedBy(fluxStart + i*fluxStep), flux(i));
+        }
+        return values;
+    }
+
+    public double getAp(final AbsoluteDate date) throws PatriusException {
+        checkDate(date);
+        return buffer.getDouble(HEADER_SIZE + 8*nbFlux + 16*apKpIndex(date));
+    }
+
+    public double getKp(final AbsoluteDate date) throws PatriusException {
+        checkDate(date);
+        return buffer.getDouble(HEADER_SIZE + 8*nbFlux + 16*apKpIndex(date) + 8);
+    }
+
+    public SortedMap<AbsoluteDate, Double[]> getApKpValues(final AbsoluteDate date1, final AbsoluteDate date2)
+            throws PatriusException {
+        checkDate(date1);
+        checkDate(date2);
+        final SortedMap<AbsoluteDate, Double[]> values = new TreeMap<AbsoluteDate, Double[]>();
+        final int first = apKpIndex(date1);
+        final int last = apKpIndex(date2);
+        for (int i = first; i <= last; i++) {
+            final int position = HEADER_SIZE + 8*nbFlux + 16*i;
+            values.put(AbsoluteDate.J2000_EPOCH.shiftedBy(apKpStart + i*apKpStep),
+                    new Double[] { buffer.getDouble(position), buffer.getDouble(position + 8) });
+        }
+        return values;
+    }
+
+    public AbsoluteDate getMinDate() {
+        final AbsoluteDate flux = getFluxMinDate();
+        final AbsoluteDate apKp = getApKpMinDate();
+        return flux.durationFrom(apKp) > 0. ? flux : apKp;
+    }
+
+    public AbsoluteDate getMaxDate() {
+        final AbsoluteDate flux = getFluxMaxDate();
+        final AbsoluteDate apKp = getApKpMaxDate();
+        return flux.durationFrom(apKp) < 0. ? flux : apKp;
+    }
+
+    public AbsoluteDate getFluxMinDate() {
+        return AbsoluteDate.J2000_EPOCH.shiftedBy(fluxStart);
+    }
+
+    public AbsoluteDate getFluxMaxDate() {
+        return AbsoluteDate.J2000_EPOCH.shiftedBy(fluxStart + (nbFlux - 1)*fluxStep);
+    }
+
+    public AbsoluteDate getApKpMinDate() {
+        return AbsoluteDate.J2000_EPOCH.shiftedBy(apKpStart);
+    }
+
+    public AbsoluteDate getApKpMaxDate() {
+        return AbsoluteDate.J2000_EPOCH.shiftedBy(apKpStart + (nbApKp - 1)*apKpStep);
+    }
+
+    public double getStepApKp() {
+        return apKpStep;
+    }
+
+    public double getStepF107() {
+        return fluxStep;
+    }
+
+    /**
+     * Method to check that a date is inside of the converted span.
+     * @param date date
+     * @throws PatriusException if the date is outside of [{@link #getMinDate()}, {@link #getMaxDate()}]
+     */
+    private void checkDate(final AbsoluteDate date) throws PatriusException {
+        final AbsoluteDate min = getMinDate();
+        final AbsoluteDate max = getMaxDate();
+        if (date.durationFrom(min) < 0. || date.durationFrom(max) > 0.) {
+            throw new PatriusException(PatriusMessages.SIMPLE_MESSAGE, "No solar activity data at " + date
+                    + " (data available between " + min + " and " + max + ")");
+        }
+    }
+
+    private double flux(final int i) {
+        return buffer.getDouble(HEADER_SIZE + 8*i);
+    }
+
+    private int fluxIndex(final AbsoluteDate date) {
+        final double x = (date.durationFrom(AbsoluteDate.J2000_EPOCH) - fluxStart)/fluxStep;
+        return (int) FastMath.max(0, FastMath.min(nbFlux - 1, FastMath.floor(x)));
+    }
+
+    private int apKpIndex(final AbsoluteDate date) {
+        final double x = (date.durationFrom(AbsoluteDate.J2000_EPOCH) - apKpStart)/apKpStep;
+        return (int) FastMath.max(0, FastMath.min(nbApKp - 1, FastMath.floor(x)));
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException,
+            URISyntaxException, InterruptedException, ExecutionException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        //SPECIFIC
+        // Solar activity read from the standard files of the dataset
+        long start = System.nanoTime();
+        final SolarActivityDataProvider source = SolarActivityDataFactory.getSolarActivityDataProvider();
+        final double parseDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Conversion (once) and mapping
+        final File file = File.createTempFile("solarActivity", ".bin");
+        file.deleteOnExit();
+        start = System.nanoTime();
+        convert(source, file);
+        final double convertDuration = (System.nanoTime() - start)*1.e-9;
+        start = System.nanoTime();
+        final MappedSolarActivityProvider mapped = new MappedSolarActivityProvider(file);
+        final double mapDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Check and cost of the lookups on random dates
+        final int nbLookups = 1000000;
+        final Random random = new Random(42);
+        final double span = mapped.getMaxDate().durationFrom(mapped.getMinDate());
+        final AbsoluteDate[] dates = new AbsoluteDate[nbLookups];
+        for (int i = 0; i < nbLookups; i++) {
+            dates[i] = mapped.getMinDate().shiftedBy(random.nextDouble()*span);
+        }
+        double maxFluxError = 0.;
+        double maxApError = 0.;
+        for (int i = 0; i < nbLookups; i += 100) {
+            maxFluxError = FastMath.max(maxFluxError, FastMath.abs(mapped.getInstantFluxValue(dates[i]) - source.getInstantFluxValue(dates[i])));
+            maxApError = FastMath.max(maxApError, FastMath.abs(mapped.getAp(dates[i]) - source.getAp(dates[i])));
+        }
+
+        final double sourceDuration = lookups(source, dates, 1);
+        final double mappedDuration = lookups(mapped, dates, 1);
+        final int nbThreads = Runtime.getRuntime().availableProcessors();
+        final double sourceParallel = lookups(source, dates, nbThreads);
+        final double mappedParallel = lookups(mapped, dates, nbThreads);
+
+        // MSISE2000 density with the real solar activity (standard files and mapped file)
+        final OneAxisEllipsoid EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final CelestialBody sun = CelestialBodyFactory.getSun();
+        final Atmosphere sourceAtmosphere = new MSISE2000(new ClassicalMSISE2000SolarData(source), EARTH, sun);
+        final Atmosphere mappedAtmosphere = new MSISE2000(new ClassicalMSISE2000SolarData(mapped), EARTH, sun);
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TimeScalesFactory.getUTC());
+        final Vector3D position = new Vector3D(6600.e+3, 0., 0.);
+        final double sourceDensity = sourceAtmosphere.getDensity(date, position, FramesFactory.getGCRF());
+        final double mappedDensity = mappedAtmosphere.getDensity(date, position, FramesFactory.getGCRF());
+        //SPECIFIC
+
+        System.out.println(String.format("Standard files parsed in %.3f s, converted in %.3f s (%d bytes), mapped in %.6f s",
+                parseDuration, convertDuration, file.length(), mapDuration));
+        System.out.println("Data from "+mapped.getMinDate()+" to "+mapped.getMaxDate());
+        System.out.println(String.format("Max differences with the standard files : F10.7 %.3e, Ap %.3e", maxFluxError, maxApError));
+        System.out.println(String.format("%d lookups, 1 thread : standard %.3f s, mapped %.3f s", nbLookups, sourceDuration,
+                mappedDuration));
+        System.out.println(String.format("%d lookups, %d threads : standard %.3f s, mapped %.3f s", nbLookups, nbThreads,
+                sourceParallel, mappedParallel));
+        System.out.println(String.format("MSISE2000 density at 222 km : standard %.6e kg/m3, mapped %.6e kg/m3",
+                sourceDensity, mappedDensity));
+
+    }
+
+    /**
+     * Method to time the flux and Ap lookups, split between threads.
+     * @param provider  solar activity data
+     * @param dates     dates of the lookups
+     * @param nbThreads number of threads
+     * @return duration (s)
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private static double lookups(final SolarActivityDataProvider provider, final AbsoluteDate[] dates,
+            final int nbThreads) throws InterruptedException, ExecutionException {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        final long start = System.nanoTime();
+        final List<Future<Double>> futures = new ArrayList<Future<Double>>();
+        for (int t = 0; t < nbThreads; t++) {
+            final int first = t*dates.length/nbThreads;
+            final int last = (t + 1)*dates.length/nbThreads;
+            futures.add(executor.submit(new Callable<Double>() {
+                public Double call() throws PatriusException {
+                    double sum = 0.;
+                    for (int i = first; i < last; i++) {
+                        sum += provider.getInstantFluxValue(dates[i]) + provider.getAp(dates[i]);
+                    }
+                    return sum;
+                }
+            }));
+        }
+        for (final Future<Double> future : futures) {
+            future.get();
+        }
+        final double duration = (System.nanoTime() - start)*1.e-9;
+        executor.shutdown();
+        return duration;
+
+    }
+
+}
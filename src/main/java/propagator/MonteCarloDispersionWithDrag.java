@@ -0,0 +1,363 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.bodies.EllipsoidBodyShape;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.events.detectors.AltitudeDetector;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.atmospheres.Atmosphere;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+public class MonteCarloDispersionWithDrag {
+
+    /** Altitude under which the spacecraft is considered as reentered. */
+    private static final double REENTRY_ALTITUDE = 120.e+3;
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException,
+            InterruptedException, ExecutionException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        // It is done once, before any worker thread is started
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Nominal values (same as the NumericalPropagationWithDrag tutorial)
+        final double sma = 6600.e+3;
+        final double exc = 0.;
+        final double nominalPer = sma*(1.-exc);
+        final double nominalApo = sma*(1.+exc);
+        final double nominalCd = 2.0;
+        final double nominalSref = 10.;
+        final double nominalDryMass = 100.;
+
+        //SPECIFIC
+        // Dispersions (1 sigma, gaussian law)
+        final double sigmaCd = 0.1;
+        final double sigmaSref = 0.5;
+        final double sigmaDryMass = 5.;
+        final double sigmaRadius = 2.e+3;
+
+        // Number of dispersed cases and propagation duration
+        final int nbCases = 200;
+        final double duration = Constants.JULIAN_DAY;
+        final AbsoluteDate finalDate = date.shiftedBy(duration);
+
+        // Dispersed cases are drawn once, in the main thread, with a fixed seed
+        // so that a run can be replayed whatever the number of threads
+        final Random random = new Random(123456789L);
+        final DispersedCase[] cases = new DispersedCase[nbCases];
+        for (int i = 0; i < nbCases; i++) {
+            final double per = nominalPer + sigmaRadius*random.nextGaussian();
+            final double apo = FastMath.max(per, nominalApo + sigmaRadius*random.nextGaussian());
+            cases[i] = new DispersedCase(
+                    nominalCd + sigmaCd*random.nextGaussian(),
+                    nominalSref + sigmaSref*random.nextGaussian(),
+                    nominalDryMass + sigmaDryMass*random.nextGaussian(),
+                    per, apo);
+        }
+
+        // Fork/join pool : each task builds its own assembly, atmosphere and propagator
+        // so that no mutable object is shared between workers
+        final int nbThreads = Runtime.getRuntime().availableProcessors();
+        final ForkJoinPool pool = new ForkJoinPool(nbThreads);
+        final CompletionService<CaseResult> service = new ExecutorCompletionService<CaseResult>(pool);
+
+        final long start = System.nanoTime();
+        for (final DispersedCase dispersedCase : cases) {
+            service.submit(new Callable<CaseResult>() {
+                public CaseResult call() throws PatriusException {
+                    return propagate(dispersedCase, date, finalDate);
+                }
+            });
+        }
+
+        // Statistics are updated as soon as a result is available (no need to keep all of them)
+        final RunningStatistics smaDecay = new RunningStatistics();
+        final RunningStatistics finalMass = new RunningStatistics();
+        final RunningStatistics reentryDuration = new RunningStatistics();
+        for (int i = 0; i < nbCases; i++) {
+            final CaseResult result = service.take().get();
+            smaDecay.add(result.getSmaDecay());
+            finalMass.add(result.getMass());
+            if (result.isReentered()) {
+                reentryDuration.add(result.getDuration());
+            }
+            // Printing intermediate statistics every 10 % of the cases
+            if ((i + 1) % FastMath.max(1, nbCases/10) == 0) {
+                System.out.println(String.format("%4d/%d cases : mean SMA decay = %8.3f km, reentries = %d",
+                        i + 1, nbCases, smaDecay.getMean()/1000., reentryDuration.getCount()));
+            }
+        }
+        final double elapsed = (System.nanoTime() - start)*1.e-9;
+        pool.shutdown();
+        //SPECIFIC
+
+        // Printing statistics
+        System.out.println();
+        System.out.println("Initial date = "+date.toString(TUC));
+        System.out.println("SMA decay    : "+smaDecay.toString(1.e-3, "km"));
+        System.out.println("Final mass   : "+finalMass.toString(1., "kg"));
+        System.out.println("Reentry date : "+reentryDuration.toString(1./3600., "h after initial date"));
+        System.out.println();
+        System.out.println(String.format("%d cases on %d threads in %.3f s (%.2f cases/s)",
+                nbCases, nbThreads, elapsed, nbCases/elapsed));
+
+    }
+
+    /**
+     * Method to propagate one dispersed case. All the objects are built locally so that the method
+     * can be called concurrently from several threads.
+     * @param dispersedCase dispersed parameters
+     * @param date          initial date
+     * @param finalDate     final date of the propagation
+     * @return the final state summary
+     * @throws PatriusException
+     */
+    private static CaseResult propagate(final DispersedCase dispersedCase, final AbsoluteDate date,
+            final AbsoluteDate finalDate) throws PatriusException {
+
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(dispersedCase.getPer(), dispersedCase.getApo(),
+                inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass and aerodynamic model using an Assembly
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dispersedCase.getDryMass()), "MAIN");
+        builder.addProperty(new AeroSphereProperty(new Parameter("", dispersedCase.getSref()), dispersedCase.getCd()), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final SpacecraftState iniState = new SpacecraftState(iniOrbit, mm);
+
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final FirstOrderIntegrator integrator = new ClassicalRungeKuttaIntegrator(pasRk);
+
+        // Initialization of the propagator
+        final NumericalPropagator propagator = new NumericalPropagator(integrator, iniState.getFrame(),
+                OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(iniState);
+        propagator.setMassProviderEquation(mm);
+
+        // Atmospheric forces using US76 model
+        final CelestialBodyFrame ITRF = FramesFactory.getITRF();
+        final double AE = Constants.WGS84_EARTH_EQUATORIAL_RADIUS;
+        final EllipsoidBodyShape EARTH = new OneAxisEllipsoid(AE, Constants.WGS84_EARTH_FLATTENING, ITRF, "EARTH");
+        final Atmosphere atmosphere = new US76(EARTH);
+        final ForceModel atm = new DragForce(atmosphere, new AeroModel(assembly));
+        propagator.addForceModel(atm);
+
+        // Propagation is stopped when the reentry altitude is reached
+        propagator.addEventDetector(new AltitudeDetector(REENTRY_ALTITUDE, EARTH));
+
+        final SpacecraftState finalState = propagator.propagate(finalDate);
+        final double duration = finalState.getDate().durationFrom(date);
+        final boolean reentered = finalState.getDate().durationFrom(finalDate) < 0.;
+
+        return new CaseResult(iniOrbit.getA() - finalState.getA(),
+                finalState.getMass("MAIN"), duration, reentered);
+
+    }
+
+    /**
+     * Dispersed parameters of one Monte Carlo case.
+     */
+    private static final class DispersedCase {
+
+        private final double cd;
+        private final double sref;
+        private final double dryMass;
+        private final double per;
+        private final double apo;
+
+        /**
+         * Constructor
+         * @param cd      drag coefficient
+         * @param sref    reference surface (m2)
+         * @param dryMass dry mass (kg)
+         * @param per     perigee radius (m)
+         * @param apo     apogee radius (m)
+         */
+        public DispersedCase(final double cd, final double sref, final double dryMass,
+                final double per, final double apo) {
+            this.cd = cd;
+            this.sref = sref;
+            this.dryMass = dryMass;
+            this.per = per;
+            this.apo = apo;
+        }
+
+        public double getCd() {
+            return cd;
+        }
+
+        public double getSref() {
+            return sref;
+        }
+
+        public double getDryMass() {
+            return dryMass;
+        }
+
+        public double getPer() {
+            return per;
+        }
+
+        public double getApo() {
+            return apo;
+        }
+
+    }
+
+    /**
+     * Final state summary of one Monte Carlo case (no SpacecraftState is kept).
+     */
+    private static final class CaseResult {
+
+        private final double smaDecay;
+        private final double mass;
+        private final double duration;
+        private final boolean reentered;
+
+        /**
+         * Constructor
+         * @param smaDecay  semi major axis decay (m)
+         * @param mass      final mass (kg)
+         * @param duration  propagated duration (s)
+         * @param reentered true if the reentry altitude has been reached
+         */
+        public CaseResult(final double smaDecay, final double mass, final double duration,
+                final boolean reentered) {
+            this.smaDecay = smaDecay;
+            this.mass = mass;
+            this.duration = duration;
+            this.reentered = reentered;
+        }
+
+        public double getSmaDecay() {
+            return smaDecay;
+        }
+
+        public double getMass() {
+            return mass;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        public boolean isReentered() {
+            return reentered;
+        }
+
+    }
+
+    /**
+     * Running statistics (Welford algorithm) : mean, standard deviation, min and max are updated
+     * without storing the samples.
+     */
+    private static final class RunningStatistics {
+
+        private long count = 0;
+        private double mean = 0.;
+        private double m2 = 0.;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Method to add a new sample.
+         * @param value sample value
+         */
+        public void add(final double value) {
+            count++;
+            final double delta = value - mean;
+            mean += delta/count;
+            m2 += delta*(value - mean);
+            min = FastMath.min(min, value);
+            max = FastMath.max(max, value);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStandardDeviation() {
+            return count > 1 ? FastMath.sqrt(m2/(count - 1)) : 0.;
+        }
+
+        /**
+         * Method to format the statistics.
+         * @param scale scale factor applied to the values
+         * @param unit  unit of the scaled values
+         * @return the formatted statistics
+         */
+        public String toString(final double scale, final String unit) {
+            if (count == 0) {
+                return "no sample";
+            }
+            return String.format("mean = %.3f, sigma = %.3f, min = %.3f, max = %.3f %s (%d samples)",
+                    mean*scale, getStandardDeviation()*scale, min*scale, max*scale, unit, count);
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.models.RediffusedRadiativeModel;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeIRProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeSphereProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.MeeusSun;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.gravity.ThirdBodyAttraction;
+import fr.cnes.sirius.patrius.forces.radiation.KnockeRiesModel;
+import fr.cnes.sirius.patrius.forces.radiation.RediffusedRadiationPressure;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.numerical.TimeDerivativesEquations;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Force model decorator evaluating a slowly varying force on a coarse time grid.
+ * <p>
+ * The wrapped model is evaluated at the nodes t<sub>k</sub> = k.dt of a grid of step dt (the update
+ * interval), on the current state shifted to the node (keplerian motion), and the acceleration is
+ * linearly interpolated between the two nodes surrounding the date. A node is computed once, then used
+ * by all the integration stages of the interval : with a 2 s Runge-Kutta step and a 60 s update
+ * interval, the wrapped model is called about 120 times less.
+ * </p>
+ * <p>
+ * Error bound : the linear interpolation error is bounded by dt<sup>2</sup>/8 max|a''|, and
+ * |a<sub>k+1</sub> - 2a<sub>k</sub> + a<sub>k-1</sub>|/8 estimates it on each interval
+ * ({@link #getErrorBound()}). The keplerian shift of the state to the nodes adds
+ * |da/dr| . |d<sub>pert</sub>| dt<sup>2</sup>/2, negligible for third body and radiation pressure
+ * accelerations (whose gradient is very small). The mode is then suited to forces whose variations are
+ * slow compared with the update interval ; central gravity and drag must be added directly.
+ * </p>
+ * <p>
+ * The nodes depend on the propagated trajectory : they are dropped, as well as the error bound, by
+ * {@link #checkData}, called by the propagator before each propagation (or explicitly with
+ * {@link #reset()}). Like the propagator, an instance must not be shared between threads.
+ * </p>
+ */
+public class MultirateForceModel implements ForceModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of nodes kept in cache. */
+    private static final int NB_NODES = 4;
+
+    private final ForceModel model;
+    private final double interval;
+
+    private final TreeMap<Long, Vector3D> nodes = new TreeMap<Long, Vector3D>();
+    private long nbCalls = 0;
+    private long nbEvaluations = 0;
+    private double errorBound = 0.;
+
+    /**
+     * Constructor
+     * @param model    slowly varying force model
+     * @param interval update interval (s), strictly positive
+     */
+    public MultirateForceModel(final ForceModel model, final double interval) {
+        if (!(interval > 0.)) {
+            throw new IllegalArgumentException("Update interval must be strictly positive : " + interval);
+        }
+        this.model = model;
+        this.interval = interval;
+    }
+
+    /**
+     * Method to add a force model to a propagator with an update interval.
+     * @param propagator numerical propagator
+     * @param model      force model
+     * @param interval   update interval (s), 0 to evaluate the model at each integration stage
+     * @return the added force model
+     */
+    public static ForceModel addForceModel(final NumericalPropagator propagator, final ForceModel model,
+            final double interval) {
+        final ForceModel added = interval > 0. ? new MultirateForceModel(model, interval) : model;
+        propagator.addForceModel(added);
+        return added;
+    }
+
+    public void addContribution(final SpacecraftState s, final TimeDerivativesEquations adder) throws PatriusException {
+        adder.addAcceleration(computeAcceleration(s), s.getFrame());
+    }
+
+    public Vector3D computeAcceleration(final SpacecraftState s) throws PatriusException {
+
+        nbCalls++;
+
+        final double t = s.getDate().durationFrom(AbsoluteDate.J2000_EPOCH);
+        final long k = (long) FastMath.floor(t/interval);
+        final double w = t/interval - k;
+
+        return new Vector3D(1. - w, getNode(s, k, t), w, getNode(s, k + 1, t));
+
+    }
+
+    /**
+     * Method to get (computing it if needed) the acceleration at a node.
+     * @param s     current state
+     * @param k     index of the node
+     * @param t     current date (s from J2000)
+     * @return acceleration at the node
+     * @throws PatriusException
+     */
+    private Vector3D getNode(final SpacecraftState s, final long k, final double t) throws PatriusException {
+
+        Vector3D acc = nodes.get(k);
+        if (acc == null) {
+            acc = model.computeAcceleration(s.shiftedBy(k*interval - t));
+            nodes.put(k, acc);
+            nbEvaluations++;
+
+            // Estimation of the interpolation error with the neighbour nodes
+            final Vector3D previous = nodes.get(k - 1);
+            final Vector3D beforePrevious = nodes.get(k - 2);
+            final Vector3D next = nodes.get(k + 1);
+            final Vector3D afterNext = nodes.get(k + 2);
+            if (previous != null && beforePrevious != null) {
+                errorBound = FastMath.max(errorBound, secondDifference(beforePrevious, previous, acc));
+            }
+            if (next != null && afterNext != null) {
+                errorBound = FastMath.max(errorBound, secondDifference(acc, next, afterNext));
+            }
+
+            // Only the nodes close to the current date are kept
+            final Iterator<Map.Entry<Long, Vector3D>> it = nodes.entrySet().iterator();
+            while (nodes.size() > NB_NODES && it.hasNext()) {
+                if (FastMath.abs(it.next().getKey() - k) > NB_NODES/2) {
+                    it.remove();
+                }
+            }
+        }
+        return acc;
+
+    }
+
+    private static double secondDifference(final Vector3D a0, final Vector3D a1, final Vector3D a2) {
+        return new Vector3D(1., a0, -2., a1, 1., a2).getNorm()/8.;
+    }
+
+    public EventDetector[] getEventsDetectors() {
+        return model.getEventsDetectors();
+    }
+
+    public void checkData(final AbsoluteDate start, final AbsoluteDate end) throws PatriusException {
+        model.checkData(start, end);
+        reset();
+    }
+
+    /**
+     * Method to drop the nodes and the error bound (start of a new propagation).
+     */
+    public void reset() {
+        nodes.clear();
+        errorBound = 0.;
+    }
+
+    public ArrayList<Parameter> getParameters() {
+        return model.getParameters();
+    }
+
+    public boolean supportsParameter(final Parameter param) {
+        return model.supportsParameter(param);
+    }
+
+    /**
+     * @return estimated maximum interpolation error (m/s2)
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return number of calls to the force model
+     */
+    public long getNbCalls() {
+        return nbCalls;
+    }
+
+    /**
+     * @return number of evaluations of the wrapped model
+     */
+    public long getNbEvaluations() {
+        return nbEvaluations;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithSRP)
+        final double sma = 7000.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass and radiative model using an Assembly (same as NumericalPropagationWithSRP)
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double ka = 1.0;
+        final double ks = 0.0;
+        final double kd = 0.0;
+        builder.addProperty(new RadiativeProperty(ka, ks, kd), "MAIN");
+        builder.addProperty(new RadiativeIRProperty(ka, ks, kd), "MAIN");
+        final double radius = 10.;
+        builder.addProperty(new RadiativeSphereProperty(radius), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+        final RediffusedRadiativeModel rdm = new RediffusedRadiativeModel(true, true, 1., 1., assembly);
+
+        final CelestialBody sun = new MeeusSun();
+        final double pasRk = 2.;
+        final AbsoluteDate finalDate = date.shiftedBy(5.*iniOrbit.getKeplerianPeriod());
+
+        //SPECIFIC
+        // Reference (all the forces at each stage), then increasing update intervals
+        final double[] intervals = { 0., 10., 30., 60., 120., 300. };
+        SpacecraftState reference = null;
+        double referenceDuration = 0.;
+        System.out.println("Interval   Duration  Speedup  Evaluations  Error bound (m/s2)  Final pos. diff. (m)");
+        for (final double interval : intervals) {
+
+            final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                    GCRF, OrbitType.CARTESIAN, PositionAngle.TRUE);
+            propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+            propagator.setMassProviderEquation(mm);
+            final ForceModel thirdBody = addForceModel(propagator, new ThirdBodyAttraction(sun.getGravityModel()),
+                    interval);
+            final ForceModel reDiff = addForceModel(propagator, new RediffusedRadiationPressure(sun, GCRF, 1, 10,
+                    new KnockeRiesModel(), rdm), interval);
+
+            final long start = System.nanoTime();
+            final SpacecraftState finalState = propagator.propagate(finalDate);
+            final double duration = (System.nanoTime() - start)*1.e-9;
+
+            if (reference == null) {
+                reference = finalState;
+                referenceDuration = duration;
+                System.out.println(String.format("%6s s %8.3f s %8.2f", "-", duration, 1.));
+            } else {
+                final MultirateForceModel slowThirdBody = (MultirateForceModel) thirdBody;
+                final MultirateForceModel slowReDiff = (MultirateForceModel) reDiff;
+                System.out.println(String.format("%6.0f s %8.3f s %8.2f %12d %19.2e %21.3e", interval, duration,
+                        referenceDuration/duration, slowThirdBody.getNbEvaluations() + slowReDiff.getNbEvaluations(),
+                        slowThirdBody.getErrorBound() + slowReDiff.getErrorBound(),
+                        finalState.getPVCoordinates().getPosition().distance(reference.getPVCoordinates().getPosition())));
+            }
+        }
+        //SPECIFIC
+
+    }
+
+}
@@ -0,0 +1,577 @@
+package propagator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import ephemeris.MappedEphemerisReader;
+import ephemeris.MappedEphemerisWriter;
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.models.RediffusedRadiativeModel;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeIRProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeProperty;
+import fr.cnes.sirius.patrius.assembly.properties.RadiativeSphereProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.MeeusSun;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.forces.ForceModel;
+import fr.cnes.sirius.patrius.forces.gravity.ThirdBodyAttraction;
+import fr.cnes.sirius.patrius.forces.radiation.KnockeRiesModel;
+import fr.cnes.sirius.patrius.forces.radiation.RediffusedRadiationPressure;
+import fr.cnes.sirius.patrius.frames.CelestialBodyFrame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderIntegrator;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Local disk cache of propagation results.
+ * <p>
+ * Each entry is an ephemeris file (see {@link MappedEphemerisWriter}) named after the SHA-256 digest of
+ * the propagation configuration (see {@link Key}). Entries are evicted in least recently used order
+ * when the total size exceeds the cap; the order survives restarts through the files modification date.
+ * </p>
+ * <p>
+ * The cache can be shared by several threads : the propagations are run outside of the lock protecting
+ * the bookkeeping, and a propagation is run only once for concurrent calls with the same key.
+ * </p>
+ */
+public class PropagationCache {
+
+    /** Extension of the cache entries. */
+    private static final String EXTENSION = ".peph";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /** Entries sizes, in access order (eldest first). */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /** Propagations in progress, by key. */
+    private final ConcurrentMap<String, CompletableFuture<Void>> pending =
+        new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long bytesSaved = 0;
+
+    /**
+     * Constructor
+     * @param directory cache directory (created if needed)
+     * @param maxBytes  maximum total size of the entries (bytes)
+     */
+    public PropagationCache(final File directory, final long maxBytes) {
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Unable to create " + directory));
+        }
+
+        // Existing entries are loaded from the least to the most recently used
+        final File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                return file.getName().endsWith(EXTENSION);
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(final File f1, final File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (final File file : files) {
+            final String name = file.getName();
+            entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+            totalBytes += file.length();
+        }
+        evict();
+
+    }
+
+    /**
+     * Builder of the propagator of a cache entry, only called on a cache miss : the cache owns the built
+     * propagator and sets its mode.
+     */
+    public interface PropagatorFactory {
+
+        /**
+         * Method to build the propagator, initial state, force models and event detectors included.
+         * @return numerical propagator
+         * @throws PatriusException
+         */
+        NumericalPropagator newPropagator() throws PatriusException;
+
+    }
+
+    /**
+     * Method to get the ephemeris of a propagation, computing it only if it is not in the cache.
+     * <p>
+     * The key must describe everything that has an influence on the result (see {@link Key}). Concurrent
+     * calls with different keys are run in parallel; a call with the key of a propagation in progress
+     * waits for it and reads its entry.
+     * </p>
+     * @param key          key of the propagation configuration (the ephemeris settings are added to it)
+     * @param factory      builder of the propagator (only used on a cache miss)
+     * @param finalDate    final date of the propagation
+     * @param step         sampling step of the stored ephemeris (s)
+     * @param timeScale    time scale used in the ephemeris header
+     * @param massPartName name of the part whose mass is stored (may be null)
+     * @return reader of the stored ephemeris
+     * @throws PatriusException
+     * @throws IOException
+     */
+    public MappedEphemerisReader propagate(final Key key, final PropagatorFactory factory,
+            final AbsoluteDate finalDate, final double step, final TimeScale timeScale, final String massPartName)
+        throws PatriusException, IOException {
+
+        final String digest = key.add("finalDate", finalDate).add("step", step).add("timeScale", timeScale.getName())
+                .add("massPart", String.valueOf(massPartName)).digest();
+        final File file = new File(directory, digest + EXTENSION);
+
+        while (true) {
+
+            final MappedEphemerisReader cached = lookup(digest, file);
+            if (cached != null) {
+                return cached;
+            }
+
+            // Only one propagation per key, the bookkeeping being the only shared section
+            final CompletableFuture<Void> own = new CompletableFuture<Void>();
+            final CompletableFuture<Void> running = pending.putIfAbsent(digest, own);
+            if (running != null) {
+                try {
+                    running.get();
+                } catch (final ExecutionException e) {
+                    // Failure of the other propagation : tried again by this call
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + digest);
+                }
+                continue;
+            }
+
+            try {
+                // Entry possibly stored between the lookup and the registration
+                final MappedEphemerisReader stored = lookup(digest, file);
+                if (stored != null) {
+                    return stored;
+                }
+                compute(digest, file, factory, finalDate, step, timeScale, massPartName);
+                own.complete(null);
+            } catch (final Throwable e) {
+                own.completeExceptionally(e);
+                throw e;
+            } finally {
+                // Waiting calls released in any case
+                own.complete(null);
+                pending.remove(digest, own);
+            }
+            return new MappedEphemerisReader(file);
+
+        }
+
+    }
+
+    /**
+     * Method to look for an entry of the cache.
+     * @param key  key of the entry
+     * @param file file of the entry
+     * @return reader of the entry, null if it is not in the cache
+     * @throws PatriusException
+     * @throws IOException
+     */
+    private synchronized MappedEphemerisReader lookup(final String key, final File file)
+        throws PatriusException, IOException {
+        if (entries.containsKey(key)) {
+            if (file.isFile()) {
+                // Cache hit : the integration is skipped
+                hits++;
+                bytesSaved += file.length();
+                // Access to the entry moves it at the end of the eviction order
+                entries.get(key);
+                file.setLastModified(System.currentTimeMillis());
+                return new MappedEphemerisReader(file);
+            }
+            // The file has been removed behind the cache : its size is no longer counted
+            totalBytes -= entries.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Method to compute an entry (outside of the bookkeeping lock).
+     * @param key          key of the entry
+     * @param file         file of the entry
+     * @param factory      builder of the propagator
+     * @param finalDate    final date of the propagation
+     * @param step         sampling step of the stored ephemeris (s)
+     * @param timeScale    time scale used in the ephemeris header
+     * @param massPartName name of the part whose mass is stored (may be null)
+     * @throws PatriusException
+     * @throws IOException
+     */
+    private void compute(final String key, final File file, final PropagatorFactory factory,
+            final AbsoluteDate finalDate, final double step, final TimeScale timeScale, final String massPartName)
+        throws PatriusException, IOException {
+
+        synchronized (this) {
+            misses++;
+        }
+
+        // The ephemeris is written in a temporary file, then renamed
+        final File tmp = new File(directory, key + ".tmp");
+        try {
+            final MappedEphemerisWriter writer = new MappedEphemerisWriter(tmp, timeScale, massPartName, 4096);
+            final NumericalPropagator propagator = factory.newPropagator();
+            propagator.setMasterMode(step, writer);
+            try {
+                propagator.propagate(finalDate);
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        } finally {
+            // Nothing is left behind when the propagation or the rename failed
+            tmp.delete();
+        }
+
+        synchronized (this) {
+            entries.put(key, file.length());
+            totalBytes += file.length();
+            evict(key);
+        }
+
+    }
+
+    /**
+     * Method to remove the least recently used entries until the size cap is respected.
+     */
+    private void evict() {
+        evict(null);
+    }
+
+    /**
+     * Method to remove the least recently used entries until the size cap is respected.
+     * @param kept key of an entry which is never removed (may be null)
+     */
+    private void evict(final String kept) {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(kept)) {
+                continue;
+            }
+            final File file = new File(directory, eldest.getKey() + EXTENSION);
+            if (file.delete() || !file.exists()) {
+                totalBytes -= eldest.getValue();
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return bytes of ephemeris served from the cache instead of being recomputed
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Stable key of a propagation configuration : every element having an influence on the result is
+     * written in a canonical binary form, and the key is the SHA-256 digest of this stream.
+     * <p>
+     * The key is an explicit description given by the caller : only values are written (no runtime
+     * state of the objects), so that the same configuration gives the same key from one run to the other.
+     * Besides the helpers for the initial state, the force models and the event detectors, the caller
+     * must add the integrator (type, steps, tolerances) and the configuration of the force models which
+     * is not held by their parameters (models, discretization...).
+     * </p>
+     */
+    public static final class Key {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(bytes);
+
+        /**
+         * Method to add a named numerical value.
+         * @param name  name of the value
+         * @param value value
+         * @return this key
+         */
+        public Key add(final String name, final double value) {
+            try {
+                data.writeUTF(name);
+                data.writeLong(Double.doubleToLongBits(value));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Method to add a named string.
+         * @param name  name of the value
+         * @param value value
+         * @return this key
+         */
+        public Key add(final String name, final String value) {
+            try {
+                data.writeUTF(name);
+                data.writeUTF(value);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Method to add a date (as an offset from J2000 epoch, independent of any time scale).
+         * @param name name of the date
+         * @param date date
+         * @return this key
+         */
+        public Key add(final String name, final AbsoluteDate date) {
+            return add(name, date.durationFrom(AbsoluteDate.J2000_EPOCH));
+        }
+
+        /**
+         * Method to add an initial state : date, frame, position, velocity, mu and additional states
+         * (the masses of the parts are additional states).
+         * @param state initial state
+         * @return this key
+         */
+        public Key add(final SpacecraftState state) {
+            final PVCoordinates pv = state.getPVCoordinates();
+            add("date", state.getDate());
+            add("frame", state.getFrame().getName());
+            add("mu", state.getMu());
+            add("x", pv.getPosition().getX());
+            add("y", pv.getPosition().getY());
+            add("z", pv.getPosition().getZ());
+            add("vx", pv.getVelocity().getX());
+            add("vy", pv.getVelocity().getY());
+            add("vz", pv.getVelocity().getZ());
+            // Sorted by name, the map order being unspecified
+            for (final Map.Entry<String, double[]> entry
+                    : new TreeMap<String, double[]>(state.getAdditionalStates()).entrySet()) {
+                for (int i = 0; i < entry.getValue().length; i++) {
+                    add(entry.getKey() + "[" + i + "]", entry.getValue()[i]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Method to add a force model : its class and its parameters.
+         * @param force force model
+         * @return this key
+         */
+        public Key add(final ForceModel force) {
+            add("force", force.getClass().getName());
+            for (final Parameter parameter : force.getParameters()) {
+                add(parameter.getName(), parameter.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Method to add an event detector : its class and its detection settings.
+         * @param detector event detector
+         * @return this key
+         */
+        public Key add(final EventDetector detector) {
+            add("detector", detector.getClass().getName());
+            add("maxCheck", detector.getMaxCheckInterval());
+            add("threshold", detector.getThreshold());
+            add("maxIterations", detector.getMaxIterationCount());
+            return add("slopeSelection", detector.getSlopeSelection());
+        }
+
+        /**
+         * @return the SHA-256 digest of the configuration (hexadecimal)
+         */
+        public String digest() {
+            try {
+                data.flush();
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+                final StringBuilder hex = new StringBuilder();
+                for (final byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Cache of 100 MB in the temporary directory
+        final File directory = new File(System.getProperty("java.io.tmpdir"), "patrius-propagation-cache");
+        final PropagationCache cache = new PropagationCache(directory, 100L*1024*1024);
+
+        // The same batch is run twice : the second run is only made of cache hits
+        for (int run = 0; run < 2; run++) {
+
+            final long start = System.nanoTime();
+
+            // Same configuration as the NumericalPropagationWithSRP tutorial
+            final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+            final CelestialBodyFrame GCRF = FramesFactory.getGCRF();
+
+            final double sma = 7000.e+3;
+            final double exc = 0.;
+            final double per = sma*(1.-exc);
+            final double apo = sma*(1.+exc);
+            final double inc = FastMath.toRadians(98.);
+            final double pa = FastMath.toRadians(0.);
+            final double raan = FastMath.toRadians(0.);
+            final double anm = FastMath.toRadians(0.);
+            final double MU = Constants.WGS84_EARTH_MU;
+
+            final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+            final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+            final AssemblyBuilder builder = new AssemblyBuilder();
+            final double dryMass = 100.;
+            builder.addMainPart("MAIN");
+            builder.addProperty(new MassProperty(dryMass), "MAIN");
+            final double ka = 1.0;
+            final double ks = 0.0;
+            final double kd = 0.0;
+            builder.addProperty(new RadiativeProperty(ka, ks, kd), "MAIN");
+            builder.addProperty(new RadiativeIRProperty(ka, ks, kd), "MAIN");
+            final double radius = 10.;
+            builder.addProperty(new RadiativeSphereProperty(radius), "MAIN");
+            final Assembly assembly = builder.returnAssembly();
+
+            final CelestialBody sun = new MeeusSun();
+            final ThirdBodyAttraction sunForceModel = new ThirdBodyAttraction(new MeeusSun().getGravityModel());
+            final int inCorona = 1;
+            final int inMeridian = 10;
+            final RediffusedRadiativeModel rdm = new RediffusedRadiativeModel(true, true, 1., 1., assembly);
+            final RediffusedRadiationPressure reDiff = new RediffusedRadiationPressure(sun, GCRF, inCorona, inMeridian,
+                    new KnockeRiesModel(), rdm);
+
+            final MassProvider mm = new MassModel(assembly);
+            final SpacecraftState iniState = new SpacecraftState(iniOrbit, mm);
+
+            final double pasRk = 2.;
+
+            final AbsoluteDate finalDate = date.shiftedBy(5.*iniOrbit.getKeplerianPeriod());
+            final double step = 60.;
+
+            //SPECIFIC
+            // The propagator is only built on a cache miss
+            final PropagatorFactory factory = new PropagatorFactory() {
+                public NumericalPropagator newPropagator() throws PatriusException {
+                    final FirstOrderIntegrator integrator = new ClassicalRungeKuttaIntegrator(pasRk);
+                    final NumericalPropagator propagator = new NumericalPropagator(integrator, iniState.getFrame(),
+                            OrbitType.CARTESIAN, PositionAngle.TRUE);
+                    propagator.resetInitialState(iniState);
+                    propagator.setMassProviderEquation(mm);
+                    propagator.addForceModel(sunForceModel);
+                    propagator.addForceModel(reDiff);
+                    return propagator;
+                }
+            };
+
+            // Explicit description of the configuration
+            final Key key = new Key().add(iniState).add("orbitType", OrbitType.CARTESIAN.toString())
+                    .add("integrator", ClassicalRungeKuttaIntegrator.class.getName()).add("integratorStep", pasRk)
+                    .add(sunForceModel).add("sun", MeeusSun.class.getName())
+                    .add(reDiff).add("inCorona", inCorona).add("inMeridian", inMeridian)
+                    .add("emissivity", KnockeRiesModel.class.getName()).add("radius", radius)
+                    .add("ka", ka).add("ks", ks).add("kd", kd).add("dryMass", dryMass);
+
+            final MappedEphemerisReader ephemeris = cache.propagate(key, factory, finalDate, step, TUC, "MAIN");
+            final int last = (int) ephemeris.getCount() - 1;
+            final SpacecraftState finalState = ephemeris.getSpacecraftState(ephemeris.getDate(last), GCRF);
+            ephemeris.close();
+            //SPECIFIC
+
+            System.out.println();
+            System.out.println(String.format("Run %d : %.3f s", run + 1, (System.nanoTime() - start)*1.e-9));
+            System.out.println("Final date = "+finalState.getDate().toString(TUC));
+            System.out.println("Final semi major axis = "+finalState.getA()/1000.+" km");
+
+        }
+
+        System.out.println();
+        System.out.println("Hits = "+cache.getHits()+", misses = "+cache.getMisses()+", evictions = "+cache.getEvictions());
+        System.out.println("Bytes saved = "+cache.getBytesSaved()+", cache size = "+cache.getTotalBytes()+" bytes");
+
+    }
+
+}
@@ -0,0 +1,633 @@
+package propagator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.DragLiftModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroGlobalProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.attitudes.Attitude;
+import fr.cnes.sirius.patrius.attitudes.AttitudeLaw;
+import fr.cnes.sirius.patrius.attitudes.LofOffset;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.bodies.EllipsoidBodyShape;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.events.EventDetector.Action;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.detectors.AOLDetector;
+import fr.cnes.sirius.patrius.events.detectors.DateDetector;
+import fr.cnes.sirius.patrius.forces.atmospheres.Atmosphere;
+import fr.cnes.sirius.patrius.forces.atmospheres.MSISE2000;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.ConstantSolarActivity;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.specialized.ClassicalMSISE2000SolarData;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.forces.maneuvers.ImpulseManeuver;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.frames.LOFType;
+import fr.cnes.sirius.patrius.frames.UpdatableFrame;
+import fr.cnes.sirius.patrius.frames.transformations.Transform;
+import fr.cnes.sirius.patrius.math.complex.Quaternion;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Rotation;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.RotationOrder;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Sphere;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.CartesianOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PropagationException;
+
+/**
+ * Fixed step handler saving the propagated state in a compact binary checkpoint file.
+ * <p>
+ * It must be registered with {@code propagator.setMasterMode(interval, checkpointer)} : a checkpoint is
+ * written every interval. The last call of the propagation (final date, or date of a stop event, in
+ * general not on the checkpoint grid) is not saved. A checkpoint contains the date, the orbit (position,
+ * velocity, mu), the attitude, all the additional states (masses of the parts for example) and the names
+ * of the events already processed. The file is replaced atomically so that a crash during a write never
+ * corrupts the previous checkpoint.
+ * </p>
+ * <p>
+ * The one-shot events (maneuvers, mode switches ...) are wrapped with {@link #once(EventDetector, String)}
+ * : the wrapped detector is only applied at its first occurrence, then its name is saved with the
+ * checkpoints. A checkpointer built with the events read from a checkpoint does not apply them again
+ * after a resume.
+ * </p>
+ * <p>
+ * When the interval is a multiple of the fixed integration step, the checkpoints are taken on integrator
+ * step boundaries : a resumed propagation then follows the same steps as an uninterrupted one.
+ * </p>
+ */
+public class PropagationCheckpointer implements PatriusFixedStepHandler {
+
+    /** Magic number ("PCKP"). */
+    private static final int MAGIC = 0x50434b50;
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final transient TimeScale timeScale;
+
+    /** Names of the events already processed (maneuvers, mode switches ...). */
+    private final Set<String> completedEvents = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    private long nbCheckpoints = 0;
+    private long writeDuration = 0;
+
+    /**
+     * Detector applied at its first occurrence only (first occurrence over the runs sharing the
+     * events bookkeeping of the checkpoints).
+     */
+    private class OnceDetector implements EventDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final EventDetector detector;
+        private final String name;
+        private boolean applied;
+
+        /**
+         * Constructor
+         * @param detector event detector
+         * @param name     name of the event in the checkpoints
+         */
+        public OnceDetector(final EventDetector detector, final String name) {
+            this.detector = detector;
+            this.name = name;
+        }
+
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            applied = !completedEvents.contains(name);
+            if (!applied) {
+                // Already processed (before the resume for example)
+                return Action.CONTINUE;
+            }
+            final Action action = detector.eventOccurred(s, increasing, forward);
+            markCompleted(name);
+            return action;
+        }
+
+        public SpacecraftState resetState(final SpacecraftState oldState) throws PatriusException {
+            return applied ? detector.resetState(oldState) : oldState;
+        }
+
+        public double g(final SpacecraftState s) throws PatriusException {
+            return detector.g(s);
+        }
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+            detector.init(s0, t);
+        }
+
+        public boolean shouldBeRemoved() {
+            return detector.shouldBeRemoved();
+        }
+
+        public double getThreshold() {
+            return detector.getThreshold();
+        }
+
+        public double getMaxCheckInterval() {
+            return detector.getMaxCheckInterval();
+        }
+
+        public int getMaxIterationCount() {
+            return detector.getMaxIterationCount();
+        }
+
+        public int getSlopeSelection() {
+            return detector.getSlopeSelection();
+        }
+
+        public boolean filterEvent(final SpacecraftState state, final boolean increasing, final boolean forward)
+            throws PatriusException {
+            return detector.filterEvent(state, increasing, forward);
+        }
+
+        public EventDetector copy() {
+            return new OnceDetector(detector.copy(), name);
+        }
+
+    }
+
+    /**
+     * Constructor
+     * @param file      checkpoint file
+     * @param timeScale time scale used to write the dates
+     */
+    public PropagationCheckpointer(final File file, final TimeScale timeScale) {
+        this(file, timeScale, Collections.<String>emptySet());
+    }
+
+    /**
+     * Constructor (resume of a propagation)
+     * @param file      checkpoint file
+     * @param timeScale time scale used to write the dates
+     * @param completed names of the events already processed (read with the checkpoint)
+     */
+    public PropagationCheckpointer(final File file, final TimeScale timeScale, final Set<String> completed) {
+        this.file = file;
+        this.timeScale = timeScale;
+        this.completedEvents.addAll(completed);
+    }
+
+    /**
+     * Method to wrap a one-shot event, so that it is not applied twice after a resume.
+     * @param detector event detector (maneuver ...)
+     * @param name     name of the event in the checkpoints
+     * @return the wrapped detector (to be added to the propagator)
+     */
+    public EventDetector once(final EventDetector detector, final String name) {
+        return new OnceDetector(detector, name);
+    }
+
+    /**
+     * Method to record that an event has been processed, so that it is not applied twice after a resume.
+     * @param eventName name of the event
+     */
+    public void markCompleted(final String eventName) {
+        completedEvents.add(eventName);
+    }
+
+    public void init(final SpacecraftState s0, final AbsoluteDate t) {
+        // Nothing to do ...
+    }
+
+    public void handleStep(final SpacecraftState currentState, final boolean isLast) throws PropagationException {
+        if (isLast) {
+            // Not on the checkpoint grid in general : a resume from it would not follow the same steps
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            write(currentState);
+        } catch (final PatriusException e) {
+            throw new PropagationException(e);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writeDuration += System.nanoTime() - start;
+        nbCheckpoints++;
+    }
+
+    /**
+     * Method to write a checkpoint (temporary file then atomic replacement).
+     * @param state state to save
+     * @throws IOException
+     * @throws PatriusException
+     */
+    private void write(final SpacecraftState state) throws IOException, PatriusException {
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+
+            // Date with a millisecond resolution, plus the remainder
+            final AbsoluteDate date = state.getDate();
+            final String dateString = date.toString(timeScale);
+            out.writeUTF(dateString);
+            out.writeDouble(date.durationFrom(new AbsoluteDate(dateString, timeScale)));
+
+            // Orbit (raw doubles, no conversion)
+            final PVCoordinates pv = state.getPVCoordinates();
+            out.writeUTF(state.getFrame().getName());
+            out.writeDouble(state.getMu());
+            writeVector(out, pv.getPosition());
+            writeVector(out, pv.getVelocity());
+
+            // Attitude
+            final Attitude attitude = state.getAttitude();
+            out.writeBoolean(attitude != null);
+            if (attitude != null) {
+                final Quaternion q = attitude.getRotation().getQuaternion();
+                out.writeUTF(attitude.getReferenceFrame().getName());
+                out.writeDouble(q.getQ0());
+                out.writeDouble(q.getQ1());
+                out.writeDouble(q.getQ2());
+                out.writeDouble(q.getQ3());
+                writeVector(out, attitude.getSpin());
+            }
+
+            // Additional states (mass, ...)
+            final Map<String, double[]> additionalStates = state.getAdditionalStates();
+            out.writeInt(additionalStates.size());
+            for (final Map.Entry<String, double[]> entry : additionalStates.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (final double value : entry.getValue()) {
+                    out.writeDouble(value);
+                }
+            }
+
+            // Events bookkeeping
+            synchronized (completedEvents) {
+                out.writeInt(completedEvents.size());
+                for (final String name : completedEvents) {
+                    out.writeUTF(name);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * @return number of written checkpoints
+     */
+    public long getNbCheckpoints() {
+        return nbCheckpoints;
+    }
+
+    /**
+     * @return cumulated time spent writing checkpoints (s)
+     */
+    public double getWriteDuration() {
+        return writeDuration*1.e-9;
+    }
+
+    /**
+     * Method to read a checkpoint file.
+     * @param file      checkpoint file
+     * @param timeScale time scale used to write the dates
+     * @param frame        propagation frame (its name must match the one of the checkpoint)
+     * @param massProvider mass model of the resumed propagation, updated with the saved masses of its
+     *        parts (may be null)
+     * @param completed    set filled with the names of the events already processed (may be null)
+     * @return the saved state, to be given to {@code resetInitialState}
+     * @throws IOException
+     * @throws PatriusException
+     */
+    public static SpacecraftState read(final File file, final TimeScale timeScale, final Frame frame,
+            final MassProvider massProvider, final Set<String> completed) throws IOException, PatriusException {
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint file");
+            }
+
+            final AbsoluteDate date = new AbsoluteDate(in.readUTF(), timeScale).shiftedBy(in.readDouble());
+
+            final String frameName = in.readUTF();
+            checkFrame(frameName, frame);
+            final double mu = in.readDouble();
+            final Vector3D position = readVector(in);
+            final Vector3D velocity = readVector(in);
+            final Orbit orbit = new CartesianOrbit(new PVCoordinates(position, velocity), frame, date, mu);
+
+            Attitude attitude = null;
+            if (in.readBoolean()) {
+                checkFrame(in.readUTF(), frame);
+                final Rotation rotation = new Rotation(false, in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble());
+                attitude = new Attitude(date, frame, rotation, readVector(in));
+            }
+
+            final Map<String, double[]> additionalStates = new HashMap<String, double[]>();
+            final int nbAdditionalStates = in.readInt();
+            for (int i = 0; i < nbAdditionalStates; i++) {
+                final String name = in.readUTF();
+                final double[] values = new double[in.readInt()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = in.readDouble();
+                }
+                additionalStates.put(name, values);
+            }
+
+            final int nbEvents = in.readInt();
+            for (int i = 0; i < nbEvents; i++) {
+                final String name = in.readUTF();
+                if (completed != null) {
+                    completed.add(name);
+                }
+            }
+
+            if (massProvider == null) {
+                return new SpacecraftState(orbit, attitude, null, additionalStates);
+            }
+
+            // The mass model is restored from the saved masses, then gives the mass states
+            for (final String part : massProvider.getAllPartsNames()) {
+                final double[] mass = additionalStates.remove(SpacecraftState.MASS + part);
+                if (mass == null) {
+                    throw new IOException("No mass of the part " + part + " in the checkpoint");
+                }
+                massProvider.updateMass(part, mass[0]);
+            }
+            SpacecraftState state = new SpacecraftState(orbit, attitude, massProvider);
+            for (final Map.Entry<String, double[]> entry : additionalStates.entrySet()) {
+                state = state.addAdditionalState(entry.getKey(), entry.getValue());
+            }
+            return state;
+        } finally {
+            in.close();
+        }
+
+    }
+
+    private static void checkFrame(final String frameName, final Frame frame) throws IOException {
+        if (!frameName.equals(frame.getName())) {
+            throw new IOException("Checkpoint written in " + frameName + ", not in " + frame.getName());
+        }
+    }
+
+    private static void writeVector(final DataOutputStream out, final Vector3D vector) throws IOException {
+        out.writeDouble(vector.getX());
+        out.writeDouble(vector.getY());
+        out.writeDouble(vector.getZ());
+    }
+
+    private static Vector3D readVector(final DataInputStream in) throws IOException {
+        return new Vector3D(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit (same as NumericalPropagationWithLiftAndDragAndMSISE2000)
+        final double sma = 6600.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Propagation over 1 day, with a checkpoint every 30 min (a multiple of the 2 s integration step)
+        final AbsoluteDate finalDate = date.shiftedBy(Constants.JULIAN_DAY);
+        // Simulated crash in the middle of a checkpoint interval (0.4 day = 19.2 intervals)
+        final AbsoluteDate crashDate = date.shiftedBy(0.4*Constants.JULIAN_DAY);
+        final double checkpointInterval = 1800.;
+        final File checkpointFile = File.createTempFile("propagation", ".ckp");
+        checkpointFile.deleteOnExit();
+
+        // Reference run without interruption (its checkpointer only handles the one-shot maneuver)
+        final Assembly referenceAssembly = buildAssembly();
+        final MassProvider referenceMass = new MassModel(referenceAssembly);
+        final NumericalPropagator reference = buildPropagator(GCRF, referenceAssembly, referenceMass,
+                new PropagationCheckpointer(checkpointFile, TUC));
+        reference.resetInitialState(new SpacecraftState(iniOrbit, referenceMass));
+        long start = System.nanoTime();
+        final SpacecraftState referenceState = reference.propagate(finalDate);
+        final double referenceDuration = (System.nanoTime() - start)*1.e-9;
+
+        //SPECIFIC
+        // Run with checkpoints, interrupted by an exception before the end (simulated crash)
+        final PropagationCheckpointer checkpointer = new PropagationCheckpointer(checkpointFile, TUC);
+        final Assembly interruptedAssembly = buildAssembly();
+        final MassProvider interruptedMass = new MassModel(interruptedAssembly);
+        final NumericalPropagator interrupted = buildPropagator(GCRF, interruptedAssembly, interruptedMass,
+                checkpointer);
+        interrupted.resetInitialState(new SpacecraftState(iniOrbit, interruptedMass));
+        interrupted.setMasterMode(checkpointInterval, checkpointer);
+        interrupted.addEventDetector(new CrashDetector(crashDate));
+        start = System.nanoTime();
+        try {
+            interrupted.propagate(finalDate);
+        } catch (final IllegalStateException e) {
+            System.out.println("Propagation interrupted : " + e.getMessage());
+        }
+        final double interruptedDuration = (System.nanoTime() - start)*1.e-9;
+
+        // Resume from the last checkpoint with a brand new propagator and mass model
+        final SpacecraftState resumedState = resume(checkpointFile, TUC, GCRF, checkpointInterval, finalDate, true);
+
+        // Same resume, without the events bookkeeping : the maneuver is applied a second time
+        final SpacecraftState repeatedState = resume(checkpointFile, TUC, GCRF, checkpointInterval, finalDate, false);
+        //SPECIFIC
+
+        final Set<String> completedEvents = new LinkedHashSet<String>();
+        final SpacecraftState checkpoint = read(checkpointFile, TUC, GCRF, null, completedEvents);
+        final Vector3D refPos = referenceState.getPVCoordinates().getPosition();
+        final Vector3D resPos = resumedState.getPVCoordinates().getPosition();
+        System.out.println("Last checkpoint date = "+checkpoint.getDate().toString(TUC));
+        System.out.println("Events already processed at the last checkpoint = "+completedEvents);
+        System.out.println("Final position difference (resumed vs uninterrupted) = "+resPos.distance(refPos)+" m");
+        System.out.println("Bitwise identical = "+(refPos.getX() == resPos.getX() && refPos.getY() == resPos.getY()
+                && refPos.getZ() == resPos.getZ()));
+        System.out.println("Final mass difference = "+(resumedState.getMass("MAIN") - referenceState.getMass("MAIN"))+" kg");
+        System.out.println("Without events bookkeeping : final position difference = "
+                +repeatedState.getPVCoordinates().getPosition().distance(refPos)+" m, final mass difference = "
+                +(repeatedState.getMass("MAIN") - referenceState.getMass("MAIN"))+" kg");
+        System.out.println();
+        System.out.println(String.format("Checkpoints : %d written in %.3f ms (%.3f ms each)",
+                checkpointer.getNbCheckpoints(), checkpointer.getWriteDuration()*1.e3,
+                checkpointer.getWriteDuration()*1.e3/FastMath.max(1, checkpointer.getNbCheckpoints())));
+        System.out.println(String.format("Overhead : %.3f %% of the propagation time",
+                100.*checkpointer.getWriteDuration()/interruptedDuration));
+        System.out.println(String.format("Uninterrupted run : %.3f s", referenceDuration));
+
+    }
+
+    /**
+     * Method to resume a propagation from the last checkpoint (no checkpoint written).
+     * @param file        checkpoint file
+     * @param timeScale   time scale of the checkpoint
+     * @param frame       propagation frame
+     * @param interval    checkpoint interval (s)
+     * @param finalDate   final date
+     * @param bookkeeping if false, the events already processed are ignored (applied again)
+     * @return final state
+     * @throws IOException
+     * @throws PatriusException
+     */
+    private static SpacecraftState resume(final File file, final TimeScale timeScale, final Frame frame,
+            final double interval, final AbsoluteDate finalDate, final boolean bookkeeping)
+        throws IOException, PatriusException {
+
+        final Set<String> completedEvents = new LinkedHashSet<String>();
+        final Assembly assembly = buildAssembly();
+        final MassProvider mm = new MassModel(assembly);
+        final SpacecraftState checkpoint = read(file, timeScale, frame, mm, completedEvents);
+
+        final File resumedFile = File.createTempFile("propagation", ".ckp");
+        resumedFile.deleteOnExit();
+        final PropagationCheckpointer checkpointer = new PropagationCheckpointer(resumedFile, timeScale,
+                bookkeeping ? completedEvents : Collections.<String>emptySet());
+        final NumericalPropagator propagator = buildPropagator(frame, assembly, mm, checkpointer);
+        propagator.setMasterMode(interval, checkpointer);
+        propagator.resetInitialState(checkpoint);
+        return propagator.propagate(finalDate);
+
+    }
+
+    /**
+     * Date detector throwing an unchecked exception (simulated crash of the propagation).
+     */
+    private static class CrashDetector extends DateDetector {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor
+         * @param date date of the crash
+         */
+        public CrashDetector(final AbsoluteDate date) {
+            super(date);
+        }
+
+        @Override
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+            throw new IllegalStateException("Simulated crash at " + s.getDate());
+        }
+
+    }
+
+    /**
+     * Method to build the assembly of the spacecraft (same as NumericalPropagationWithLiftAndDragAndMSISE2000).
+     * @return assembly
+     * @throws PatriusException
+     */
+    private static Assembly buildAssembly() throws PatriusException {
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double cd = 2.0;
+        final double cl = 0.2;
+        final double sref = 10.;
+        builder.addProperty(new AeroGlobalProperty(cd, cl, new Sphere(Vector3D.ZERO, FastMath.sqrt(sref/FastMath.PI))), "MAIN");
+        builder.initMainPartFrame(new UpdatableFrame(FramesFactory.getGCRF(), Transform.IDENTITY, "mainPartFrame"));
+        return builder.returnAssembly();
+    }
+
+    /**
+     * Method to build the propagator : the same method is used for the first run and to resume, only
+     * the initial state differs.
+     * @param frame        propagation frame
+     * @param assembly     assembly of the spacecraft
+     * @param mm           mass model of the assembly
+     * @param checkpointer checkpointer handling the one-shot maneuver
+     * @return the propagator (without initial state)
+     * @throws PatriusException
+     */
+    private static NumericalPropagator buildPropagator(final Frame frame, final Assembly assembly,
+            final MassProvider mm, final PropagationCheckpointer checkpointer) throws PatriusException {
+
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                frame, OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.setMassProviderEquation(mm);
+
+        // Attitude law
+        final AttitudeLaw attitudeLaw = new LofOffset(LOFType.LVLH, RotationOrder.ZYX, 0., 0., 0.);
+        propagator.setAttitudeProvider(attitudeLaw);
+
+        // Atmospheric forces using MSISE2000 model
+        final EllipsoidBodyShape EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final Atmosphere atmosphere = new MSISE2000(new ClassicalMSISE2000SolarData(new ConstantSolarActivity(100, 15)),
+                EARTH, CelestialBodyFactory.getSun());
+        propagator.addForceModel(new DragForce(atmosphere, new DragLiftModel(assembly)));
+
+        // One-shot maneuver (5 m/s along the velocity) at the first crossing of the argument of latitude
+        // 90 deg : the detector triggers at each orbit, the maneuver must only be applied once
+        final EventDetector trigger = new AOLDetector(FastMath.toRadians(90.), PositionAngle.TRUE, frame);
+        final ImpulseManeuver maneuver = new ImpulseManeuver(trigger, new Vector3D(5., 0., 0.), 300., mm, "MAIN",
+                LOFType.TNW);
+        propagator.addEventDetector(checkpointer.once(maneuver, "DV1"));
+
+        return propagator;
+
+    }
+
+}
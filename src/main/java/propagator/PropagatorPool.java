@@ -0,0 +1,458 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.bodies.EllipsoidBodyShape;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.detectors.AltitudeDetector;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.forces.gravity.DirectBodyAttraction;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory.GravityFieldNames;
+import fr.cnes.sirius.patrius.forces.gravity.GravityModel;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Pool of pre-configured and warmed numerical propagators, all sharing the same force configuration.
+ * <p>
+ * The frames, bodies, force models and integrator are built once per propagator, when the pool is
+ * created, and each propagator is run a few times to warm up the JIT. A request then only checks a
+ * propagator out, resets its initial state, propagates and gives it back : the event detectors and
+ * step handlers added for the request are removed on return. A checked out propagator must only be
+ * used by the thread that got it.
+ * </p>
+ */
+public class PropagatorPool {
+
+    /**
+     * Builder of the pooled propagators : each call must return a new, fully configured, propagator.
+     */
+    public interface PropagatorFactory {
+
+        /**
+         * Method to build a propagator.
+         * @return the propagator (its initial state is set at each request)
+         * @throws PatriusException
+         * @throws IOException
+         * @throws ParseException
+         */
+        NumericalPropagator build() throws PatriusException, IOException, ParseException;
+
+    }
+
+    /** Size of the latencies reservoir. */
+    private static final int RESERVOIR_SIZE = 4096;
+
+    /** Available propagators. */
+    private final BlockingQueue<NumericalPropagator> available;
+
+    /** Propagators currently checked out. */
+    private final Set<NumericalPropagator> inUse =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<NumericalPropagator, Boolean>()));
+
+    private final int size;
+    private final double buildDuration;
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong nbRequests = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private final AtomicLong nbCheckouts = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /** Uniform sample of the request latencies (ns), see {@link #recordLatency(long)}. */
+    private final long[] latencies = new long[RESERVOIR_SIZE];
+    private final Random random = new Random(0);
+
+    /**
+     * Constructor : builds and warms all the propagators.
+     * @param size           number of propagators (typically the number of request threads)
+     * @param factory        builder of the propagators
+     * @param warmUpState    initial state of the warm-up propagations
+     * @param warmUpDuration duration of each warm-up propagation (s)
+     * @param warmUpRuns     number of warm-up propagations per propagator
+     * @throws PatriusException
+     * @throws IOException
+     * @throws ParseException
+     */
+    public PropagatorPool(final int size, final PropagatorFactory factory, final SpacecraftState warmUpState,
+            final double warmUpDuration, final int warmUpRuns) throws PatriusException, IOException, ParseException {
+
+        this.size = size;
+        this.available = new ArrayBlockingQueue<NumericalPropagator>(size);
+
+        final long start = System.nanoTime();
+        final AbsoluteDate warmUpDate = warmUpState.getDate().shiftedBy(warmUpDuration);
+        for (int i = 0; i < size; i++) {
+            final NumericalPropagator propagator = factory.build();
+            for (int j = 0; j < warmUpRuns; j++) {
+                propagator.resetInitialState(warmUpState);
+                propagator.propagate(warmUpDate);
+            }
+            available.add(propagator);
+        }
+        buildDuration = (System.nanoTime() - start)*1.e-9;
+
+    }
+
+    /**
+     * Method to get a propagator, waiting for one to be available if needed.
+     * @return a propagator, to be given back with {@link #release(NumericalPropagator)}
+     * @throws InterruptedException
+     */
+    public NumericalPropagator checkout() throws InterruptedException {
+
+        final long start = System.nanoTime();
+        final NumericalPropagator propagator = available.take();
+        final long wait = System.nanoTime() - start;
+
+        inUse.add(propagator);
+        nbCheckouts.incrementAndGet();
+        totalWait.addAndGet(wait);
+        updateMax(maxWait, wait);
+        final int nbInUse = inUse.size();
+        int peak = peakInUse.get();
+        while (nbInUse > peak && !peakInUse.compareAndSet(peak, nbInUse)) {
+            peak = peakInUse.get();
+        }
+        return propagator;
+
+    }
+
+    /**
+     * Method to give a propagator back : the request detectors and step handlers are removed.
+     * @param propagator propagator got with {@link #checkout()}
+     */
+    public void release(final NumericalPropagator propagator) {
+        if (!inUse.remove(propagator)) {
+            throw new IllegalArgumentException("Propagator not checked out from this pool");
+        }
+        propagator.clearEventsDetectors();
+        propagator.setSlaveMode();
+        available.add(propagator);
+    }
+
+    /**
+     * Method to run one request : checkout, reset, propagation and release.
+     * @param initialState initial state of the request
+     * @param finalDate    final date of the request
+     * @param detectors    event detectors of the request
+     * @return the final state
+     * @throws PatriusException
+     * @throws InterruptedException
+     */
+    public SpacecraftState propagate(final SpacecraftState initialState, final AbsoluteDate finalDate,
+            final EventDetector... detectors) throws PatriusException, InterruptedException {
+
+        final long start = System.nanoTime();
+        final NumericalPropagator propagator = checkout();
+        try {
+            propagator.resetInitialState(initialState);
+            for (final EventDetector detector : detectors) {
+                propagator.addEventDetector(detector);
+            }
+            return propagator.propagate(finalDate);
+        } finally {
+            release(propagator);
+            recordLatency(System.nanoTime() - start);
+        }
+
+    }
+
+    /**
+     * @return number of propagators of the pool
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return maximum number of propagators checked out at the same time
+     */
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+    /**
+     * Method to record the latency of a request in the reservoir.
+     * <p>
+     * The reservoir keeps a uniform sample of all the latencies in a fixed memory (reservoir sampling :
+     * the n-th latency replaces a random sample with probability size/n), so that the percentiles stay
+     * cheap to compute whatever the number of requests. The maximum is tracked separately.
+     * </p>
+     * @param latency latency of the request (ns)
+     */
+    private void recordLatency(final long latency) {
+        updateMax(maxLatency, latency);
+        synchronized (latencies) {
+            final long n = nbRequests.getAndIncrement();
+            if (n < RESERVOIR_SIZE) {
+                latencies[(int) n] = latency;
+            } else {
+                final long index = (long) (random.nextDouble()*(n + 1));
+                if (index < RESERVOIR_SIZE) {
+                    latencies[(int) index] = latency;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return mean time spent waiting for a propagator (s), over all the checkouts (direct or through
+     *         {@link #propagate}) : a large value means the pool is too small
+     */
+    public double getMeanWait() {
+        final long n = nbCheckouts.get();
+        return n == 0 ? 0. : totalWait.get()*1.e-9/n;
+    }
+
+    /**
+     * Method to get a percentile of the request latencies (checkout to release), estimated from the
+     * reservoir once there are more than {@value #RESERVOIR_SIZE} requests.
+     * @param percentile percentile (between 0 and 100)
+     * @return latency (s)
+     */
+    public double getLatency(final double percentile) {
+        final long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, (int) FastMath.min(nbRequests.get(), RESERVOIR_SIZE));
+        }
+        if (sorted.length == 0) {
+            return 0.;
+        }
+        Arrays.sort(sorted);
+        final int index = (int) FastMath.min(sorted.length - 1, FastMath.round(percentile/100.*(sorted.length - 1)));
+        return sorted[index]*1.e-9;
+    }
+
+    /**
+     * @return maximum request latency (s)
+     */
+    public double getMaxLatency() {
+        return maxLatency.get()*1.e-9;
+    }
+
+    /**
+     * @return a report of the pool metrics
+     */
+    public String getReport() {
+        return String.format("Pool of %d propagators built and warmed in %.3f s%n", size, buildDuration)
+                + String.format("Requests : %d ; checkouts : %d ; peak in use : %d%n", nbRequests.get(),
+                        nbCheckouts.get(), getPeakInUse())
+                + String.format("Wait for a propagator : mean %.3f ms, max %.3f ms%n", getMeanWait()*1.e3, maxWait.get()*1.e-6)
+                + String.format("Latency : p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms",
+                        getLatency(50.)*1.e3, getLatency(95.)*1.e3, getLatency(99.)*1.e3, getMaxLatency()*1.e3);
+    }
+
+    private static void updateMax(final AtomicLong max, final long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException,
+            URISyntaxException, InterruptedException, ExecutionException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit
+        final double sma = 6700.e+3;
+        final double exc = 0.001;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Mass model only used to initialize the mass of the request states
+        final MassProvider mm = new MassModel(buildAssembly());
+        final SpacecraftState iniState = new SpacecraftState(iniOrbit, mm);
+
+        // What-if requests : each one propagates a slightly different orbit over 1 period
+        final int nbRequests = 200;
+        final int nbThreads = Runtime.getRuntime().availableProcessors();
+        final double dt = iniOrbit.getKeplerianPeriod();
+        final EllipsoidBodyShape EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+
+        //SPECIFIC
+        final PropagatorFactory factory = new PropagatorFactory() {
+            public NumericalPropagator build() throws PatriusException, IOException, ParseException {
+                return buildPropagator(GCRF);
+            }
+        };
+
+        // First : the propagator stack is built for each request (as in the tutorials)
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        final List<Future<Double>> coldLatencies = new ArrayList<Future<Double>>();
+        for (int i = 0; i < nbRequests; i++) {
+            final SpacecraftState requestState = buildRequestState(iniOrbit, mm, i, nbRequests);
+            coldLatencies.add(executor.submit(new Callable<Double>() {
+                public Double call() throws Exception {
+                    final long start = System.nanoTime();
+                    final NumericalPropagator propagator = factory.build();
+                    propagator.resetInitialState(requestState);
+                    propagator.addEventDetector(new AltitudeDetector(150.e+3, EARTH));
+                    propagator.propagate(date.shiftedBy(dt));
+                    return (System.nanoTime() - start)*1.e-9;
+                }
+            }));
+        }
+        final double[] cold = new double[nbRequests];
+        for (int i = 0; i < nbRequests; i++) {
+            cold[i] = coldLatencies.get(i).get();
+        }
+        Arrays.sort(cold);
+
+        // Then : the same requests using the pool
+        final PropagatorPool pool = new PropagatorPool(nbThreads, factory, iniState, 600., 3);
+        final List<Future<SpacecraftState>> results = new ArrayList<Future<SpacecraftState>>();
+        for (int i = 0; i < nbRequests; i++) {
+            final SpacecraftState requestState = buildRequestState(iniOrbit, mm, i, nbRequests);
+            results.add(executor.submit(new Callable<SpacecraftState>() {
+                public SpacecraftState call() throws Exception {
+                    return pool.propagate(requestState, date.shiftedBy(dt), new AltitudeDetector(150.e+3, EARTH));
+                }
+            }));
+        }
+        double minSma = Double.POSITIVE_INFINITY;
+        for (final Future<SpacecraftState> result : results) {
+            minSma = FastMath.min(minSma, result.get().getA());
+        }
+        executor.shutdown();
+        //SPECIFIC
+
+        System.out.println(String.format("Without pool : p50 %.3f ms, p95 %.3f ms, max %.3f ms",
+                cold[nbRequests/2]*1.e3, cold[(int) (0.95*(nbRequests - 1))]*1.e3, cold[nbRequests - 1]*1.e3));
+        System.out.println();
+        System.out.println(pool.getReport());
+        System.out.println();
+        System.out.println("Minimum final semi major axis = "+minSma/1000.+" km");
+
+    }
+
+    /**
+     * Method to build the state of a request (the anomaly is shifted for each request).
+     * @param iniOrbit   nominal orbit
+     * @param mm         mass model
+     * @param index      request index
+     * @param nbRequests number of requests
+     * @return initial state of the request
+     */
+    private static SpacecraftState buildRequestState(final Orbit iniOrbit, final MassProvider mm, final int index,
+            final int nbRequests) {
+        final double dt = iniOrbit.getKeplerianPeriod()*index/nbRequests;
+        return new SpacecraftState(iniOrbit.shiftedBy(dt), mm);
+    }
+
+    /**
+     * Method to build the assembly of the spacecraft (same as NumericalPropagationWithDrag).
+     * @return assembly
+     */
+    private static Assembly buildAssembly() {
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double cd = 2.0;
+        final double sref = 10.;
+        builder.addProperty(new AeroSphereProperty(new Parameter("", sref), cd), "MAIN");
+        return builder.returnAssembly();
+    }
+
+    /**
+     * Method to build the full propagator stack : Earth, 8x8 gravity field, US76 drag and integrator.
+     * @param frame propagation frame
+     * @return the propagator (without initial state)
+     * @throws PatriusException
+     * @throws IOException
+     * @throws ParseException
+     */
+    private static NumericalPropagator buildPropagator(final Frame frame) throws PatriusException, IOException,
+            ParseException {
+
+        final Assembly assembly = buildAssembly();
+
+        // Initialization of the Runge Kutta integrator with a 2 s step
+        final double pasRk = 2.;
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                frame, OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.setMassProviderEquation(new MassModel(assembly));
+
+        // Gravity field (8x8)
+        final GravityModel potentiel = EarthGravitationalModelFactory.getDroziner(GravityFieldNames.GRGS, "grim4s4_gr", 8, 8, true);
+        propagator.addForceModel(new DirectBodyAttraction(potentiel));
+
+        // Atmospheric forces using US76 model
+        final EllipsoidBodyShape EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        propagator.addForceModel(new DragForce(new US76(EARTH), new AeroModel(assembly)));
+
+        return propagator;
+
+    }
+
+}
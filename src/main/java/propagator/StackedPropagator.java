@@ -0,0 +1,295 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.forces.gravity.DirectBodyAttraction;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory;
+import fr.cnes.sirius.patrius.forces.gravity.EarthGravitationalModelFactory.GravityFieldNames;
+import fr.cnes.sirius.patrius.forces.gravity.GravityModel;
+import fr.cnes.sirius.patrius.forces.gravity.ThirdBodyAttraction;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.frames.transformations.Transform;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.FirstOrderDifferentialEquations;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.CartesianOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.orbits.pvcoordinates.PVCoordinates;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PatriusExceptionWrapper;
+
+/**
+ * Propagation of K spacecraft in a single Runge-Kutta 4 integrator.
+ * <p>
+ * The K cartesian states are stacked in one state vector using a structure of arrays layout :
+ * the K X positions, then the K Y positions, ... then the K Z velocities. The date dependent
+ * quantities (inertial to body frame transform including EOP, third bodies positions) are computed
+ * once per integrator stage and shared by all the spacecraft, instead of once per spacecraft and
+ * per stage when using one {@link NumericalPropagator} per spacecraft.
+ * </p>
+ * <p>
+ * The force models are the Earth gravity field (as {@link DirectBodyAttraction}) and the point mass
+ * attraction of third bodies (as {@link ThirdBodyAttraction}) : with the same step, the results match
+ * the ones of individual cartesian propagations up to rounding errors.
+ * </p>
+ */
+public class StackedPropagator {
+
+    private final Frame frame;
+    private final GravityModel earthField;
+    private final Frame bodyFrame;
+    private final CelestialBody[] thirdBodies;
+    private final double step;
+
+    /**
+     * Constructor
+     * @param frame       inertial integration frame
+     * @param earthField  Earth gravity field (including the central term)
+     * @param bodyFrame   frame of the gravity field (ITRF)
+     * @param thirdBodies third bodies (point masses)
+     * @param step        integration step (s)
+     */
+    public StackedPropagator(final Frame frame, final GravityModel earthField, final Frame bodyFrame,
+            final CelestialBody[] thirdBodies, final double step) {
+        this.frame = frame;
+        this.earthField = earthField;
+        this.bodyFrame = bodyFrame;
+        this.thirdBodies = thirdBodies.clone();
+        this.step = step;
+    }
+
+    /**
+     * Method to propagate all the orbits.
+     * @param orbits    initial orbits (all at the same date)
+     * @param finalDate final date
+     * @return final orbits (cartesian, in the integration frame)
+     * @throws PatriusException
+     */
+    public List<Orbit> propagate(final List<Orbit> orbits, final AbsoluteDate finalDate) throws PatriusException {
+
+        final int k = orbits.size();
+        final AbsoluteDate initialDate = orbits.get(0).getDate();
+
+        // Stacked state vector (structure of arrays)
+        final double[] y = new double[6*k];
+        for (int i = 0; i < k; i++) {
+            final Orbit orbit = orbits.get(i);
+            if (orbit.getDate().durationFrom(initialDate) != 0.) {
+                throw new IllegalArgumentException("All the orbits must be given at the same date");
+            }
+            final PVCoordinates pv = orbit.getPVCoordinates(frame);
+            y[i] = pv.getPosition().getX();
+            y[k + i] = pv.getPosition().getY();
+            y[2*k + i] = pv.getPosition().getZ();
+            y[3*k + i] = pv.getVelocity().getX();
+            y[4*k + i] = pv.getVelocity().getY();
+            y[5*k + i] = pv.getVelocity().getZ();
+        }
+
+        final ClassicalRungeKuttaIntegrator integrator = new ClassicalRungeKuttaIntegrator(step);
+        try {
+            integrator.integrate(new StackedEquations(k, initialDate), 0., y, finalDate.durationFrom(initialDate), y);
+        } catch (final PatriusExceptionWrapper e) {
+            throw e.getException();
+        }
+
+        final List<Orbit> finalOrbits = new ArrayList<Orbit>(k);
+        for (int i = 0; i < k; i++) {
+            final PVCoordinates pv = new PVCoordinates(new Vector3D(y[i], y[k + i], y[2*k + i]),
+                    new Vector3D(y[3*k + i], y[4*k + i], y[5*k + i]));
+            finalOrbits.add(new CartesianOrbit(pv, frame, finalDate, orbits.get(i).getMu()));
+        }
+        return finalOrbits;
+
+    }
+
+    /**
+     * Equations of motion of the K spacecraft.
+     */
+    private final class StackedEquations implements FirstOrderDifferentialEquations {
+
+        private final int k;
+        private final AbsoluteDate initialDate;
+        private final double[] bodyX;
+        private final double[] bodyY;
+        private final double[] bodyZ;
+        private final double[] bodyMu;
+
+        /**
+         * Constructor
+         * @param k           number of spacecraft
+         * @param initialDate date of t = 0
+         */
+        StackedEquations(final int k, final AbsoluteDate initialDate) {
+            this.k = k;
+            this.initialDate = initialDate;
+            this.bodyX = new double[thirdBodies.length];
+            this.bodyY = new double[thirdBodies.length];
+            this.bodyZ = new double[thirdBodies.length];
+            this.bodyMu = new double[thirdBodies.length];
+            for (int b = 0; b < thirdBodies.length; b++) {
+                bodyMu[b] = thirdBodies[b].getGravityModel().getMu();
+            }
+        }
+
+        public int getDimension() {
+            return 6*k;
+        }
+
+        public void computeDerivatives(final double t, final double[] y, final double[] yDot) {
+
+            // Position derivatives : velocities
+            System.arraycopy(y, 3*k, yDot, 0, 3*k);
+
+            try {
+                // Date dependent quantities, computed once for all the spacecraft
+                final AbsoluteDate date = initialDate.shiftedBy(t);
+                final Transform toBody = frame.getTransformTo(bodyFrame, date);
+                final Transform fromBody = toBody.getInverse();
+                for (int b = 0; b < thirdBodies.length; b++) {
+                    final Vector3D pos = thirdBodies[b].getPVCoordinates(date, frame).getPosition();
+                    bodyX[b] = pos.getX();
+                    bodyY[b] = pos.getY();
+                    bodyZ[b] = pos.getZ();
+                }
+
+                for (int i = 0; i < k; i++) {
+                    final double x = y[i];
+                    final double yy = y[k + i];
+                    final double z = y[2*k + i];
+
+                    // Earth gravity field, computed in the body frame
+                    final Vector3D bodyPos = toBody.transformPosition(new Vector3D(x, yy, z));
+                    final Vector3D acc = fromBody.transformVector(earthField.computeAcceleration(bodyPos, date));
+                    double ax = acc.getX();
+                    double ay = acc.getY();
+                    double az = acc.getZ();
+
+                    // Third bodies : direct minus indirect terms
+                    for (int b = 0; b < thirdBodies.length; b++) {
+                        final double dx = bodyX[b] - x;
+                        final double dy = bodyY[b] - yy;
+                        final double dz = bodyZ[b] - z;
+                        final double d2 = dx*dx + dy*dy + dz*dz;
+                        final double r2 = bodyX[b]*bodyX[b] + bodyY[b]*bodyY[b] + bodyZ[b]*bodyZ[b];
+                        final double directFactor = bodyMu[b]/(d2*FastMath.sqrt(d2));
+                        final double indirectFactor = bodyMu[b]/(r2*FastMath.sqrt(r2));
+                        ax += directFactor*dx - indirectFactor*bodyX[b];
+                        ay += directFactor*dy - indirectFactor*bodyY[b];
+                        az += directFactor*dz - indirectFactor*bodyZ[b];
+                    }
+
+                    yDot[3*k + i] = ax;
+                    yDot[4*k + i] = ay;
+                    yDot[5*k + i] = az;
+                }
+            } catch (final PatriusException e) {
+                throw new PatriusExceptionWrapper(e);
+            }
+
+        }
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Nominal orbit of the constellation
+        final double sma = 7200.e+3;
+        final double exc = 0.01;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        // Force models : gravity field (8x8), Sun and Moon
+        final GravityModel potentiel = EarthGravitationalModelFactory.getDroziner(GravityFieldNames.GRGS, "grim4s4_gr", 8, 8, true);
+        final CelestialBody[] thirdBodies = { CelestialBodyFactory.getSun(), CelestialBodyFactory.getMoon() };
+
+        // Propagating 1000 s with a 5 s step
+        final double pasRk = 5.;
+        final AbsoluteDate finalDate = date.shiftedBy(1000.);
+
+        //SPECIFIC
+        final StackedPropagator stacked = new StackedPropagator(GCRF, potentiel, FramesFactory.getITRF(), thirdBodies, pasRk);
+
+        System.out.println("     K   individual (s)   stacked (s)   speedup   max position difference (m)");
+        for (final int k : new int[] { 10, 30, 100, 300, 1000 }) {
+
+            // Walker like constellation : planes and phasing spread over 360 deg
+            final List<Orbit> orbits = new ArrayList<Orbit>(k);
+            for (int i = 0; i < k; i++) {
+                final double raan = 2.*FastMath.PI*(i % 10)/10.;
+                final double anm = 2.*FastMath.PI*i/k;
+                final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+                orbits.add(new ApsisOrbit(par, GCRF, date));
+            }
+
+            // One propagator per spacecraft
+            long start = System.nanoTime();
+            final List<Orbit> individualOrbits = new ArrayList<Orbit>(k);
+            for (final Orbit orbit : orbits) {
+                final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                        GCRF, OrbitType.CARTESIAN, PositionAngle.TRUE);
+                propagator.resetInitialState(new SpacecraftState(orbit));
+                propagator.addForceModel(new DirectBodyAttraction(potentiel));
+                for (final CelestialBody body : thirdBodies) {
+                    propagator.addForceModel(new ThirdBodyAttraction(body.getGravityModel()));
+                }
+                individualOrbits.add(propagator.propagate(finalDate).getOrbit());
+            }
+            final double individualDuration = (System.nanoTime() - start)*1.e-9;
+
+            // All the spacecraft in one integrator
+            start = System.nanoTime();
+            final List<Orbit> stackedOrbits = stacked.propagate(orbits, finalDate);
+            final double stackedDuration = (System.nanoTime() - start)*1.e-9;
+
+            double maxDiff = 0.;
+            for (int i = 0; i < k; i++) {
+                maxDiff = FastMath.max(maxDiff, stackedOrbits.get(i).getPVCoordinates().getPosition()
+                        .distance(individualOrbits.get(i).getPVCoordinates().getPosition()));
+            }
+            System.out.println(String.format("%6d %16.3f %13.3f %9.1f %29.3e", k, individualDuration, stackedDuration,
+                    individualDuration/stackedDuration, maxDiff));
+        }
+        //SPECIFIC
+
+    }
+
+}
@@ -0,0 +1,665 @@
+package propagator;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.AeroModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroSphereProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.bodies.CelestialBody;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.bodies.LLHCoordinates;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.forces.atmospheres.Atmosphere;
+import fr.cnes.sirius.patrius.forces.atmospheres.MSISE2000;
+import fr.cnes.sirius.patrius.forces.atmospheres.US76;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.ConstantSolarActivity;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.SolarActivityDataProvider;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.specialized.ClassicalMSISE2000SolarData;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.parameter.Parameter;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Atmosphere decorator interpolating the density in precomputed tables.
+ * <p>
+ * A table samples the logarithm of the density over altitude, geodetic latitude and local solar time
+ * bins. One table is built, at first use, for each solar activity bin (F10.7 and Ap) and date bucket
+ * (seasonal effects), using a model built by an {@link AtmosphereFactory} for the bin activity. Once
+ * built, a table is checked in each of its interpolated dimensions (middle of the altitude, latitude and
+ * local time intervals, and center of the cells) : the steps of the dimensions exceeding the target are
+ * halved until the relative density error is below the target, and the reached bound is kept (see
+ * {@link #getErrorBound()}). A table missing the target after {@value #MAX_REFINEMENTS} refinements is
+ * not used : the full model is called instead for its solar activity bin and date bucket. Outside of the
+ * altitude range of the tables, the full model is used too.
+ * </p>
+ * <p>
+ * The solar activity bins and date buckets are not checked : the density of a table is the one of the
+ * center of its bin and bucket, so the error bound is an estimate of the interpolation error only, the
+ * quantization error of the activity and date being driven by the chosen bin widths.
+ * </p>
+ * <p>
+ * The tables are immutable once built and shared by the copies of an instance. The full model (used
+ * outside of the tables, for the rejected tables, the velocity and the speed of sound) is not
+ * thread-safe : {@link #copy()} returns an instance wrapping a copy of it, to be used by each thread.
+ * </p>
+ */
+public class TabulatedAtmosphere implements Atmosphere {
+
+    /**
+     * Builder of the atmosphere model used to fill a table.
+     */
+    public interface AtmosphereFactory {
+
+        /**
+         * Method to build the model for a given solar activity.
+         * @param f107 solar flux
+         * @param ap   geomagnetic index
+         * @return the atmosphere model
+         * @throws PatriusException
+         */
+        Atmosphere build(double f107, double ap) throws PatriusException;
+
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of refinements of the steps. */
+    private static final int MAX_REFINEMENTS = 4;
+
+    /** Maximum number of points of a table. */
+    private static final int MAX_POINTS = 4000000;
+
+    private final Atmosphere model;
+    private final AtmosphereFactory factory;
+    private final SolarActivityDataProvider solarActivity;
+    private final OneAxisEllipsoid earth;
+    private final CelestialBody sun;
+    private final double minAltitude;
+    private final double maxAltitude;
+    private final double altitudeStep;
+    private final double latitudeStep;
+    private final double localTimeStep;
+    private final double fluxStep;
+    private final double apStep;
+    private final double bucketDuration;
+    private final double targetError;
+
+    /** Tables and statistics, shared by the copies. */
+    private final Shared shared;
+
+    /**
+     * Tables and statistics shared by an instance and its copies (the tables being immutable once built,
+     * errorBound and buildDuration being only updated under the lock of the tables map).
+     */
+    private static final class Shared implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final Map<String, Table> tables = new ConcurrentHashMap<String, Table>();
+        private final AtomicLong nbCalls = new AtomicLong();
+        private final AtomicLong nbFallbacks = new AtomicLong();
+        private final AtomicLong nbRejectedTables = new AtomicLong();
+        private volatile double errorBound = 0.;
+        private volatile double buildDuration = 0.;
+
+    }
+
+    /**
+     * Constructor
+     * @param model          full model (used outside of the tables, for velocities and speed of sound)
+     * @param factory        builder of the models used to fill the tables
+     * @param solarActivity  solar activity of the full model (null if the model does not depend on it)
+     * @param earth          Earth shape used by the full model
+     * @param sun            Sun (null if the model only depends on the altitude)
+     * @param minAltitude    minimum altitude of the tables (m)
+     * @param maxAltitude    maximum altitude of the tables (m)
+     * @param altitudeStep   initial altitude step (m)
+     * @param latitudeStep   latitude step (rad), 0 if the model does not depend on the latitude
+     * @param localTimeStep  local solar time step (h), 0 if the model does not depend on the local time
+     * @param fluxStep       width of the F10.7 bins
+     * @param apStep         width of the Ap bins
+     * @param bucketDuration duration of the date buckets (s), infinite if the model does not depend on the date
+     * @param targetError    target relative density error (checked for each table)
+     */
+    public TabulatedAtmosphere(final Atmosphere model, final AtmosphereFactory factory,
+            final SolarActivityDataProvider solarActivity, final OneAxisEllipsoid earth, final CelestialBody sun,
+            final double minAltitude, final double maxAltitude, final double altitudeStep, final double latitudeStep,
+            final double localTimeStep, final double fluxStep, final double apStep, final double bucketDuration,
+            final double targetError) {
+        this.model = model;
+        this.factory = factory;
+        this.solarActivity = solarActivity;
+        this.earth = earth;
+        this.sun = sun;
+        this.minAltitude = minAltitude;
+        this.maxAltitude = maxAltitude;
+        this.altitudeStep = altitudeStep;
+        this.latitudeStep = latitudeStep;
+        this.localTimeStep = localTimeStep;
+        this.fluxStep = fluxStep;
+        this.apStep = apStep;
+        this.bucketDuration = bucketDuration;
+        this.targetError = targetError;
+        this.shared = new Shared();
+    }
+
+    /**
+     * Constructor of a copy, sharing the tables of the original instance.
+     * @param original original instance
+     * @param model    copy of the full model
+     */
+    private TabulatedAtmosphere(final TabulatedAtmosphere original, final Atmosphere model) {
+        this.model = model;
+        this.factory = original.factory;
+        this.solarActivity = original.solarActivity;
+        this.earth = original.earth;
+        this.sun = original.sun;
+        this.minAltitude = original.minAltitude;
+        this.maxAltitude = original.maxAltitude;
+        this.altitudeStep = original.altitudeStep;
+        this.latitudeStep = original.latitudeStep;
+        this.localTimeStep = original.localTimeStep;
+        this.fluxStep = original.fluxStep;
+        this.apStep = original.apStep;
+        this.bucketDuration = original.bucketDuration;
+        this.targetError = original.targetError;
+        this.shared = original.shared;
+    }
+
+    public double getDensity(final AbsoluteDate date, final Vector3D position, final Frame frame)
+            throws PatriusException {
+
+        shared.nbCalls.incrementAndGet();
+
+        final LLHCoordinates llh = earth.buildPoint(position, frame, date, "").getLLHCoordinates();
+        final double altitude = llh.getHeight();
+        if (altitude < minAltitude || altitude > maxAltitude) {
+            shared.nbFallbacks.incrementAndGet();
+            return model.getDensity(date, position, frame);
+        }
+
+        final Table table = getTable(date);
+        if (table.rejected) {
+            // The table did not reach the target error : the full model is used for its bin and bucket
+            shared.nbFallbacks.incrementAndGet();
+            return model.getDensity(date, position, frame);
+        }
+
+        final double localTime = sun == null ? 0. : localTime(date, llh.getLongitude());
+        return table.interpolate(altitude, llh.getLatitude(), localTime);
+
+    }
+
+    public Vector3D getVelocity(final AbsoluteDate date, final Vector3D position, final Frame frame)
+            throws PatriusException {
+        return model.getVelocity(date, position, frame);
+    }
+
+    public double getSpeedOfSound(final AbsoluteDate date, final Vector3D position, final Frame frame)
+            throws PatriusException {
+        return model.getSpeedOfSound(date, position, frame);
+    }
+
+    public Atmosphere copy() {
+        // The full model keeps internal caches : each copy has its own one
+        return new TabulatedAtmosphere(this, model.copy());
+    }
+
+    public void checkSolarActivityData(final AbsoluteDate start, final AbsoluteDate end) throws PatriusException {
+        model.checkSolarActivityData(start, end);
+    }
+
+    /**
+     * @return maximum relative density error measured on the used tables (interpolation error only)
+     */
+    public double getErrorBound() {
+        return shared.errorBound;
+    }
+
+    /**
+     * @return number of tables not reaching the target error (replaced by the full model)
+     */
+    public long getNbRejectedTables() {
+        return shared.nbRejectedTables.get();
+    }
+
+    /**
+     * @return number of built tables
+     */
+    public int getNbTables() {
+        return shared.tables.size();
+    }
+
+    /**
+     * @return cumulated time spent building and checking the tables (s)
+     */
+    public double getBuildDuration() {
+        return shared.buildDuration;
+    }
+
+    /**
+     * @return ratio of the calls computed by the full model
+     */
+    public double getFallbackRatio() {
+        final long n = shared.nbCalls.get();
+        return n == 0 ? 0. : (double) shared.nbFallbacks.get()/n;
+    }
+
+    /**
+     * Method to compute the local solar time.
+     * @param date      date
+     * @param longitude geodetic longitude (rad)
+     * @return local solar time (h, in [0, 24[)
+     * @throws PatriusException
+     */
+    private double localTime(final AbsoluteDate date, final double longitude) throws PatriusException {
+        final Vector3D sunPos = sun.getPVCoordinates(date, earth.getBodyFrame()).getPosition();
+        final double sunLongitude = FastMath.atan2(sunPos.getY(), sunPos.getX());
+        final double h = 12. + (longitude - sunLongitude)*12./FastMath.PI;
+        return h - 24.*FastMath.floor(h/24.);
+    }
+
+    /**
+     * Method to get (building it if needed) the table of a date.
+     * @param date date
+     * @return the table
+     * @throws PatriusException
+     */
+    private Table getTable(final AbsoluteDate date) throws PatriusException {
+
+        final double f107 = solarActivity == null ? 0. : fluxStep*FastMath.round(solarActivity.getInstantFluxValue(date)/fluxStep);
+        final double ap = solarActivity == null ? 0. : apStep*FastMath.round(solarActivity.getAp(date)/apStep);
+        final long bucket = Double.isInfinite(bucketDuration) ? 0 :
+            (long) FastMath.floor(date.durationFrom(AbsoluteDate.J2000_EPOCH)/bucketDuration);
+        final String key = f107 + "/" + ap + "/" + bucket;
+
+        Table table = shared.tables.get(key);
+        if (table == null) {
+            synchronized (shared.tables) {
+                table = shared.tables.get(key);
+                if (table == null) {
+                    final long start = System.nanoTime();
+                    final AbsoluteDate tableDate = Double.isInfinite(bucketDuration) ? date :
+                        AbsoluteDate.J2000_EPOCH.shiftedBy((bucket + 0.5)*bucketDuration);
+                    table = build(factory.build(f107, ap), tableDate);
+                    shared.tables.put(key, table);
+                    shared.buildDuration += (System.nanoTime() - start)*1.e-9;
+                }
+            }
+        }
+        return table;
+
+    }
+
+    /**
+     * Method to build a table, refining its steps until the target error is reached.
+     * @param atmosphere model used to fill the table
+     * @param date       date of the table
+     * @return the table (flagged as rejected if the target error is not reached)
+     * @throws PatriusException
+     */
+    private Table build(final Atmosphere atmosphere, final AbsoluteDate date) throws PatriusException {
+
+        final Vector3D sunPos = sun == null ? Vector3D.PLUS_I : sun.getPVCoordinates(date, earth.getBodyFrame()).getPosition();
+        final double sunLongitude = FastMath.atan2(sunPos.getY(), sunPos.getX());
+
+        double altStep = altitudeStep;
+        double latStep = latitudeStep;
+        double lstStep = localTimeStep;
+        Table table = null;
+        for (int refinement = 0; refinement <= MAX_REFINEMENTS; refinement++) {
+
+            final Table refined = new Table(altStep, latStep, lstStep);
+            if ((double) refined.nbAlt*refined.nbLat*refined.nbLst > MAX_POINTS) {
+                // Too large : the previous table, which missed the target, is kept
+                if (table == null) {
+                    table = refined;
+                    table.error = Double.POSITIVE_INFINITY;
+                }
+                break;
+            }
+            table = refined;
+            fill(table, atmosphere, date, sunLongitude);
+
+            // Check in the middle of the intervals of each dimension, then at the center of the cells
+            final double altError = check(table, atmosphere, date, sunLongitude, 0.5, 0., 0.);
+            final double latError = table.nbLat == 1 ? 0. : check(table, atmosphere, date, sunLongitude, 0., 0.5, 0.);
+            final double lstError = table.nbLst == 1 ? 0. : check(table, atmosphere, date, sunLongitude, 0., 0., 0.5);
+            final double cellError = table.nbLat == 1 && table.nbLst == 1 ? altError :
+                check(table, atmosphere, date, sunLongitude, 0.5, 0.5, 0.5);
+            table.error = FastMath.max(FastMath.max(altError, latError), FastMath.max(lstError, cellError));
+            if (table.error <= targetError) {
+                break;
+            }
+
+            // Only the dimensions having a large error are refined (all of them if the error only
+            // shows at the center of the cells)
+            final double limit = 0.5*targetError;
+            final boolean all = altError <= limit && latError <= limit && lstError <= limit;
+            altStep *= all || altError > limit ? 0.5 : 1.;
+            latStep *= all || latError > limit ? 0.5 : 1.;
+            lstStep *= all || lstError > limit ? 0.5 : 1.;
+        }
+
+        if (table.error > targetError) {
+            table.rejected = true;
+            shared.nbRejectedTables.incrementAndGet();
+        } else {
+            shared.errorBound = FastMath.max(shared.errorBound, table.error);
+        }
+        return table;
+
+    }
+
+    /**
+     * Method to fill a table with the model densities (the values are allocated here, once the size of
+     * the table has been checked).
+     * @param table        table
+     * @param atmosphere   model used to fill the table
+     * @param date         date of the table
+     * @param sunLongitude longitude of the Sun (rad)
+     * @throws PatriusException
+     */
+    private void fill(final Table table, final Atmosphere atmosphere, final AbsoluteDate date,
+            final double sunLongitude) throws PatriusException {
+        final Frame bodyFrame = earth.getBodyFrame();
+        table.logRho = new double[table.nbAlt*table.nbLat*table.nbLst];
+        for (int ia = 0; ia < table.nbAlt; ia++) {
+            for (int il = 0; il < table.nbLat; il++) {
+                for (int it = 0; it < table.nbLst; it++) {
+                    final Vector3D pos = position(minAltitude + ia*table.altStep, table.latitude(il),
+                            table.localTime(it), sunLongitude);
+                    table.logRho[table.index(ia, il, it)] = FastMath.log(atmosphere.getDensity(date, pos, bodyFrame));
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to compute the maximum relative error of a table, on points shifted from the nodes by a
+     * fraction of the steps (0.5 : middle of the intervals).
+     * @param table        table
+     * @param atmosphere   model used to fill the table
+     * @param date         date of the table
+     * @param sunLongitude longitude of the Sun (rad)
+     * @param altShift     shift in altitude (fraction of the step)
+     * @param latShift     shift in latitude (fraction of the step)
+     * @param lstShift     shift in local time (fraction of the step)
+     * @return maximum relative density error
+     * @throws PatriusException
+     */
+    private double check(final Table table, final Atmosphere atmosphere, final AbsoluteDate date,
+            final double sunLongitude, final double altShift, final double latShift, final double lstShift)
+            throws PatriusException {
+        final Frame bodyFrame = earth.getBodyFrame();
+        double maxError = 0.;
+        for (int ia = 0; ia < table.nbAlt - (altShift > 0. ? 1 : 0); ia++) {
+            for (int il = 0; il < table.nbLat - (latShift > 0. ? 1 : 0); il++) {
+                for (int it = 0; it < table.nbLst; it++) {
+                    final double alt = FastMath.min(maxAltitude, minAltitude + (ia + altShift)*table.altStep);
+                    final double lat = table.nbLat == 1 ? 0. : table.latitude(il) + latShift*table.latStep;
+                    final double lst = table.nbLst == 1 ? 0. : table.localTime(it) + lstShift*table.lstStep;
+                    final double exact = atmosphere.getDensity(date, position(alt, lat, lst, sunLongitude), bodyFrame);
+                    maxError = FastMath.max(maxError, FastMath.abs(table.interpolate(alt, lat, lst)/exact - 1.));
+                }
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Method to compute a position in the Earth frame from geodetic coordinates and local time.
+     * @param altitude     altitude (m)
+     * @param latitude     geodetic latitude (rad)
+     * @param localTime    local solar time (h)
+     * @param sunLongitude longitude of the Sun (rad)
+     * @return position in the Earth frame
+     */
+    private Vector3D position(final double altitude, final double latitude, final double localTime,
+            final double sunLongitude) {
+        final double longitude = sunLongitude + (localTime - 12.)*FastMath.PI/12.;
+        final double ae = earth.getEquatorialRadius();
+        final double f = earth.getFlattening();
+        final double e2 = f*(2. - f);
+        final double sinLat = FastMath.sin(latitude);
+        final double cosLat = FastMath.cos(latitude);
+        final double n = ae/FastMath.sqrt(1. - e2*sinLat*sinLat);
+        return new Vector3D((n + altitude)*cosLat*FastMath.cos(longitude), (n + altitude)*cosLat*FastMath.sin(longitude),
+                (n*(1. - e2) + altitude)*sinLat);
+    }
+
+    /**
+     * Density table : logarithm of the density on an altitude x latitude x local time grid.
+     */
+    private final class Table implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double altStep;
+        private final double latStep;
+        private final double lstStep;
+        private final int nbAlt;
+        private final int nbLat;
+        private final int nbLst;
+        private double[] logRho;
+        private double error;
+        private boolean rejected;
+
+        /**
+         * Constructor
+         * @param altStep altitude step (m)
+         * @param latStep latitude step (rad), 0 if the model does not depend on the latitude
+         * @param lstStep local solar time step (h), 0 if the model does not depend on the local time
+         */
+        Table(final double altStep, final double latStep, final double lstStep) {
+            this.altStep = altStep;
+            this.latStep = latStep;
+            this.lstStep = lstStep;
+            this.nbAlt = (int) FastMath.ceil((maxAltitude - minAltitude)/altStep) + 1;
+            this.nbLat = latStep > 0. ? (int) FastMath.round(FastMath.PI/latStep) + 1 : 1;
+            this.nbLst = lstStep > 0. ? (int) FastMath.round(24./lstStep) : 1;
+        }
+
+        int index(final int ia, final int il, final int it) {
+            return (ia*nbLat + il)*nbLst + it;
+        }
+
+        double latitude(final int il) {
+            return nbLat == 1 ? 0. : -0.5*FastMath.PI + il*latStep;
+        }
+
+        double localTime(final int it) {
+            return nbLst == 1 ? 0. : it*lstStep;
+        }
+
+        /**
+         * Method to interpolate the density (trilinear interpolation of the logarithm, periodic in local time).
+         * @param altitude  altitude (m)
+         * @param latitude  geodetic latitude (rad)
+         * @param localTime local solar time (h)
+         * @return density (kg/m3)
+         */
+        double interpolate(final double altitude, final double latitude, final double localTime) {
+
+            final double xa = (altitude - minAltitude)/altStep;
+            final int ia = (int) FastMath.min(nbAlt - 2, FastMath.max(0, (int) FastMath.floor(xa)));
+            final double wa = xa - ia;
+
+            int il = 0;
+            double wl = 0.;
+            int il1 = 0;
+            if (nbLat > 1) {
+                final double xl = (latitude + 0.5*FastMath.PI)/latStep;
+                il = (int) FastMath.min(nbLat - 2, FastMath.max(0, (int) FastMath.floor(xl)));
+                wl = xl - il;
+                il1 = il + 1;
+            }
+
+            int it = 0;
+            double wt = 0.;
+            int it1 = 0;
+            if (nbLst > 1) {
+                final double xt = localTime/lstStep;
+                it = ((int) FastMath.floor(xt)) % nbLst;
+                wt = xt - FastMath.floor(xt);
+                it1 = (it + 1) % nbLst;
+            }
+
+            final double c00 = (1. - wt)*logRho[index(ia, il, it)] + wt*logRho[index(ia, il, it1)];
+            final double c01 = (1. - wt)*logRho[index(ia, il1, it)] + wt*logRho[index(ia, il1, it1)];
+            final double c10 = (1. - wt)*logRho[index(ia + 1, il, it)] + wt*logRho[index(ia + 1, il, it1)];
+            final double c11 = (1. - wt)*logRho[index(ia + 1, il1, it)] + wt*logRho[index(ia + 1, il1, it1)];
+            final double c0 = (1. - wl)*c00 + wl*c01;
+            final double c1 = (1. - wl)*c10 + wl*c11;
+            return FastMath.exp((1. - wa)*c0 + wa*c1);
+
+        }
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Initial orbit : 500 km altitude, so that the spacecraft of NumericalPropagationWithDrag
+        // (Cd.S/m = 0.2 m2/kg) stays in orbit over the whole propagation
+        final double sma = Constants.WGS84_EARTH_EQUATORIAL_RADIUS + 500.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        // Definition of the Earth ellipsoid for later atmospheric density computation
+        final OneAxisEllipsoid EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final CelestialBody sun = CelestialBodyFactory.getSun();
+
+        // Propagating 30 days (10 s step to keep the full model runs short)
+        final AbsoluteDate finalDate = date.shiftedBy(30.*Constants.JULIAN_DAY);
+        final double pasRk = 10.;
+
+        //SPECIFIC
+        // US76 : density only depends on the altitude
+        final Atmosphere us76 = new US76(EARTH);
+        final TabulatedAtmosphere tabulatedUs76 = new TabulatedAtmosphere(us76, new AtmosphereFactory() {
+            public Atmosphere build(final double f107, final double ap) {
+                return new US76(EARTH);
+            }
+        }, null, EARTH, null, 100.e+3, 1000.e+3, 2.e+3, 0., 0., 1., 1., Double.POSITIVE_INFINITY, 1.e-3);
+
+        // MSISE2000 : altitude, latitude, local time, solar activity and date buckets of 10 days
+        final SolarActivityDataProvider solarProvider = new ConstantSolarActivity(100, 15);
+        final Atmosphere msise = new MSISE2000(new ClassicalMSISE2000SolarData(solarProvider), EARTH, sun);
+        final TabulatedAtmosphere tabulatedMsise = new TabulatedAtmosphere(msise, new AtmosphereFactory() {
+            public Atmosphere build(final double f107, final double ap) {
+                return new MSISE2000(new ClassicalMSISE2000SolarData(new ConstantSolarActivity(f107, ap)), EARTH, sun);
+            }
+        }, solarProvider, EARTH, sun, 100.e+3, 1000.e+3, 5.e+3, FastMath.toRadians(10.), 1., 10., 5.,
+                10.*Constants.JULIAN_DAY, 1.e-2);
+
+        final Atmosphere[][] cases = { { us76, tabulatedUs76 }, { msise, tabulatedMsise } };
+        final String[] names = { "US76", "MSISE2000" };
+        for (int c = 0; c < cases.length; c++) {
+            final double[] decay = new double[2];
+            final double[] duration = new double[2];
+            final double[] span = new double[2];
+            for (int k = 0; k < 2; k++) {
+                final long start = System.nanoTime();
+                final SpacecraftState finalState = propagate(iniOrbit, cases[c][k], pasRk, finalDate);
+                duration[k] = (System.nanoTime() - start)*1.e-9;
+                decay[k] = iniOrbit.getA() - finalState.getA();
+                span[k] = finalState.getDate().durationFrom(date)/Constants.JULIAN_DAY;
+            }
+            final TabulatedAtmosphere tabulated = (TabulatedAtmosphere) cases[c][1];
+            System.out.println(names[c]+" :");
+            System.out.println(String.format("  SMA decay over %.1f / %.1f days : full %.3f m, tabulated %.3f m (%.3f %%)",
+                    span[0], span[1], decay[0], decay[1], 100.*(decay[1] - decay[0])/decay[0]));
+            System.out.println(String.format("  Propagation : full %.3f s, tabulated %.3f s (speedup %.1f)", duration[0],
+                    duration[1], duration[0]/duration[1]));
+            System.out.println(String.format("  %d table(s) built in %.3f s (%d rejected), density error bound %.2e, fallback ratio %.2e",
+                    tabulated.getNbTables(), tabulated.getBuildDuration(), tabulated.getNbRejectedTables(),
+                    tabulated.getErrorBound(), tabulated.getFallbackRatio()));
+        }
+        //SPECIFIC
+
+    }
+
+    /**
+     * Method to propagate the drag scenario with a given atmosphere.
+     * @param iniOrbit   initial orbit
+     * @param atmosphere atmosphere model
+     * @param pasRk      integration step (s)
+     * @param finalDate  final date
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final Orbit iniOrbit, final Atmosphere atmosphere, final double pasRk,
+            final AbsoluteDate finalDate) throws PatriusException {
+
+        // Mass model using an Assembly (same as NumericalPropagationWithDrag)
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double cd = 2.0;
+        final double sref = 10.;
+        builder.addProperty(new AeroSphereProperty(new Parameter("", sref), cd), "MAIN");
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(pasRk),
+                iniOrbit.getFrame(), OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        propagator.addForceModel(new DragForce(atmosphere, new AeroModel(assembly)));
+        return propagator.propagate(finalDate);
+
+    }
+
+}
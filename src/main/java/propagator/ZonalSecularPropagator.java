@@ -0,0 +1,309 @@
+package propagator;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.events.EventDetector;
+import fr.cnes.sirius.patrius.events.detectors.AOLDetector;
+import fr.cnes.sirius.patrius.forces.gravity.DirectBodyAttraction;
+import fr.cnes.sirius.patrius.forces.gravity.GravityModel;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.KeplerianOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.AbstractPropagator;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.propagation.sampling.PatriusFixedStepHandler;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+import fr.cnes.sirius.patrius.utils.exception.PropagationException;
+
+/**
+ * Analytical propagator taking into account the secular effects of the J2, J3 and J4 zonal terms.
+ * <p>
+ * The mean semi major axis, eccentricity and inclination are constant; the right ascension of the
+ * ascending node, the perigee argument and the mean anomaly drift linearly (first order J2 and J4
+ * terms, second order J2 terms on the node and perigee, Vallado formulation). J3 has no secular
+ * effect at this order. The initial semi major axis is corrected from its first order J2 short
+ * period term, the other elements are used as mean elements.
+ * </p>
+ * <p>
+ * Accuracy limit : the mean anomaly rate only holds the first order J2 term; its J2<sup>2</sup> and J4
+ * terms are missing, as are the short period terms of the elements other than the semi major axis.
+ * The resulting mean motion error is of relative order J2<sup>2</sup> (about 1.e-6), so the along-track
+ * error grows linearly with time : typically a few hundred meters to a few kilometers per day in low
+ * Earth orbit. The propagator is therefore meant for screening over a few days, not for precise
+ * along-track predictions. The J2, J4, equatorial radius and mu given to the constructor must come from
+ * the same gravity field as the reference it is compared to.
+ * </p>
+ * <p>
+ * Being an {@link AbstractPropagator}, it offers the same step handlers (master mode) and event
+ * detectors as the numerical propagator, at the cost of a Keplerian orbit computation per call.
+ * </p>
+ */
+public class ZonalSecularPropagator extends AbstractPropagator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double ae;
+    private final double j2;
+    private final double j4;
+
+    private AbsoluteDate epoch;
+    private Frame frame;
+    private double mu;
+    private double a;
+    private double e;
+    private double i;
+    private double pa0;
+    private double raan0;
+    private double m0;
+    private double paDot;
+    private double raanDot;
+    private double mDot;
+
+    /**
+     * Constructor
+     * @param initialOrbit initial (osculating) orbit
+     * @param ae           equatorial radius of the potential (m)
+     * @param j2           J2 zonal coefficient (unnormalized, J2 = -C20)
+     * @param j4           J4 zonal coefficient (unnormalized, J4 = -C40)
+     * @throws PropagationException
+     */
+    public ZonalSecularPropagator(final Orbit initialOrbit, final double ae, final double j2, final double j4)
+            throws PropagationException {
+        super(null);
+        this.ae = ae;
+        this.j2 = j2;
+        this.j4 = j4;
+        resetInitialState(new SpacecraftState(initialOrbit));
+    }
+
+    @Override
+    public void resetInitialState(final SpacecraftState state) throws PropagationException {
+        super.resetInitialState(state);
+        computeMeanElements(state.getOrbit());
+    }
+
+    /**
+     * Method to compute the mean elements and their secular rates.
+     * @param orbit osculating orbit
+     */
+    private void computeMeanElements(final Orbit orbit) {
+
+        final KeplerianOrbit kep = new KeplerianOrbit(orbit);
+        epoch = orbit.getDate();
+        frame = orbit.getFrame();
+        mu = orbit.getMu();
+        e = kep.getE();
+        i = kep.getI();
+        pa0 = kep.getPerigeeArgument();
+        raan0 = kep.getRightAscensionOfAscendingNode();
+        m0 = kep.getMeanAnomaly();
+
+        final double sinI = FastMath.sin(i);
+        final double s2 = sinI*sinI;
+        final double s4 = s2*s2;
+        final double cosI = FastMath.cos(i);
+        final double e2 = e*e;
+        final double eta = FastMath.sqrt(1. - e2);
+
+        // First order short period term of the semi major axis (Kozai)
+        final double aOsc = kep.getA();
+        final double p0 = aOsc*(1. - e2);
+        final double r = p0/(1. + e*FastMath.cos(kep.getTrueAnomaly()));
+        final double ar3 = FastMath.pow(aOsc/r, 3);
+        final double twoU = 2.*(pa0 + kep.getTrueAnomaly());
+        a = aOsc - j2*ae*ae/aOsc*((1. - 1.5*s2)*(ar3 - 1./(eta*eta*eta)) + 1.5*s2*ar3*FastMath.cos(twoU));
+
+        // Secular rates
+        final double n = FastMath.sqrt(mu/(a*a*a));
+        final double p = a*(1. - e2);
+        final double k2 = (ae/p)*(ae/p);
+        final double k4 = k2*k2;
+
+        raanDot = -1.5*n*j2*k2*cosI
+                + 3./32.*n*j2*j2*k4*cosI*(12. - 4.*e2 - (80. + 5.*e2)*s2)
+                + 15./32.*n*j4*k4*cosI*(8. + 12.*e2 - (14. + 21.*e2)*s2);
+        paDot = 0.75*n*j2*k2*(4. - 5.*s2)
+                + 9./384.*n*j2*j2*k4*(56.*e2 + (760. - 36.*e2)*s2 - (890. + 45.*e2)*s4)
+                - 15./128.*n*j4*k4*(64. + 72.*e2 - (248. + 252.*e2)*s2 + (196. + 189.*e2)*s4);
+        mDot = n*(1. + 0.75*j2*k2*eta*(2. - 3.*s2));
+
+    }
+
+    @Override
+    protected Orbit propagateOrbit(final AbsoluteDate date) throws PropagationException {
+        final double dt = date.durationFrom(epoch);
+        return new KeplerianOrbit(a, e, i, pa0 + paDot*dt, raan0 + raanDot*dt, m0 + mDot*dt, PositionAngle.MEAN,
+                frame, date, mu);
+    }
+
+    /**
+     * @return secular drift of the ascending node (rad/s)
+     */
+    public double getRaanDot() {
+        return raanDot;
+    }
+
+    /**
+     * @return secular drift of the perigee argument (rad/s)
+     */
+    public double getPerigeeArgumentDot() {
+        return paDot;
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Recovery of the UTC time scale using a "factory" (not to duplicate such unique object)
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+
+        // Date of the orbit given in UTC time scale)
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+
+        // Getting the frame with wich will defined the orbit parameters
+        // As for time scale, we will use also a "factory".
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        // Zonal gravity field up to degree 4 : the numerical reference and the zonal coefficients
+        // of the analytical propagator come from the same coefficients
+        final GravityCoefficientStore store = GravityCoefficientStore.getInstance("grim4s4_gr", 4, 0, null);
+        final GravityModel potentiel = store.getDroziner(4, 0);
+        final double[][] C = store.getC(4, 0);
+        final double MU = store.getMu();
+        final double AE = store.getAe();
+        final double J2 = -C[2][0];
+        final double J4 = -C[4][0];
+
+        // Screening orbits : perigee, apogee (altitudes in km) and inclination (deg)
+        final double[][] cases = { { 700., 700., 98. }, { 1200., 1200., 50. }, { 500., 2000., 63.4 } };
+        final double[] envelopeDays = { 1., 3., 7. };
+        final double sampleStep = 60.;
+        final AbsoluteDate finalDate = date.shiftedBy(envelopeDays[envelopeDays.length - 1]*Constants.JULIAN_DAY);
+
+        System.out.println("Orbit (km, deg)          max position error (km) after 1 / 3 / 7 days      nodes   speedup");
+
+        for (final double[] c : cases) {
+
+            final double per = Constants.WGS84_EARTH_EQUATORIAL_RADIUS + c[0]*1.e+3;
+            final double apo = Constants.WGS84_EARTH_EQUATORIAL_RADIUS + c[1]*1.e+3;
+            final double inc = FastMath.toRadians(c[2]);
+            final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, 0., 0., 0., PositionAngle.MEAN, MU);
+            final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+            //SPECIFIC
+            // Numerical reference
+            final NumericalPropagator numerical = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(2.), GCRF,
+                    OrbitType.CARTESIAN, PositionAngle.TRUE);
+            numerical.resetInitialState(new SpacecraftState(iniOrbit));
+            numerical.addForceModel(new DirectBodyAttraction(potentiel));
+            final List<Vector3D> reference = new ArrayList<Vector3D>();
+            final int[] numericalNodes = new int[1];
+            numerical.setMasterMode(sampleStep, new PositionRecorder(reference));
+            numerical.addEventDetector(new NodeCounter(GCRF, numericalNodes));
+            long start = System.nanoTime();
+            numerical.propagate(finalDate);
+            final double numericalDuration = (System.nanoTime() - start)*1.e-9;
+
+            // Analytical propagation, using the same hooks
+            final ZonalSecularPropagator analytical = new ZonalSecularPropagator(iniOrbit, AE, J2, J4);
+            final List<Vector3D> positions = new ArrayList<Vector3D>();
+            final int[] analyticalNodes = new int[1];
+            analytical.setMasterMode(sampleStep, new PositionRecorder(positions));
+            analytical.addEventDetector(new NodeCounter(GCRF, analyticalNodes));
+            start = System.nanoTime();
+            analytical.propagate(finalDate);
+            final double analyticalDuration = (System.nanoTime() - start)*1.e-9;
+            //SPECIFIC
+
+            final StringBuilder errors = new StringBuilder();
+            for (final double days : envelopeDays) {
+                final int last = (int) FastMath.min(positions.size(), FastMath.round(days*Constants.JULIAN_DAY/sampleStep) + 1);
+                double maxError = 0.;
+                for (int k = 0; k < last; k++) {
+                    maxError = FastMath.max(maxError, positions.get(k).distance(reference.get(k)));
+                }
+                errors.append(String.format("%10.3f", maxError/1000.));
+            }
+            System.out.println(String.format("%5.0f x %5.0f, %5.1f     %s           %4d/%4d %9.0f", c[0], c[1], c[2],
+                    errors, analyticalNodes[0], numericalNodes[0], numericalDuration/analyticalDuration));
+        }
+
+    }
+
+    /**
+     * Fixed step handler storing the positions.
+     */
+    private static final class PositionRecorder implements PatriusFixedStepHandler {
+
+        private static final long serialVersionUID = 1L;
+        private final List<Vector3D> positions;
+
+        /**
+         * Constructor
+         * @param positions list filled with the positions
+         */
+        PositionRecorder(final List<Vector3D> positions) {
+            this.positions = positions;
+        }
+
+        public void init(final SpacecraftState s0, final AbsoluteDate t) {
+            // Nothing to do ...
+        }
+
+        public void handleStep(final SpacecraftState currentState, final boolean isLast) {
+            positions.add(currentState.getPVCoordinates().getPosition());
+        }
+
+    }
+
+    /**
+     * Ascending node passages counter.
+     */
+    private static final class NodeCounter extends AOLDetector {
+
+        private static final long serialVersionUID = 1L;
+        private final int[] count;
+
+        /**
+         * Constructor
+         * @param frame frame defining the equator
+         * @param count array whose first element is incremented at each ascending node passage
+         */
+        NodeCounter(final Frame frame, final int[] count) {
+            super(0., PositionAngle.TRUE, frame, 60., 1.e-6, EventDetector.Action.CONTINUE);
+            this.count = count;
+        }
+
+        @Override
+        public Action eventOccurred(final SpacecraftState s, final boolean increasing, final boolean forward) {
+            if (increasing) {
+                count[0]++;
+            }
+            return EventDetector.Action.CONTINUE;
+        }
+
+    }
+
+}
@@ -0,0 +1,307 @@
+package vehicle;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.Random;
+
+import fr.cnes.sirius.addons.patriusdataset.PatriusDataset;
+import fr.cnes.sirius.patrius.assembly.Assembly;
+import fr.cnes.sirius.patrius.assembly.AssemblyBuilder;
+import fr.cnes.sirius.patrius.assembly.models.DragLiftModel;
+import fr.cnes.sirius.patrius.assembly.models.MassModel;
+import fr.cnes.sirius.patrius.assembly.properties.AeroGlobalProperty;
+import fr.cnes.sirius.patrius.assembly.properties.MassProperty;
+import fr.cnes.sirius.patrius.assembly.vehicle.VehicleSurfaceModel;
+import fr.cnes.sirius.patrius.attitudes.LofOffset;
+import fr.cnes.sirius.patrius.bodies.CelestialBodyFactory;
+import fr.cnes.sirius.patrius.bodies.OneAxisEllipsoid;
+import fr.cnes.sirius.patrius.forces.atmospheres.Atmosphere;
+import fr.cnes.sirius.patrius.forces.atmospheres.MSISE2000;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.ConstantSolarActivity;
+import fr.cnes.sirius.patrius.forces.atmospheres.solarActivity.specialized.ClassicalMSISE2000SolarData;
+import fr.cnes.sirius.patrius.forces.drag.DragForce;
+import fr.cnes.sirius.patrius.frames.Frame;
+import fr.cnes.sirius.patrius.frames.FramesFactory;
+import fr.cnes.sirius.patrius.frames.LOFType;
+import fr.cnes.sirius.patrius.frames.UpdatableFrame;
+import fr.cnes.sirius.patrius.frames.transformations.Transform;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.CrossSectionProvider;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.RightParallelepiped;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.RotationOrder;
+import fr.cnes.sirius.patrius.math.geometry.euclidean.threed.Vector3D;
+import fr.cnes.sirius.patrius.math.ode.nonstiff.ClassicalRungeKuttaIntegrator;
+import fr.cnes.sirius.patrius.math.util.FastMath;
+import fr.cnes.sirius.patrius.orbits.ApsisOrbit;
+import fr.cnes.sirius.patrius.orbits.Orbit;
+import fr.cnes.sirius.patrius.orbits.OrbitType;
+import fr.cnes.sirius.patrius.orbits.PositionAngle;
+import fr.cnes.sirius.patrius.orbits.orbitalparameters.ApsisRadiusParameters;
+import fr.cnes.sirius.patrius.propagation.MassProvider;
+import fr.cnes.sirius.patrius.propagation.SpacecraftState;
+import fr.cnes.sirius.patrius.propagation.numerical.NumericalPropagator;
+import fr.cnes.sirius.patrius.time.AbsoluteDate;
+import fr.cnes.sirius.patrius.time.TimeScale;
+import fr.cnes.sirius.patrius.time.TimeScalesFactory;
+import fr.cnes.sirius.patrius.utils.Constants;
+import fr.cnes.sirius.patrius.utils.exception.PatriusException;
+
+/**
+ * Cross section of a shape interpolated in a table over the incidence direction.
+ * <p>
+ * The cross section of the shape (a main shape, a {@link VehicleSurfaceModel} with its solar panels
+ * ...) is computed once on an azimuth x elevation grid of the direction, expressed in the frame of the
+ * shape. The table is then checked at the center of all its cells : the steps are halved until the
+ * error is below the target (relative to the largest cross section), and the reached error is kept
+ * (see {@link #getErrorBound()}). The construction fails if the target is still not reached after
+ * {@value #MAX_REFINEMENTS} refinements.
+ * </p>
+ * <p>
+ * The table is a {@link CrossSectionProvider} : it replaces the shape in the aero and radiative
+ * properties (AeroGlobalProperty, VehicleSurfaceModel ...), where the cross section is computed at
+ * each force evaluation. It is immutable and can be shared between threads.
+ * </p>
+ */
+public class TabulatedCrossSection implements CrossSectionProvider {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of refinements of the steps. */
+    private static final int MAX_REFINEMENTS = 4;
+
+    private final double step;
+    private final int nbAzimuths;
+    private final int nbElevations;
+    private final double[][] table;
+    private final double errorBound;
+
+    /**
+     * Constructor
+     * @param shape       tabulated shape
+     * @param initialStep initial azimuth and elevation step (rad)
+     * @param targetError target error, relative to the largest cross section
+     * @throws IllegalArgumentException if the target error is not reached after the last refinement
+     */
+    public TabulatedCrossSection(final CrossSectionProvider shape, final double initialStep, final double targetError) {
+
+        double currentStep = initialStep;
+        int nbAz = 0;
+        int nbEl = 0;
+        double[][] values = null;
+        double error = Double.POSITIVE_INFINITY;
+        for (int refinement = 0; refinement <= MAX_REFINEMENTS && error > targetError; refinement++) {
+
+            if (refinement > 0) {
+                currentStep *= 0.5;
+            }
+            nbAz = (int) FastMath.round(2.*FastMath.PI/currentStep);
+            nbEl = (int) FastMath.round(FastMath.PI/currentStep) + 1;
+            final double azStep = 2.*FastMath.PI/nbAz;
+            final double elStep = FastMath.PI/(nbEl - 1);
+
+            values = new double[nbEl][nbAz];
+            double maxSection = 0.;
+            for (int i = 0; i < nbEl; i++) {
+                for (int j = 0; j < nbAz; j++) {
+                    values[i][j] = shape.getCrossSection(direction(j*azStep, -0.5*FastMath.PI + i*elStep));
+                    maxSection = FastMath.max(maxSection, values[i][j]);
+                }
+            }
+
+            // Check at the center of the cells
+            double maxError = 0.;
+            for (int i = 0; i < nbEl - 1; i++) {
+                for (int j = 0; j < nbAz; j++) {
+                    final Vector3D dir = direction((j + 0.5)*azStep, -0.5*FastMath.PI + (i + 0.5)*elStep);
+                    final double interpolated = interpolate(values, nbAz, nbEl, dir);
+                    maxError = FastMath.max(maxError, FastMath.abs(interpolated - shape.getCrossSection(dir)));
+                }
+            }
+            error = maxSection > 0. ? maxError/maxSection : 0.;
+        }
+
+        if (error > targetError) {
+            throw new IllegalArgumentException(String.format("Target error %.2e not reached (%.2e with a %.3f deg step) :"
+                    + " the initial step must be smaller or the target larger", targetError, error,
+                    FastMath.toDegrees(currentStep)));
+        }
+
+        this.step = currentStep;
+        this.nbAzimuths = nbAz;
+        this.nbElevations = nbEl;
+        this.table = values;
+        this.errorBound = error;
+
+    }
+
+    public double getCrossSection(final Vector3D direction) {
+        return interpolate(table, nbAzimuths, nbElevations, direction);
+    }
+
+    /**
+     * @return error of the table at the center of the cells, relative to the largest cross section
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return azimuth and elevation step of the table (rad)
+     */
+    public double getStep() {
+        return step;
+    }
+
+    private static Vector3D direction(final double azimuth, final double elevation) {
+        final double cosEl = FastMath.cos(elevation);
+        return new Vector3D(cosEl*FastMath.cos(azimuth), cosEl*FastMath.sin(azimuth), FastMath.sin(elevation));
+    }
+
+    /**
+     * Method to interpolate a table (bilinear interpolation, periodic in azimuth).
+     * @param values    table
+     * @param nbAz      number of azimuths
+     * @param nbEl      number of elevations
+     * @param direction direction (not necessarily normalized)
+     * @return cross section
+     */
+    private static double interpolate(final double[][] values, final int nbAz, final int nbEl, final Vector3D direction) {
+
+        final double norm = direction.getNorm();
+        final double azimuth = FastMath.atan2(direction.getY(), direction.getX());
+        final double elevation = FastMath.asin(FastMath.max(-1., FastMath.min(1., direction.getZ()/norm)));
+
+        final double xa = (azimuth < 0. ? azimuth + 2.*FastMath.PI : azimuth)*nbAz/(2.*FastMath.PI);
+        final int j = ((int) FastMath.floor(xa)) % nbAz;
+        final double wa = xa - FastMath.floor(xa);
+        final int j1 = (j + 1) % nbAz;
+
+        final double xe = (elevation + 0.5*FastMath.PI)*(nbEl - 1)/FastMath.PI;
+        final int i = FastMath.min(nbEl - 2, (int) FastMath.floor(xe));
+        final double we = xe - i;
+
+        return (1. - we)*((1. - wa)*values[i][j] + wa*values[i][j1])
+                + we*((1. - wa)*values[i + 1][j] + wa*values[i + 1][j1]);
+
+    }
+
+    public static void main(final String[] args) throws PatriusException, IOException, ParseException, URISyntaxException {
+
+        Locale.setDefault(Locale.US);
+
+        // Patrius Dataset initialization (needed for example to get the UTC time)
+        PatriusDataset.addResourcesFromPatriusDataset() ;
+
+        // Shape : parallelepiped main body and solar panels
+        final RightParallelepiped body = new RightParallelepiped(2., 1., 1.);
+        final RightParallelepiped solarPanels = new RightParallelepiped(8., 1., 0.02);
+        final VehicleSurfaceModel surface = new VehicleSurfaceModel(body, solarPanels);
+
+        //SPECIFIC
+        // Table and accuracy check on random directions
+        long start = System.nanoTime();
+        final TabulatedCrossSection tabulated = new TabulatedCrossSection(surface, FastMath.toRadians(5.), 5.e-3);
+        final double buildDuration = (System.nanoTime() - start)*1.e-9;
+
+        final int nbDirections = 1000000;
+        final Random random = new Random(42);
+        final Vector3D[] directions = new Vector3D[nbDirections];
+        for (int i = 0; i < nbDirections; i++) {
+            directions[i] = new Vector3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+        }
+        final double[] exact = new double[nbDirections];
+        start = System.nanoTime();
+        for (int i = 0; i < nbDirections; i++) {
+            exact[i] = surface.getCrossSection(directions[i]);
+        }
+        final double exactDuration = (System.nanoTime() - start)*1.e-9;
+        double maxError = 0.;
+        double maxSection = 0.;
+        start = System.nanoTime();
+        for (int i = 0; i < nbDirections; i++) {
+            maxError = FastMath.max(maxError, FastMath.abs(tabulated.getCrossSection(directions[i]) - exact[i]));
+        }
+        final double tabulatedDuration = (System.nanoTime() - start)*1.e-9;
+        for (int i = 0; i < nbDirections; i++) {
+            maxSection = FastMath.max(maxSection, exact[i]);
+        }
+
+        System.out.println(String.format("Table built in %.3f s (step %.3f deg, error bound %.2e)", buildDuration,
+                FastMath.toDegrees(tabulated.getStep()), tabulated.getErrorBound()));
+        System.out.println(String.format("%d directions : exact %.3f s, tabulated %.3f s ; max error %.3e m2 (%.2e relative)",
+                nbDirections, exactDuration, tabulatedDuration, maxError, maxError/maxSection));
+
+        // Propagation of NumericalPropagationWithLiftAndDragAndMSISE2000 with the exact and the tabulated shape
+        final double[] durations = new double[2];
+        final SpacecraftState[] finalStates = new SpacecraftState[2];
+        final CrossSectionProvider[] shapes = { surface, tabulated };
+        for (int k = 0; k < 2; k++) {
+            start = System.nanoTime();
+            finalStates[k] = propagate(shapes[k]);
+            durations[k] = (System.nanoTime() - start)*1.e-9;
+        }
+        //SPECIFIC
+
+        System.out.println();
+        System.out.println(String.format("Propagation : exact %.3f s, tabulated %.3f s", durations[0], durations[1]));
+        System.out.println(String.format("Final semi major axis : exact %.3f km, tabulated %.3f km", finalStates[0].getA()/1000.,
+                finalStates[1].getA()/1000.));
+        System.out.println(String.format("Final position difference = %.3e m",
+                finalStates[0].getPVCoordinates().getPosition().distance(finalStates[1].getPVCoordinates().getPosition())));
+
+    }
+
+    /**
+     * Method to propagate 5 periods of the scenario of NumericalPropagationWithLiftAndDragAndMSISE2000.
+     * @param shape cross section provider of the AeroGlobalProperty
+     * @return final state
+     * @throws PatriusException
+     */
+    private static SpacecraftState propagate(final CrossSectionProvider shape) throws PatriusException {
+
+        final TimeScale TUC = TimeScalesFactory.getUTC();
+        final AbsoluteDate date = new AbsoluteDate("2010-01-01T12:00:00.000", TUC);
+        final Frame GCRF = FramesFactory.getGCRF();
+
+        final double sma = 6600.e+3;
+        final double exc = 0.;
+        final double per = sma*(1.-exc);
+        final double apo = sma*(1.+exc);
+        final double inc = FastMath.toRadians(98.);
+        final double pa = FastMath.toRadians(0.);
+        final double raan = FastMath.toRadians(0.);
+        final double anm = FastMath.toRadians(0.);
+        final double MU = Constants.WGS84_EARTH_MU;
+
+        final ApsisRadiusParameters par = new ApsisRadiusParameters(per, apo, inc, pa, raan, anm, PositionAngle.MEAN, MU);
+        final Orbit iniOrbit = new ApsisOrbit(par, GCRF, date);
+
+        final AssemblyBuilder builder = new AssemblyBuilder();
+        final double dryMass = 100.;
+        builder.addMainPart("MAIN");
+        builder.addProperty(new MassProperty(dryMass), "MAIN");
+        final double cd = 2.0;
+        final double cl = 0.2;
+        builder.addProperty(new AeroGlobalProperty(cd, cl, shape), "MAIN");
+        builder.initMainPartFrame(new UpdatableFrame(GCRF, Transform.IDENTITY, "mainPartFrame"));
+        final Assembly assembly = builder.returnAssembly();
+        final MassProvider mm = new MassModel(assembly);
+
+        final NumericalPropagator propagator = new NumericalPropagator(new ClassicalRungeKuttaIntegrator(2.),
+                GCRF, OrbitType.CARTESIAN, PositionAngle.TRUE);
+        propagator.resetInitialState(new SpacecraftState(iniOrbit, mm));
+        propagator.setMassProviderEquation(mm);
+        propagator.setAttitudeProvider(new LofOffset(LOFType.LVLH, RotationOrder.ZYX, 0., 0., 0.));
+
+        final OneAxisEllipsoid EARTH = new OneAxisEllipsoid(Constants.WGS84_EARTH_EQUATORIAL_RADIUS,
+                Constants.WGS84_EARTH_FLATTENING, FramesFactory.getITRF(), "EARTH");
+        final Atmosphere atmosphere = new MSISE2000(new ClassicalMSISE2000SolarData(new ConstantSolarActivity(100, 15)),
+                EARTH, CelestialBodyFactory.getSun());
+        propagator.addForceModel(new DragForce(atmosphere, new DragLiftModel(assembly)));
+
+        return propagator.propagate(date.shiftedBy(5.*iniOrbit.getKeplerianPeriod()));
+
+    }
+
+}